@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compares the batch calculations of Geodesy with a loop over the scalar
+ * methods of Location. During setup the batch results are checked
+ * against the scalar ones, they have to be the same to the last bit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeodesyBenchmark {
+    @Param({ "1000", "100000" })
+    public int              persons;
+    private double          latitude;
+    private double          longitude;
+    private double[]        latitudes;
+    private double[]        longitudes;
+    private Geodesy.Points  points;
+    private double[]        result;
+
+
+    @Setup public void setup() {
+        List<Location> locations = Payloads.createLocations(persons + 1);
+        latitude   = locations.get(0).latitude;
+        longitude  = locations.get(0).longitude;
+        locations  = locations.subList(1, locations.size());
+        points     = Geodesy.Points.of(locations);
+        latitudes  = new double[persons];
+        longitudes = new double[persons];
+        for (int i = 0 ; i < persons ; i++) {
+            latitudes[i]  = points.getLatitude(i);
+            longitudes[i] = points.getLongitude(i);
+        }
+        result = new double[persons];
+        verify();
+    }
+
+
+    // ******************** Benchmarks ****************************************
+    @Benchmark public double[] scalarDistances() {
+        for (int i = 0 ; i < persons ; i++) { result[i] = Location.calcDistanceInMeter(latitude, longitude, latitudes[i], longitudes[i]); }
+        return result;
+    }
+
+    @Benchmark public double[] batchDistances() {
+        Geodesy.distancesInMeter(latitude, longitude, points, result);
+        return result;
+    }
+
+    @Benchmark public double[] batchDistancesParallel() {
+        Geodesy.distancesInMeter(latitude, longitude, points, result, true);
+        return result;
+    }
+
+    @Benchmark public double[] scalarBearings() {
+        for (int i = 0 ; i < persons ; i++) { result[i] = Location.calcBearingInDegree(latitude, longitude, latitudes[i], longitudes[i]); }
+        return result;
+    }
+
+    @Benchmark public double[] batchBearings() {
+        Geodesy.bearingsInDegree(latitude, longitude, points, result);
+        return result;
+    }
+
+    @Benchmark public double[] batchBearingsParallel() {
+        Geodesy.bearingsInDegree(latitude, longitude, points, result, true);
+        return result;
+    }
+
+
+    // ******************** Private Methods ***********************************
+    private void verify() {
+        final double[] BATCH = new double[persons];
+        Geodesy.distancesInMeter(latitude, longitude, points, BATCH, true);
+        for (int i = 0 ; i < persons ; i++) {
+            check("distance", i, Location.calcDistanceInMeter(latitude, longitude, latitudes[i], longitudes[i]), BATCH[i]);
+        }
+        Geodesy.bearingsInDegree(latitude, longitude, points, BATCH, true);
+        for (int i = 0 ; i < persons ; i++) {
+            check("bearing", i, Location.calcBearingInDegree(latitude, longitude, latitudes[i], longitudes[i]), BATCH[i]);
+        }
+        // A small matrix covers the row offsets of the matrix kernels
+        final int      SIZE     = Math.min(persons, 64);
+        final double[] LATS     = new double[SIZE];
+        final double[] LONS     = new double[SIZE];
+        System.arraycopy(latitudes, 0, LATS, 0, SIZE);
+        System.arraycopy(longitudes, 0, LONS, 0, SIZE);
+        final Geodesy.Points SMALL    = new Geodesy.Points(LATS, LONS);
+        final double[]       DISTANCE = new double[SIZE * SIZE];
+        final double[]       BEARING  = new double[SIZE * SIZE];
+        Geodesy.distanceMatrix(SMALL, SMALL, DISTANCE, true);
+        Geodesy.bearingMatrix(SMALL, SMALL, BEARING, true);
+        for (int i = 0 ; i < SIZE ; i++) {
+            for (int j = 0 ; j < SIZE ; j++) {
+                check("distance matrix", i * SIZE + j, Location.calcDistanceInMeter(LATS[i], LONS[i], LATS[j], LONS[j]), DISTANCE[i * SIZE + j]);
+                check("bearing matrix", i * SIZE + j, Location.calcBearingInDegree(LATS[i], LONS[i], LATS[j], LONS[j]), BEARING[i * SIZE + j]);
+            }
+        }
+    }
+
+    private static void check(final String NAME, final int INDEX, final double EXPECTED, final double ACTUAL) {
+        if (Double.compare(EXPECTED, ACTUAL) != 0) throw new IllegalStateException(NAME + " " + INDEX + ": scalar " + EXPECTED + " batch " + ACTUAL);
+    }
+}
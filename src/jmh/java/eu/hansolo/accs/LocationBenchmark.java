@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmarks of the per Location operations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationBenchmark {
+    private JSONObject json;
+    private Location   location;
+    private Location   other;
+    private double     bearing;
+
+
+    @Setup public void setup() {
+        location = Payloads.createLocations(2).get(0);
+        other    = Payloads.createLocations(2).get(1);
+        json     = Payloads.toBackendJSON(location);
+        bearing  = location.getBearingTo(other);
+    }
+
+
+    // ******************** Benchmarks ****************************************
+    @Benchmark public Location fromJSON() { return new Location(json); }
+
+    @Benchmark public JSONObject toJSON() { return location.toJSON(); }
+
+    @Benchmark public String toJSONString() { return location.toJSONString(); }
+
+    @Benchmark public double calcDistanceInMeter() { return location.calcDistanceInMeter(location, other); }
+
+    @Benchmark public double calcBearingInDegree() { return Location.calcBearingInDegree(location.latitude, location.longitude, other.latitude, other.longitude); }
+
+    @Benchmark public String getCardinalDirectionFromBearing() { return location.getCardinalDirectionFromBearing(bearing); }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compares keeping a LocationCodec payload as Location objects in a map by
+ * name with decoding it straight into a LocationStore. With the gc profiler
+ * (gradle jmh) the allocation per poll of both is reported, the size of the
+ * store arrays is printed once per parameter set during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocationStoreBenchmark {
+    @Param({ "10000", "100000", "1000000" })
+    public int                    persons;
+    private byte[]                binary;
+    private LocationCodec         codec;
+    private Map<String, Location> map;
+    private LocationStore         store;
+    private Location              flyweight;
+
+
+    @Setup public void setup() throws IOException {
+        List<Location> locations = Payloads.createLocations(persons);
+        binary    = LocationCodec.encode(locations);
+        codec     = new LocationCodec();
+        map       = new HashMap<>(persons * 4 / 3 + 1);
+        store     = new LocationStore(persons);
+        flyweight = new Location(0, 0, 0, null, "", "");
+        for (Location location : locations) { map.put(location.name, location); }
+        store.putAll(locations);
+        System.out.printf("%n# LocationStore with %d persons: %d bytes without the strings%n", persons, store.getFootprint());
+    }
+
+
+    // ******************** Benchmarks ****************************************
+    /**
+     * A poll that replaces every person in the map with a new Location
+     */
+    @Benchmark public Map<String, Location> updateMap() throws IOException {
+        codec.decode(new ByteArrayInputStream(binary), location -> { map.put(location.name, location); });
+        return map;
+    }
+
+    /**
+     * The same poll decoded into the rows of the store
+     */
+    @Benchmark public LocationStore updateStore() throws IOException {
+        codec.decode(new ByteArrayInputStream(binary), store);
+        return store;
+    }
+
+    @Benchmark public double scanMap() {
+        double sum = 0;
+        for (Location location : map.values()) { sum += location.latitude; }
+        return sum;
+    }
+
+    @Benchmark public double scanStore() {
+        double sum = 0;
+        for (int row = 0 ; row < store.size() ; row++) { sum += store.get(row, flyweight).latitude; }
+        return sum;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmarks of the parse paths of a realistic /locations payload, the
+ * json-simple tree of RestClient.parseJSONArray() and the streaming
+ * LocationDecoder that is used by RestClient.fetchLocationUpdate().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({ "1000", "10000", "100000" })
+    public int     persons;
+    private byte[] payload;
+
+
+    @Setup public void setup() {
+        payload = Payloads.createJSON(persons).getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    // ******************** Benchmarks ****************************************
+    @Benchmark public List<Location> jsonSimple() {
+        JSONArray      array     = RestClient.INSTANCE.parseJSONArray(new String(payload, StandardCharsets.UTF_8));
+        List<Location> locations = new ArrayList<>(array.size());
+        for (Object obj : array) { locations.add(new Location((JSONObject) obj)); }
+        return locations;
+    }
+
+    @Benchmark public List<Location> streaming() throws IOException {
+        return new LocationDecoder().decode(new ByteArrayInputStream(payload));
+    }
+}
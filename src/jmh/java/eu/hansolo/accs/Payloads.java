@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+
+/**
+ * Creates reproducible test data that looks like the payload of the
+ * /locations endpoint (string typed numbers, names and infos).
+ */
+final class Payloads {
+    private static final String[] INFOS = { "", "Office", "Home", "Customer visit", "Conference Center, Hall 3", "Airport" };
+
+
+    // ******************** Methods *******************************************
+    static List<Location> createLocations(final int COUNT) {
+        final Random   RND  = new Random(42);
+        final long     NOW  = Instant.now().getEpochSecond();
+        List<Location> list = new ArrayList<>(COUNT);
+        for (int i = 0 ; i < COUNT ; i++) {
+            list.add(new Location(51.9 + RND.nextGaussian() * 0.5,
+                                  7.6 + RND.nextGaussian() * 0.5,
+                                  RND.nextDouble() * 300,
+                                  Instant.ofEpochSecond(NOW - RND.nextInt(172_800)),
+                                  String.format(Locale.US, "Person %06d", i),
+                                  INFOS[RND.nextInt(INFOS.length)]));
+        }
+        return list;
+    }
+
+    static JSONObject toBackendJSON(final Location LOCATION) {
+        JSONObject json = new JSONObject();
+        json.put("name", LOCATION.name);
+        json.put("timestamp", Long.toString(LOCATION.timestamp.getEpochSecond()));
+        json.put("latitude", String.format(Locale.US, "%.6f", LOCATION.latitude));
+        json.put("longitude", String.format(Locale.US, "%.6f", LOCATION.longitude));
+        json.put("altitude", String.format(Locale.US, "%.1f", LOCATION.altitude));
+        json.put("info", LOCATION.info);
+        return json;
+    }
+
+    static String createJSON(final int COUNT) {
+        JSONArray array = new JSONArray();
+        for (Location location : createLocations(COUNT)) { array.add(toBackendJSON(location)); }
+        return array.toJSONString();
+    }
+}
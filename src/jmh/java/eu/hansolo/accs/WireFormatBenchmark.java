@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Compares the decode time of the json payload of the backend with the
+ * LocationCodec format. The payload sizes (plain and gzipped) are printed
+ * once per parameter set during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WireFormatBenchmark {
+    @Param({ "1000", "10000", "100000" })
+    public int                  persons;
+    private List<Location>      locations;
+    private byte[]              json;
+    private byte[]              binary;
+    private LocationCodec       codec;
+    private double[]            latitudes;
+    private double[]            longitudes;
+
+
+    @Setup public void setup() throws IOException {
+        locations      = Payloads.createLocations(persons);
+        json           = LocationsHandler.toJSON(locations).getBytes(StandardCharsets.UTF_8);
+        binary         = LocationCodec.encode(locations);
+        codec          = new LocationCodec();
+        latitudes      = new double[persons];
+        longitudes     = new double[persons];
+        System.out.printf("%n# Payload of %d persons: json %d bytes (gzip %d), binary %d bytes (gzip %d)%n",
+                          persons, json.length, gzipSize(json), binary.length, gzipSize(binary));
+    }
+
+
+    // ******************** Benchmarks ****************************************
+    @Benchmark public List<Location> json() throws IOException {
+        return new LocationDecoder().decode(new ByteArrayInputStream(json));
+    }
+
+    @Benchmark public List<Location> binary() throws IOException {
+        return codec.decode(new ByteArrayInputStream(binary));
+    }
+
+    @Benchmark public double[] binaryColumns() throws IOException {
+        final int[] INDEX = { 0 };
+        codec.decode(new ByteArrayInputStream(binary), (name, info, epochSecond, latitude, longitude, altitude) -> {
+            latitudes[INDEX[0]]    = latitude;
+            longitudes[INDEX[0]++] = longitude;
+        });
+        return latitudes;
+    }
+
+    @Benchmark public byte[] encode() { return LocationCodec.encode(locations); }
+
+
+    // ******************** Private Methods ***********************************
+    private static int gzipSize(final byte[] PAYLOAD) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) { gzip.write(PAYLOAD); }
+        return output.size();
+    }
+}
@@ -0,0 +1,802 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.geometry.VPos;
+import javafx.scene.Node;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ToggleButton;
+import javafx.scene.control.ToggleGroup;
+import javafx.scene.image.Image;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.shape.StrokeLineJoin;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Draws the slippy map tiles, the person markers, the clusters, the
+ * geofences and the tracks directly on a Canvas, as a lightweight alternative to the
+ * WebView with osm.html.
+ * The tiles are loaded from TileCaches on background threads and kept
+ * decoded in a small LRU cache, missing tiles are replaced by a scaled
+ * part of a cached parent tile in the meantime.
+ * Marker updates only repaint the area around the old and the new
+ * position of the changed markers, all dirty areas of one pulse are
+ * painted at once by an AnimationTimer.
+ * Like osm.html the map is panned by dragging and zoomed with the
+ * buttons or a double click, a click on a cluster zooms in on it.
+ * The world wraps horizontally, the center is kept in the first copy and
+ * markers, fences and tracks are painted in every copy that is visible.
+ */
+public class CanvasMapRenderer extends Region implements MapRenderer {
+    private static final int                TILE_SIZE        = 256;
+    private static final int                MIN_ZOOM         = 1;
+    private static final int                MAX_ZOOM         = 19;
+    private static final int                MAX_IMAGES       = 256;
+    private static final int                MAX_PARENT_LEVELS = 4;
+    private static final int                LOADER_THREADS   = 4;
+    private static final double             MARKER_RADIUS    = 7;
+    private static final double             CLUSTER_RADIUS   = 15;
+    private static final double             EQUATOR_MPP      = 156_543.03392; // meters per pixel at zoom 0
+    private static final Color              BACKGROUND       = Color.web("#dddddd");
+    private static final Color              ACTIVE_FILL      = Color.web("#3f51b5");
+    private static final Color              OLD_FILL         = Color.web("#9e9e9e");
+    private static final Color              CLUSTER_FILL     = Color.rgb(63, 81, 181, 0.85);
+    private static final Color              MARKER_STROKE    = Color.rgb(255, 255, 255, 0.8);
+    private static final Color              EMPTY_FENCE      = Color.web("#3f51b5");
+    private static final Color              OCCUPIED_FENCE   = Color.web("#ff9800");
+    private static final Color              TRACK_STROKE     = Color.rgb(63, 81, 181, 0.5);
+    private static final double             TRACK_WIDTH      = 3;
+    private final MapConnector.ViewListener viewListener;
+    private final Map<String, TileCache>    layers;
+    private final Map<String, Image>        images;
+    private final Set<String>               loading;
+    private final ExecutorService           loader;
+    private final Map<String, Marker>       markers;
+    private final Map<String, Geofence>     fences;
+    private final Map<String, Integer>      occupancy;
+    private final Map<String, double[]>     tracks;
+    private final Canvas                    canvas;
+    private final GraphicsContext           ctx;
+    private final ToggleGroup               layerGroup;
+    private final HBox                      layerSwitch;
+    private final VBox                      zoomControl;
+    private final Label                     popup;
+    private final AnimationTimer            timer;
+    private volatile String                 layer;
+    private volatile int                    zoom;
+    private double                          centerX;    // center of the view in world pixels of the current zoom level, 0 <= centerX < worldSize()
+    private double                          centerY;
+    private boolean                         dirty;
+    private double                          dirtyMinX;
+    private double                          dirtyMinY;
+    private double                          dirtyMaxX;
+    private double                          dirtyMaxY;
+    private double                          dragX;
+    private double                          dragY;
+    private boolean                         dragged;
+
+
+    // ******************** Constructors **************************************
+    public CanvasMapRenderer(final MapConnector.ViewListener VIEW_LISTENER, final int ZOOM) {
+        viewListener = VIEW_LISTENER;
+        layers       = new LinkedHashMap<>();
+        images       = new LinkedHashMap<String, Image>(MAX_IMAGES * 4 / 3, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(final Map.Entry<String, Image> ELDEST) { return size() > MAX_IMAGES; }
+        };
+        loading      = new HashSet<>();
+        loader       = Executors.newFixedThreadPool(LOADER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "CanvasTileLoader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        markers      = new LinkedHashMap<>();
+        fences       = new LinkedHashMap<>();
+        occupancy    = new HashMap<>();
+        tracks       = new LinkedHashMap<>();
+        zoom         = clampZoom(ZOOM);
+        centerX      = worldSize() * 0.5;
+        centerY      = worldSize() * 0.5;
+        canvas       = new Canvas();
+        ctx          = canvas.getGraphicsContext2D();
+        layerGroup   = new ToggleGroup();
+        layerSwitch  = new HBox(2);
+        zoomControl  = new VBox(2, createZoomButton("+", 1), createZoomButton("-", -1));
+        popup        = new Label();
+        timer        = new AnimationTimer() {
+            @Override public void handle(final long NOW) {
+                stop();
+                if (dirty) { paint(); }
+            }
+        };
+        initGraphics();
+        registerListeners();
+    }
+
+
+    // ******************** Initialization ************************************
+    private void initGraphics() {
+        Rectangle clip = new Rectangle();
+        clip.widthProperty().bind(widthProperty());
+        clip.heightProperty().bind(heightProperty());
+        setClip(clip);
+
+        popup.setVisible(false);
+        popup.setPadding(new Insets(6));
+        popup.setStyle("-fx-background-color: white; -fx-background-radius: 4; -fx-text-fill: #333333; -fx-font-family: monospace; " +
+                       "-fx-effect: dropshadow(two-pass-box, rgba(0, 0, 0, 0.4), 6, 0, 0, 1);");
+        popup.setMouseTransparent(true);
+
+        getChildren().setAll(canvas, popup, layerSwitch, zoomControl);
+    }
+
+    private void registerListeners() {
+        canvas.setOnMousePressed(this::onMousePressed);
+        canvas.setOnMouseDragged(this::onMouseDragged);
+        canvas.setOnMouseReleased(e -> { if (dragged) reportView(); });
+        canvas.setOnMouseClicked(this::onMouseClicked);
+        layerGroup.selectedToggleProperty().addListener((o, ov, nv) -> {
+            if (null == nv) {
+                // Keep one layer selected
+                layerGroup.selectToggle(ov);
+                return;
+            }
+            layer = ((ToggleButton) nv).getText();
+            markAllDirty();
+        });
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Adds a base layer, the first one that is added is shown
+     * @param NAME  the name in the layer switch
+     * @param CACHE the source of the tiles
+     */
+    public CanvasMapRenderer addLayer(final String NAME, final TileCache CACHE) {
+        layers.put(NAME, CACHE);
+        ToggleButton button = new ToggleButton(NAME);
+        button.setToggleGroup(layerGroup);
+        button.setFocusTraversable(false);
+        layerSwitch.getChildren().add(button);
+        if (null == layer) { layerGroup.selectToggle(button); }
+        return this;
+    }
+
+    @Override public Node getNode() { return this; }
+
+    @Override public void load(final Runnable ON_LOADED) {
+        Platform.runLater(() -> {
+            reportView();
+            ON_LOADED.run();
+        });
+    }
+
+    @Override public void applyMarkerUpdates(final MarkerBatch BATCH) {
+        BATCH.forEach(new MarkerBatch.Visitor() {
+            @Override public void marker(final String NAME, final String INFO, final boolean UP_TO_DATE, final double LATITUDE, final double LONGITUDE) {
+                update(NAME, INFO, UP_TO_DATE, 0, LATITUDE, LONGITUDE);
+            }
+            @Override public void cluster(final String ID, final int COUNT, final double LATITUDE, final double LONGITUDE) {
+                update(ID, null, true, COUNT, LATITUDE, LONGITUDE);
+            }
+            @Override public void remove(final String NAME) {
+                removeMarker(NAME);
+            }
+        });
+    }
+
+    /**
+     * Adds or moves the marker of a single person, the counterpart of document.moveMarker() in osm.html
+     */
+    public void moveMarker(final String NAME, final String INFO, final boolean UP_TO_DATE, final double LATITUDE, final double LONGITUDE) {
+        update(NAME, INFO, UP_TO_DATE, 0, LATITUDE, LONGITUDE);
+    }
+
+    public void removeMarker(final String NAME) {
+        Marker marker = markers.remove(NAME);
+        if (null == marker) return;
+        markDirty(marker);
+        if (popup.isVisible() && NAME.equals(popup.getUserData())) { hidePopup(); }
+    }
+
+    @Override public void clearMarkers() {
+        markers.clear();
+        hidePopup();
+        markAllDirty();
+    }
+
+    @Override public void panTo(final double LATITUDE, final double LONGITUDE) {
+        final double WORLD = worldSize();
+        centerX = toX(LONGITUDE) * WORLD;
+        centerY = toY(LATITUDE) * WORLD;
+        wrapCenter();
+        viewChanged();
+    }
+
+    @Override public void panToMarker(final String NAME) {
+        Marker marker = markers.get(NAME);
+        if (null != marker) { panTo(marker.latitude, marker.longitude); }
+    }
+
+    public int getZoom() { return zoom; }
+    /**
+     * Sets the zoom level and keeps the center of the view
+     */
+    public void setZoom(final int ZOOM) { zoomAt(ZOOM, getWidth() * 0.5, getHeight() * 0.5); }
+
+    @Override public void setFences(final Collection<Geofence> FENCES) {
+        fences.clear();
+        occupancy.clear();
+        for (Geofence fence : FENCES) { fences.put(fence.id, fence); }
+        markAllDirty();
+    }
+
+    @Override public void applyFenceUpdates(final Map<String, Integer> OCCUPANCY) {
+        for (Map.Entry<String, Integer> entry : OCCUPANCY.entrySet()) {
+            Geofence fence = fences.get(entry.getKey());
+            if (null == fence) continue;
+            Integer previous = occupancy.put(fence.id, entry.getValue());
+            if ((null != previous && previous > 0) != entry.getValue() > 0) {
+                markDirtyWrapped(screenX(toX(fence.west)) - 2, screenY(toY(fence.north)) - 2, screenX(toX(fence.east)) + 2, screenY(toY(fence.south)) + 2);
+            }
+        }
+    }
+
+    @Override public void applyTrackUpdates(final TrackBatch BATCH) {
+        BATCH.forEach(new TrackBatch.Visitor() {
+            @Override public void segment(final String ID, final double[] POINTS) {
+                markDirty(tracks.put(ID, POINTS));
+                markDirty(POINTS);
+            }
+            @Override public void remove(final String ID) {
+                markDirty(tracks.remove(ID));
+            }
+        });
+    }
+
+    @Override public void clearTracks() {
+        tracks.clear();
+        markAllDirty();
+    }
+
+    @Override public void dispose() {
+        timer.stop();
+        loader.shutdownNow();
+        images.clear();
+    }
+
+
+    // ******************** Layout ********************************************
+    @Override protected void layoutChildren() {
+        final double WIDTH  = getWidth();
+        final double HEIGHT = getHeight();
+        if (canvas.getWidth() != WIDTH || canvas.getHeight() != HEIGHT) {
+            canvas.setWidth(WIDTH);
+            canvas.setHeight(HEIGHT);
+            markAllDirty();
+            reportView();
+        }
+        layerSwitch.autosize();
+        layerSwitch.relocate(WIDTH - layerSwitch.getWidth() - 10, 10);
+        zoomControl.autosize();
+        zoomControl.relocate(WIDTH - zoomControl.getWidth() - 10, HEIGHT - zoomControl.getHeight() - 10);
+        popup.autosize();
+    }
+
+    @Override protected double computePrefWidth(final double HEIGHT) { return 530; }
+
+    @Override protected double computePrefHeight(final double WIDTH) { return 400; }
+
+
+    // ******************** Private Methods ***********************************
+    private void update(final String NAME, final String INFO, final boolean UP_TO_DATE, final int COUNT, final double LATITUDE, final double LONGITUDE) {
+        Marker marker = markers.get(NAME);
+        if (null == marker) {
+            marker = new Marker(NAME);
+            markers.put(NAME, marker);
+        } else {
+            markDirty(marker);
+        }
+        marker.info      = INFO;
+        marker.upToDate  = UP_TO_DATE;
+        marker.count     = COUNT;
+        marker.latitude  = LATITUDE;
+        marker.longitude = LONGITUDE;
+        marker.x         = toX(LONGITUDE);
+        marker.y         = toY(LATITUDE);
+        markDirty(marker);
+    }
+
+    private void markDirty(final Marker MARKER) {
+        final double RADIUS = (MARKER.count > 0 ? CLUSTER_RADIUS : MARKER_RADIUS) + 2;
+        final double X      = screenX(MARKER.x);
+        final double Y      = screenY(MARKER.y);
+        markDirtyWrapped(X - RADIUS, Y - RADIUS, X + RADIUS, Y + RADIUS);
+    }
+
+    /**
+     * Marks the bounds of the given track segment as dirty
+     * @param POINTS latitude/longitude pairs or null
+     */
+    private void markDirty(final double[] POINTS) {
+        if (null == POINTS || POINTS.length == 0) return;
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        double x    = Double.NaN;
+        for (int i = 0 ; i < POINTS.length ; i += 2) {
+            x = toTrackX(POINTS[i + 1], x);
+            final double X = screenX(x);
+            final double Y = screenY(toY(POINTS[i]));
+            minX = Math.min(minX, X);
+            minY = Math.min(minY, Y);
+            maxX = Math.max(maxX, X);
+            maxY = Math.max(maxY, Y);
+        }
+        markDirtyWrapped(minX - TRACK_WIDTH, minY - TRACK_WIDTH, maxX + TRACK_WIDTH, maxY + TRACK_WIDTH);
+    }
+
+    private void markAllDirty() { markDirty(0, 0, canvas.getWidth(), canvas.getHeight()); }
+
+    /**
+     * Marks the given area in the first copy of the world and in all other
+     * copies that are visible as dirty
+     */
+    private void markDirtyWrapped(final double MIN_X, final double MIN_Y, final double MAX_X, final double MAX_Y) {
+        final double WORLD = worldSize();
+        for (double offset = firstCopy(MAX_X, 0) ; MIN_X + offset <= canvas.getWidth() ; offset += WORLD) {
+            markDirty(MIN_X + offset, MIN_Y, MAX_X + offset, MAX_Y);
+        }
+    }
+
+    /**
+     * Adds the given area in canvas coordinates to the area that will be
+     * repainted with the next pulse
+     */
+    private void markDirty(final double MIN_X, final double MIN_Y, final double MAX_X, final double MAX_Y) {
+        final double X0 = Math.max(0, Math.floor(MIN_X));
+        final double Y0 = Math.max(0, Math.floor(MIN_Y));
+        final double X1 = Math.min(canvas.getWidth(), Math.ceil(MAX_X));
+        final double Y1 = Math.min(canvas.getHeight(), Math.ceil(MAX_Y));
+        if (X1 <= X0 || Y1 <= Y0) return;
+        if (dirty) {
+            dirtyMinX = Math.min(dirtyMinX, X0);
+            dirtyMinY = Math.min(dirtyMinY, Y0);
+            dirtyMaxX = Math.max(dirtyMaxX, X1);
+            dirtyMaxY = Math.max(dirtyMaxY, Y1);
+        } else {
+            dirty     = true;
+            dirtyMinX = X0;
+            dirtyMinY = Y0;
+            dirtyMaxX = X1;
+            dirtyMaxY = Y1;
+            timer.start();
+        }
+    }
+
+    private void paint() {
+        final double MIN_X = dirtyMinX;
+        final double MIN_Y = dirtyMinY;
+        final double MAX_X = dirtyMaxX;
+        final double MAX_Y = dirtyMaxY;
+        dirty = false;
+
+        ctx.save();
+        ctx.beginPath();
+        ctx.rect(MIN_X, MIN_Y, MAX_X - MIN_X, MAX_Y - MIN_Y);
+        ctx.clip();
+        ctx.setFill(BACKGROUND);
+        ctx.fillRect(MIN_X, MIN_Y, MAX_X - MIN_X, MAX_Y - MIN_Y);
+        paintTiles(MIN_X, MIN_Y, MAX_X, MAX_Y);
+        paintFences(MIN_X, MIN_Y, MAX_X, MAX_Y);
+        paintTracks(MIN_X, MIN_Y, MAX_X, MAX_Y);
+        paintMarkers(MIN_X, MIN_Y, MAX_X, MAX_Y);
+        ctx.restore();
+    }
+
+    private void paintTiles(final double MIN_X, final double MIN_Y, final double MAX_X, final double MAX_Y) {
+        if (null == layer) return;
+        final int    TILES    = 1 << zoom;
+        final double ORIGIN_X = centerX - canvas.getWidth() * 0.5;
+        final double ORIGIN_Y = centerY - canvas.getHeight() * 0.5;
+        final int    X0       = (int) Math.floor((ORIGIN_X + MIN_X) / TILE_SIZE);
+        final int    X1       = (int) Math.floor((ORIGIN_X + MAX_X - 1) / TILE_SIZE);
+        final int    Y0       = Math.max(0, (int) Math.floor((ORIGIN_Y + MIN_Y) / TILE_SIZE));
+        final int    Y1       = Math.min(TILES - 1, (int) Math.floor((ORIGIN_Y + MAX_Y - 1) / TILE_SIZE));
+        for (int ty = Y0 ; ty <= Y1 ; ty++) {
+            for (int tx = X0 ; tx <= X1 ; tx++) {
+                final int    X  = Math.floorMod(tx, TILES);
+                final double SX = tx * TILE_SIZE - ORIGIN_X;
+                final double SY = ty * TILE_SIZE - ORIGIN_Y;
+                Image image = images.get(key(layer, zoom, X, ty));
+                if (null != image) {
+                    ctx.drawImage(image, SX, SY, TILE_SIZE, TILE_SIZE);
+                    continue;
+                }
+                requestTile(layer, zoom, X, ty);
+                // Show the matching part of a parent tile until the tile is loaded
+                for (int level = 1 ; level <= MAX_PARENT_LEVELS && level <= zoom ; level++) {
+                    Image parent = images.get(key(layer, zoom - level, X >> level, ty >> level));
+                    if (null == parent) continue;
+                    final double PART = TILE_SIZE >> level;
+                    final int    MASK = (1 << level) - 1;
+                    ctx.drawImage(parent, (X & MASK) * PART, (ty & MASK) * PART, PART, PART, SX, SY, TILE_SIZE, TILE_SIZE);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void paintFences(final double MIN_X, final double MIN_Y, final double MAX_X, final double MAX_Y) {
+        final double WORLD = worldSize();
+        ctx.setLineWidth(2);
+        for (Geofence fence : fences.values()) {
+            final double WEST = screenX(toX(fence.west));
+            final double EAST = screenX(toX(fence.east));
+            if (screenY(toY(fence.south)) < MIN_Y || screenY(toY(fence.north)) > MAX_Y) continue;
+            final double FIRST = firstCopy(EAST, MIN_X);
+            if (WEST + FIRST > MAX_X) continue;
+            final Integer COUNT    = occupancy.get(fence.id);
+            final boolean OCCUPIED = null != COUNT && COUNT > 0;
+            final Color   COLOR    = OCCUPIED ? OCCUPIED_FENCE : EMPTY_FENCE;
+            ctx.setFill(Color.color(COLOR.getRed(), COLOR.getGreen(), COLOR.getBlue(), OCCUPIED ? 0.2 : 0.05));
+            ctx.setStroke(Color.color(COLOR.getRed(), COLOR.getGreen(), COLOR.getBlue(), OCCUPIED ? 0.9 : 0.6));
+            if (Geofence.Type.CIRCLE == fence.type) {
+                final double X      = screenX(toX(fence.getLongitude()));
+                final double Y      = screenY(toY(fence.getLatitude()));
+                final double RADIUS = fence.getRadius() / (EQUATOR_MPP * Math.cos(Math.toRadians(fence.getLatitude())) / (1 << zoom));
+                for (double offset = FIRST ; WEST + offset <= MAX_X ; offset += WORLD) {
+                    ctx.fillOval(X + offset - RADIUS, Y - RADIUS, 2 * RADIUS, 2 * RADIUS);
+                    ctx.strokeOval(X + offset - RADIUS, Y - RADIUS, 2 * RADIUS, 2 * RADIUS);
+                }
+            } else {
+                final int      COUNT_VERTICES = fence.getVertexCount();
+                final double[] XS             = new double[COUNT_VERTICES];
+                final double[] YS             = new double[COUNT_VERTICES];
+                for (int i = 0 ; i < COUNT_VERTICES ; i++) {
+                    XS[i] = screenX(toX(fence.getVertexLongitude(i)));
+                    YS[i] = screenY(toY(fence.getVertexLatitude(i)));
+                }
+                for (double offset = FIRST ; WEST + offset <= MAX_X ; offset += WORLD) {
+                    ctx.save();
+                    ctx.translate(offset, 0);
+                    ctx.fillPolygon(XS, YS, COUNT_VERTICES);
+                    ctx.strokePolygon(XS, YS, COUNT_VERTICES);
+                    ctx.restore();
+                }
+            }
+        }
+    }
+
+    private void paintTracks(final double MIN_X, final double MIN_Y, final double MAX_X, final double MAX_Y) {
+        final double WORLD = worldSize();
+        ctx.setLineWidth(TRACK_WIDTH);
+        ctx.setStroke(TRACK_STROKE);
+        ctx.setLineJoin(StrokeLineJoin.ROUND);
+        ctx.setLineCap(StrokeLineCap.ROUND);
+        for (double[] points : tracks.values()) {
+            final int      COUNT = points.length / 2;
+            final double[] XS    = new double[COUNT];
+            final double[] YS    = new double[COUNT];
+            double minX = Double.MAX_VALUE;
+            double minY = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE;
+            double maxY = -Double.MAX_VALUE;
+            double x    = Double.NaN;
+            for (int i = 0 ; i < COUNT ; i++) {
+                x     = toTrackX(points[2 * i + 1], x);
+                XS[i] = screenX(x);
+                YS[i] = screenY(toY(points[2 * i]));
+                minX  = Math.min(minX, XS[i]);
+                minY  = Math.min(minY, YS[i]);
+                maxX  = Math.max(maxX, XS[i]);
+                maxY  = Math.max(maxY, YS[i]);
+            }
+            if (maxY + TRACK_WIDTH < MIN_Y || minY - TRACK_WIDTH > MAX_Y) continue;
+            for (double offset = firstCopy(maxX + TRACK_WIDTH, MIN_X) ; minX - TRACK_WIDTH + offset <= MAX_X ; offset += WORLD) {
+                ctx.save();
+                ctx.translate(offset, 0);
+                ctx.strokePolyline(XS, YS, COUNT);
+                ctx.restore();
+            }
+        }
+    }
+
+    private void paintMarkers(final double MIN_X, final double MIN_Y, final double MAX_X, final double MAX_Y) {
+        ctx.setLineWidth(2);
+        ctx.setStroke(MARKER_STROKE);
+        ctx.setTextAlign(TextAlignment.CENTER);
+        ctx.setTextBaseline(VPos.CENTER);
+        ctx.setFont(Font.font(11));
+        final double WORLD = worldSize();
+        for (Marker marker : markers.values()) {
+            final double RADIUS = marker.count > 0 ? CLUSTER_RADIUS : MARKER_RADIUS;
+            final double Y      = screenY(marker.y);
+            if (Y + RADIUS < MIN_Y || Y - RADIUS > MAX_Y) continue;
+            final double X0     = screenX(marker.x);
+            for (double x = X0 + firstCopy(X0 + RADIUS, MIN_X) ; x - RADIUS <= MAX_X ; x += WORLD) {
+                ctx.setFill(marker.count > 0 ? CLUSTER_FILL : marker.upToDate ? ACTIVE_FILL : OLD_FILL);
+                ctx.fillOval(x - RADIUS, Y - RADIUS, 2 * RADIUS, 2 * RADIUS);
+                ctx.strokeOval(x - RADIUS, Y - RADIUS, 2 * RADIUS, 2 * RADIUS);
+                if (marker.count > 0) {
+                    ctx.setFill(Color.WHITE);
+                    ctx.fillText(Integer.toString(marker.count), x, Y);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the given tile in the background if it is not loaded yet and
+     * repaints its area once it is available
+     */
+    private void requestTile(final String LAYER, final int ZOOM, final int X, final int Y) {
+        final TileCache CACHE = layers.get(LAYER);
+        final String    KEY   = key(LAYER, ZOOM, X, Y);
+        if (null == CACHE || !loading.add(KEY)) return;
+        loader.execute(() -> {
+            Image image = null;
+            // Skip tiles that are no longer needed because the map was zoomed or switched in the meantime
+            if (ZOOM == zoom && LAYER.equals(layer)) {
+                try {
+                    byte[] tile = CACHE.get(ZOOM, X, Y);
+                    if (null != tile) {
+                        image = new Image(new ByteArrayInputStream(tile));
+                        if (image.isError()) { image = null; }
+                    }
+                    CACHE.prefetch(ZOOM, X, Y);
+                } catch (IOException e) {
+                    // tile stays empty until the area is repainted
+                }
+            }
+            final Image IMAGE = image;
+            Platform.runLater(() -> {
+                loading.remove(KEY);
+                if (null == IMAGE) return;
+                images.put(KEY, IMAGE);
+                if (ZOOM != zoom || !LAYER.equals(layer)) return;
+                final double ORIGIN_X = centerX - canvas.getWidth() * 0.5;
+                final double ORIGIN_Y = centerY - canvas.getHeight() * 0.5;
+                final int    TILES    = 1 << zoom;
+                // The tile may be visible more than once if the world wraps
+                for (int tx = X - TILES * 2 ; tx <= X + TILES * 2 ; tx += TILES) {
+                    markDirty(tx * TILE_SIZE - ORIGIN_X, Y * TILE_SIZE - ORIGIN_Y, (tx + 1) * TILE_SIZE - ORIGIN_X, (Y + 1) * TILE_SIZE - ORIGIN_Y);
+                }
+            });
+        });
+    }
+
+    private void onMousePressed(final MouseEvent EVENT) {
+        dragX   = EVENT.getX();
+        dragY   = EVENT.getY();
+        dragged = false;
+    }
+
+    private void onMouseDragged(final MouseEvent EVENT) {
+        if (MouseButton.PRIMARY != EVENT.getButton()) return;
+        centerX -= EVENT.getX() - dragX;
+        centerY  = clampY(centerY - (EVENT.getY() - dragY));
+        wrapCenter();
+        dragX    = EVENT.getX();
+        dragY    = EVENT.getY();
+        dragged  = true;
+        hidePopup();
+        markAllDirty();
+    }
+
+    private void onMouseClicked(final MouseEvent EVENT) {
+        if (MouseButton.PRIMARY != EVENT.getButton() || !EVENT.isStillSincePress()) return;
+        Marker marker = getMarkerAt(EVENT.getX(), EVENT.getY());
+        if (EVENT.getClickCount() == 2 && null == marker) {
+            zoomAt(zoom + 1, EVENT.getX(), EVENT.getY());
+        } else if (null == marker) {
+            hidePopup();
+        } else if (marker.count > 0) {
+            final double WORLD = worldSize();
+            centerX = marker.x * WORLD;
+            centerY = marker.y * WORLD;
+            setZoom(zoom + 2);
+        } else {
+            showPopup(marker, EVENT.getX());
+        }
+    }
+
+    private Marker getMarkerAt(final double X, final double Y) {
+        final double WORLD = worldSize();
+        Marker hit = null;
+        for (Marker marker : markers.values()) {
+            final double RADIUS = marker.count > 0 ? CLUSTER_RADIUS : MARKER_RADIUS;
+            final double DX     = nearestCopy(screenX(marker.x), X, WORLD) - X;
+            final double DY     = screenY(marker.y) - Y;
+            // The last one is painted on top
+            if (DX * DX + DY * DY <= RADIUS * RADIUS) { hit = marker; }
+        }
+        return hit;
+    }
+
+    /**
+     * Changes the zoom level so that the given point of the canvas stays where it is
+     */
+    private void zoomAt(final int ZOOM, final double X, final double Y) {
+        final int NEW_ZOOM = clampZoom(ZOOM);
+        if (NEW_ZOOM == zoom) return;
+        final double SCALE = Math.pow(2, NEW_ZOOM - zoom);
+        final double DX    = X - canvas.getWidth() * 0.5;
+        final double DY    = Y - canvas.getHeight() * 0.5;
+        centerX = (centerX + DX) * SCALE - DX;
+        centerY = (centerY + DY) * SCALE - DY;
+        zoom    = NEW_ZOOM;
+        centerY = clampY(centerY);
+        wrapCenter();
+        viewChanged();
+    }
+
+    private void viewChanged() {
+        hidePopup();
+        markAllDirty();
+        reportView();
+    }
+
+    /**
+     * Reports the current zoom level and bounds like document.reportView() in osm.html
+     */
+    private void reportView() {
+        final double WORLD = worldSize();
+        final double HALF_WIDTH  = canvas.getWidth() * 0.5;
+        final double HALF_HEIGHT = canvas.getHeight() * 0.5;
+        final double WEST  = toLongitude((centerX - HALF_WIDTH) / WORLD);
+        final double EAST  = toLongitude((centerX + HALF_WIDTH) / WORLD);
+        final double NORTH = toLatitude(Math.max(0, (centerY - HALF_HEIGHT) / WORLD));
+        final double SOUTH = toLatitude(Math.min(1, (centerY + HALF_HEIGHT) / WORLD));
+        viewListener.onViewChanged(zoom, SOUTH, WEST, NORTH, EAST);
+    }
+
+    /**
+     * @param X the popup is shown at the copy of the marker that is closest to this canvas x
+     */
+    private void showPopup(final Marker MARKER, final double X) {
+        popup.setText(toText(MARKER.info));
+        popup.setUserData(MARKER.name);
+        popup.autosize();
+        popup.relocate(nearestCopy(screenX(MARKER.x), X, worldSize()) - popup.getWidth() * 0.5, screenY(MARKER.y) - MARKER_RADIUS - popup.getHeight() - 4);
+        popup.setVisible(true);
+    }
+
+    private void hidePopup() {
+        popup.setVisible(false);
+        popup.setUserData(null);
+    }
+
+    private Button createZoomButton(final String TEXT, final int DELTA) {
+        Button button = new Button(TEXT);
+        button.setPrefSize(30, 30);
+        button.setFocusTraversable(false);
+        button.setOnAction(e -> setZoom(zoom + DELTA));
+        return button;
+    }
+
+    /**
+     * Turns the html popup content of osm.html into plain text lines
+     */
+    private static String toText(final String INFO) {
+        if (null == INFO) return "";
+        return INFO.replace("</tr>", "\n").replaceAll("<[^>]*>", "").trim();
+    }
+
+    private double worldSize() { return (double) TILE_SIZE * (1L << zoom); }
+
+    private double screenX(final double X) { return X * worldSize() - centerX + canvas.getWidth() * 0.5; }
+
+    private double screenY(final double Y) { return Y * worldSize() - centerY + canvas.getHeight() * 0.5; }
+
+    private double clampY(final double Y) { return Math.max(0, Math.min(worldSize(), Y)); }
+
+    /**
+     * Moves the center by whole worlds into the first copy of the world
+     */
+    private void wrapCenter() {
+        final double WORLD = worldSize();
+        centerX -= Math.floor(centerX / WORLD) * WORLD;
+    }
+
+    /**
+     * @return the offset (a multiple of worldSize()) of the leftmost copy of an object whose right
+     * edge is at RIGHT (canvas x) that still reaches MIN_X, the next copies follow every worldSize() pixels
+     */
+    private double firstCopy(final double RIGHT, final double MIN_X) {
+        final double WORLD = worldSize();
+        return Math.ceil((MIN_X - RIGHT) / WORLD) * WORLD;
+    }
+
+    /**
+     * @return the canvas x of the copy of X that is closest to REFERENCE
+     */
+    private static double nearestCopy(final double X, final double REFERENCE, final double WORLD) {
+        return X - Math.round((X - REFERENCE) / WORLD) * WORLD;
+    }
+
+    /**
+     * @return the x of the given track point (0..1 per world) moved by whole worlds next to
+     * PREVIOUS_X, so tracks across the antimeridian stay connected, NaN for the first point
+     */
+    private static double toTrackX(final double LONGITUDE, final double PREVIOUS_X) {
+        final double X = toX(LONGITUDE);
+        return Double.isNaN(PREVIOUS_X) ? X : X + Math.round(PREVIOUS_X - X);
+    }
+
+    private static int clampZoom(final int ZOOM) { return Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, ZOOM)); }
+
+    private static String key(final String LAYER, final int ZOOM, final int X, final int Y) { return LAYER + "/" + ZOOM + "/" + X + "/" + Y; }
+
+    /**
+     * @return the web mercator x coordinate in [0, 1]
+     */
+    private static double toX(final double LONGITUDE) { return (LONGITUDE + 180) / 360; }
+
+    /**
+     * @return the web mercator y coordinate in [0, 1], 0 is north
+     */
+    private static double toY(final double LATITUDE) {
+        final double LAT = Math.toRadians(Math.max(-85.05112878, Math.min(85.05112878, LATITUDE)));
+        return (1 - Math.log(Math.tan(LAT) + 1 / Math.cos(LAT)) / Math.PI) * 0.5;
+    }
+
+    private static double toLongitude(final double X) { return X * 360 - 180; }
+
+    private static double toLatitude(final double Y) { return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * Y)))); }
+
+
+    // ******************** Inner Classes *************************************
+    private static class Marker {
+        private final String  name;
+        private String        info;
+        private boolean       upToDate;
+        private int           count;
+        private double        latitude;
+        private double        longitude;
+        private double        x;
+        private double        y;
+
+        private Marker(final String NAME) { name = NAME; }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Latency and error counters of one backend of the RestClient. Unlike the
+ * Metrics they are always recorded, they only cost a few atomic
+ * increments per request.
+ */
+public class EndpointStats implements EndpointStatsMXBean {
+    private final String     url;
+    private final LongAdder  requests;
+    private final LongAdder  errors;
+    private final LongAdder  notModified;
+    private final Histogram  latency;
+    private volatile String  lastError;
+    private volatile long    lastSuccess;
+    private volatile int     persons;
+
+
+    // ******************** Constructors **************************************
+    public EndpointStats(final String URL) {
+        url         = URL;
+        requests    = new LongAdder();
+        errors      = new LongAdder();
+        notModified = new LongAdder();
+        latency     = new Histogram("ns");
+        lastError   = "";
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * @param NANOS time from sending the request until the body was read
+     */
+    public void success(final long NANOS, final int PERSONS) {
+        requests.increment();
+        latency.record(NANOS);
+        lastSuccess = System.currentTimeMillis();
+        persons     = PERSONS;
+    }
+
+    public void notModified(final long NANOS) {
+        requests.increment();
+        notModified.increment();
+        latency.record(NANOS);
+        lastSuccess = System.currentTimeMillis();
+    }
+
+    public void error(final String MESSAGE) {
+        requests.increment();
+        errors.increment();
+        lastError = null == MESSAGE ? "" : MESSAGE;
+    }
+
+    @Override public String getUrl() { return url; }
+
+    @Override public long getRequests() { return requests.sum(); }
+
+    @Override public long getErrors() { return errors.sum(); }
+
+    @Override public long getNotModified() { return notModified.sum(); }
+
+    @Override public String getLastError() { return lastError; }
+
+    @Override public long getLastSuccess() { return lastSuccess; }
+
+    @Override public int getPersons() { return persons; }
+
+    @Override public double getMeanLatency() { return latency.getMean(); }
+
+    @Override public long get50thPercentileLatency() { return latency.get50thPercentile(); }
+
+    @Override public long get99thPercentileLatency() { return latency.get99thPercentile(); }
+
+    @Override public String getSummary() {
+        return String.format(Locale.US, "%s requests=%d errors=%d notModified=%d persons=%d p50=%.2fms p99=%.2fms%s", url, getRequests(), getErrors(),
+                             getNotModified(), persons, latency.get50thPercentile() / 1e6, latency.get99thPercentile() / 1e6,
+                             lastError.isEmpty() ? "" : " lastError=" + lastError);
+    }
+
+    @Override public void reset() {
+        requests.reset();
+        errors.reset();
+        notModified.reset();
+        latency.reset();
+        lastError = "";
+    }
+
+    @Override public String toString() { return getSummary(); }
+}
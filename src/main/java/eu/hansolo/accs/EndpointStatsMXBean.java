@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+/**
+ * Request statistics of one backend, registered as
+ * eu.hansolo.accs:type=Endpoint,name="url"
+ */
+public interface EndpointStatsMXBean {
+    String getUrl();
+
+    long getRequests();
+
+    long getErrors();
+
+    long getNotModified();
+
+    /**
+     * @return the message of the last failed request or an empty string
+     */
+    String getLastError();
+
+    /**
+     * @return epoch millis of the last successful request or 0
+     */
+    long getLastSuccess();
+
+    /**
+     * @return number of persons the backend reported with its last response
+     */
+    int getPersons();
+
+    double getMeanLatency();
+
+    long get50thPercentileLatency();
+
+    long get99thPercentileLatency();
+
+    String getSummary();
+
+    void reset();
+}
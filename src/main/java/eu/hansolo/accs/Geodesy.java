@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.accs;
+
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Batch versions of Location.calcDistanceInMeter() and
+ * Location.calcBearingInDegree() that work on primitive latitude/longitude
+ * columns.
+ * The trigonometric terms that only depend on one point are computed once
+ * per point in Points, the loops themselves don't allocate. The formulas
+ * are evaluated in the same order as in the scalar methods, so the results
+ * are the same. Large inputs can optionally be split over the common
+ * fork join pool.
+ */
+public final class Geodesy {
+    public  static final int    PARALLEL_THRESHOLD = 4096;
+    private static final double EARTH_RADIUS       = 6_371_000; // m
+    private static final double QUARTER_PI         = Math.PI * 0.25;
+
+    @FunctionalInterface private interface RangeKernel {
+        void compute(int start, int end);
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Calculates the distances between the given point and all points.
+     * @param LATITUDE  latitude of the origin in degrees
+     * @param LONGITUDE longitude of the origin in degrees
+     * @param POINTS    the target points
+     * @param RESULT    receives the distance in meters to each point, length >= POINTS.size
+     * @param PARALLEL  if true and the input is large, the work is split over the common pool
+     */
+    public static void distancesInMeter(final double LATITUDE, final double LONGITUDE, final Points POINTS, final double[] RESULT, final boolean PARALLEL) {
+        checkResult(RESULT, POINTS.size);
+        final double   COS_LAT    = Math.cos(Math.toRadians(LATITUDE));
+        final double[] LATITUDES  = POINTS.latitudes;
+        final double[] LONGITUDES = POINTS.longitudes;
+        final double[] COS        = POINTS.cosLatitudes;
+        run(POINTS.size, 1, PARALLEL, (start, end) -> {
+            for (int i = start ; i < end ; i++) {
+                RESULT[i] = distance(LATITUDE, LONGITUDE, COS_LAT, LATITUDES[i], LONGITUDES[i], COS[i]);
+            }
+        });
+    }
+    public static void distancesInMeter(final double LATITUDE, final double LONGITUDE, final Points POINTS, final double[] RESULT) {
+        distancesInMeter(LATITUDE, LONGITUDE, POINTS, RESULT, false);
+    }
+
+    /**
+     * Calculates the bearings from the given point to all points.
+     * @param LATITUDE  latitude of the origin in degrees
+     * @param LONGITUDE longitude of the origin in degrees
+     * @param POINTS    the target points
+     * @param RESULT    receives the bearing in degrees to each point, length >= POINTS.size
+     * @param PARALLEL  if true and the input is large, the work is split over the common pool
+     */
+    public static void bearingsInDegree(final double LATITUDE, final double LONGITUDE, final Points POINTS, final double[] RESULT, final boolean PARALLEL) {
+        checkResult(RESULT, POINTS.size);
+        final double   LON_RADIANS = Math.toRadians(LONGITUDE);
+        final double   TAN_TERM    = Math.tan(Math.toRadians(LATITUDE) * 0.5 + QUARTER_PI);
+        final double[] LONGITUDES  = POINTS.longitudeRadians;
+        final double[] TAN_TERMS   = POINTS.tanTerms;
+        run(POINTS.size, 1, PARALLEL, (start, end) -> {
+            for (int i = start ; i < end ; i++) {
+                RESULT[i] = bearing(LON_RADIANS, TAN_TERM, LONGITUDES[i], TAN_TERMS[i]);
+            }
+        });
+    }
+    public static void bearingsInDegree(final double LATITUDE, final double LONGITUDE, final Points POINTS, final double[] RESULT) {
+        bearingsInDegree(LATITUDE, LONGITUDE, POINTS, RESULT, false);
+    }
+
+    /**
+     * Calculates the distances between all points of FROM and all points of TO.
+     * @param RESULT receives the distances in row major order, RESULT[i * TO.size + j] is the
+     *               distance from FROM[i] to TO[j], length >= FROM.size * TO.size
+     */
+    public static void distanceMatrix(final Points FROM, final Points TO, final double[] RESULT, final boolean PARALLEL) {
+        final int COLUMNS = TO.size;
+        checkResult(RESULT, (long) FROM.size * COLUMNS);
+        run(FROM.size, COLUMNS, PARALLEL, (start, end) -> {
+            for (int i = start ; i < end ; i++) {
+                final double LAT    = FROM.latitudes[i];
+                final double LON    = FROM.longitudes[i];
+                final double COS    = FROM.cosLatitudes[i];
+                final int    OFFSET = i * COLUMNS;
+                for (int j = 0 ; j < COLUMNS ; j++) {
+                    RESULT[OFFSET + j] = distance(LAT, LON, COS, TO.latitudes[j], TO.longitudes[j], TO.cosLatitudes[j]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Calculates the bearings from all points of FROM to all points of TO.
+     * @param RESULT receives the bearings in row major order, RESULT[i * TO.size + j] is the
+     *               bearing from FROM[i] to TO[j], length >= FROM.size * TO.size
+     */
+    public static void bearingMatrix(final Points FROM, final Points TO, final double[] RESULT, final boolean PARALLEL) {
+        final int COLUMNS = TO.size;
+        checkResult(RESULT, (long) FROM.size * COLUMNS);
+        run(FROM.size, COLUMNS, PARALLEL, (start, end) -> {
+            for (int i = start ; i < end ; i++) {
+                final double LON    = FROM.longitudeRadians[i];
+                final double TAN    = FROM.tanTerms[i];
+                final int    OFFSET = i * COLUMNS;
+                for (int j = 0 ; j < COLUMNS ; j++) {
+                    RESULT[OFFSET + j] = bearing(LON, TAN, TO.longitudeRadians[j], TO.tanTerms[j]);
+                }
+            }
+        });
+    }
+
+
+    // ******************** Private Methods ***********************************
+    private static double distance(final double LAT_1, final double LON_1, final double COS_LAT_1, final double LAT_2, final double LON_2, final double COS_LAT_2) {
+        final double SIN_DELTA_LAT = Math.sin(Math.toRadians(LAT_2 - LAT_1) * 0.5);
+        final double SIN_DELTA_LON = Math.sin(Math.toRadians(LON_2 - LON_1) * 0.5);
+        final double A             = SIN_DELTA_LAT * SIN_DELTA_LAT + COS_LAT_1 * COS_LAT_2 * SIN_DELTA_LON * SIN_DELTA_LON;
+        return EARTH_RADIUS * (2 * Math.atan2(Math.sqrt(A), Math.sqrt(1 - A)));
+    }
+
+    private static double bearing(final double LON_1, final double TAN_TERM_1, final double LON_2, final double TAN_TERM_2) {
+        double deltaLon = LON_2 - LON_1;
+        double deltaPhi = Math.log(TAN_TERM_2 / TAN_TERM_1);
+        if (Math.abs(deltaLon) > Math.PI) {
+            if (deltaLon > 0) {
+                deltaLon = -(2.0 * Math.PI - deltaLon);
+            } else {
+                deltaLon = (2.0 * Math.PI + deltaLon);
+            }
+        }
+        return (Math.toDegrees(Math.atan2(deltaLon, deltaPhi)) + 360.0) % 360.0;
+    }
+
+    private static void checkResult(final double[] RESULT, final long SIZE) {
+        if (RESULT.length < SIZE) throw new IllegalArgumentException("Result array too small, needs " + SIZE + " elements");
+    }
+
+    /**
+     * Runs the kernel over [0, SIZE[ where COST is the number of results per item
+     */
+    private static void run(final int SIZE, final int COST, final boolean PARALLEL, final RangeKernel KERNEL) {
+        final long WORK        = (long) SIZE * Math.max(1, COST);
+        final int  PARALLELISM = ForkJoinPool.getCommonPoolParallelism();
+        if (PARALLEL && WORK >= PARALLEL_THRESHOLD && SIZE > 1 && PARALLELISM > 1) {
+            final long MIN_GRAIN = Math.max(1, PARALLEL_THRESHOLD / 4 / Math.max(1, COST));
+            final int  GRAIN     = (int) Math.max(MIN_GRAIN, SIZE / (PARALLELISM * 4));
+            ForkJoinPool.commonPool().invoke(new RangeTask(KERNEL, 0, SIZE, GRAIN));
+        } else {
+            KERNEL.compute(0, SIZE);
+        }
+    }
+
+
+    // ******************** Inner Classes *************************************
+    /**
+     * Immutable column store of points with the per point terms that are
+     * needed for the distance and bearing calculations.
+     */
+    public static class Points {
+        public  final int      size;
+        private final double[] latitudes;
+        private final double[] longitudes;
+        private final double[] cosLatitudes;
+        private final double[] longitudeRadians;
+        private final double[] tanTerms;
+
+        public Points(final double[] LATITUDES, final double[] LONGITUDES) {
+            if (LATITUDES.length != LONGITUDES.length) throw new IllegalArgumentException("Latitudes and longitudes must have the same length");
+            size             = LATITUDES.length;
+            latitudes        = LATITUDES.clone();
+            longitudes       = LONGITUDES.clone();
+            cosLatitudes     = new double[size];
+            longitudeRadians = new double[size];
+            tanTerms         = new double[size];
+            for (int i = 0 ; i < size ; i++) {
+                final double LAT_RADIANS = Math.toRadians(latitudes[i]);
+                cosLatitudes[i]     = Math.cos(LAT_RADIANS);
+                longitudeRadians[i] = Math.toRadians(longitudes[i]);
+                tanTerms[i]         = Math.tan(LAT_RADIANS * 0.5 + QUARTER_PI);
+            }
+        }
+
+        public static Points of(final Collection<Location> LOCATIONS) {
+            final double[] LATITUDES  = new double[LOCATIONS.size()];
+            final double[] LONGITUDES = new double[LOCATIONS.size()];
+            int i = 0;
+            for (Location location : LOCATIONS) {
+                LATITUDES[i]  = location.latitude;
+                LONGITUDES[i] = location.longitude;
+                i++;
+            }
+            return new Points(LATITUDES, LONGITUDES);
+        }
+
+        public double getLatitude(final int INDEX) { return latitudes[INDEX]; }
+
+        public double getLongitude(final int INDEX) { return longitudes[INDEX]; }
+    }
+
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final RangeKernel kernel;
+        private final int         start;
+        private final int         end;
+        private final int         grain;
+
+        private RangeTask(final RangeKernel KERNEL, final int START, final int END, final int GRAIN) {
+            kernel = KERNEL;
+            start  = START;
+            end    = END;
+            grain  = GRAIN;
+        }
+
+        @Override protected void compute() {
+            if (end - start <= grain) {
+                kernel.compute(start, end);
+            } else {
+                final int MIDDLE = (start + end) >>> 1;
+                invokeAll(new RangeTask(kernel, start, MIDDLE, grain), new RangeTask(kernel, MIDDLE, end, grain));
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.List;
+
+
+/**
+ * Circular or polygonal area that persons can enter, leave and dwell in.
+ * Polygons are given as latitude/longitude vertices in degrees and must
+ * not cross the antimeridian, circles are evaluated with
+ * Location.calcDistanceInMeter().
+ * A dwell time > 0 seconds makes the GeofenceEngine report persons that
+ * stay inside at least that long.
+ */
+public class Geofence {
+    public enum Type { CIRCLE, POLYGON }
+
+    private static final double METERS_PER_DEGREE = 111_320;
+    public  final String        id;
+    public  final Type          type;
+    public  final long          dwellTime;
+    // Circle
+    private final double        latitude;
+    private final double        longitude;
+    private final double        radius;
+    // Polygon
+    private final double[]      latitudes;
+    private final double[]      longitudes;
+    // Bounding box
+    public  final double        south;
+    public  final double        west;
+    public  final double        north;
+    public  final double        east;
+
+
+    // ******************** Constructors **************************************
+    private Geofence(final String ID, final Type TYPE, final long DWELL_TIME, final double LATITUDE, final double LONGITUDE, final double RADIUS,
+                     final double[] LATITUDES, final double[] LONGITUDES, final double SOUTH, final double WEST, final double NORTH, final double EAST) {
+        id         = ID;
+        type       = TYPE;
+        dwellTime  = DWELL_TIME;
+        latitude   = LATITUDE;
+        longitude  = LONGITUDE;
+        radius     = RADIUS;
+        latitudes  = LATITUDES;
+        longitudes = LONGITUDES;
+        south      = SOUTH;
+        west       = WEST;
+        north      = NORTH;
+        east       = EAST;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * @param RADIUS     radius in meters
+     * @param DWELL_TIME dwell time in seconds, 0 = no dwell events
+     */
+    public static Geofence circle(final String ID, final double LATITUDE, final double LONGITUDE, final double RADIUS, final long DWELL_TIME) {
+        if (RADIUS <= 0) throw new IllegalArgumentException("Radius must be > 0");
+        final double DELTA_LAT = RADIUS / METERS_PER_DEGREE;
+        final double COS_LAT   = Math.cos(Math.toRadians(Math.min(89.9, Math.abs(LATITUDE) + DELTA_LAT)));
+        final double DELTA_LON = Math.min(180, DELTA_LAT / COS_LAT);
+        return new Geofence(ID, Type.CIRCLE, DWELL_TIME, LATITUDE, LONGITUDE, RADIUS, null, null,
+                            Math.max(-90, LATITUDE - DELTA_LAT), LONGITUDE - DELTA_LON, Math.min(90, LATITUDE + DELTA_LAT), LONGITUDE + DELTA_LON);
+    }
+
+    /**
+     * @param LATITUDES  latitudes of the vertices in degrees
+     * @param LONGITUDES longitudes of the vertices in degrees
+     * @param DWELL_TIME dwell time in seconds, 0 = no dwell events
+     */
+    public static Geofence polygon(final String ID, final double[] LATITUDES, final double[] LONGITUDES, final long DWELL_TIME) {
+        if (LATITUDES.length != LONGITUDES.length || LATITUDES.length < 3) throw new IllegalArgumentException("A polygon needs at least 3 vertices");
+        double south = 90, west = 180, north = -90, east = -180;
+        for (int i = 0 ; i < LATITUDES.length ; i++) {
+            south = Math.min(south, LATITUDES[i]);
+            north = Math.max(north, LATITUDES[i]);
+            west  = Math.min(west, LONGITUDES[i]);
+            east  = Math.max(east, LONGITUDES[i]);
+        }
+        return new Geofence(ID, Type.POLYGON, DWELL_TIME, 0, 0, 0, LATITUDES.clone(), LONGITUDES.clone(), south, west, north, east);
+    }
+
+    /**
+     * Creates a fence from json, either
+     * {"id":"office", "latitude":51.9, "longitude":7.6, "radius":100, "dwell":300} or
+     * {"id":"campus", "points":[[51.9, 7.6], [51.91, 7.6], [51.91, 7.62]], "dwell":0}
+     */
+    public static Geofence fromJSON(final JSONObject JSON) {
+        final String ID    = JSON.getOrDefault("id", "").toString();
+        final long   DWELL = toNumber(JSON.get("dwell")).longValue();
+        Object points = JSON.get("points");
+        if (points instanceof List) {
+            List<?>  vertices   = (List<?>) points;
+            double[] latitudes  = new double[vertices.size()];
+            double[] longitudes = new double[vertices.size()];
+            for (int i = 0 ; i < vertices.size() ; i++) {
+                List<?> vertex = (List<?>) vertices.get(i);
+                latitudes[i]  = toNumber(vertex.get(0)).doubleValue();
+                longitudes[i] = toNumber(vertex.get(1)).doubleValue();
+            }
+            return polygon(ID, latitudes, longitudes, DWELL);
+        }
+        return circle(ID, toNumber(JSON.get("latitude")).doubleValue(), toNumber(JSON.get("longitude")).doubleValue(), toNumber(JSON.get("radius")).doubleValue(), DWELL);
+    }
+
+    public boolean contains(final double LATITUDE, final double LONGITUDE) {
+        if (LATITUDE < south || LATITUDE > north) return false;
+        if (Type.CIRCLE == type) return Location.calcDistanceInMeter(latitude, longitude, LATITUDE, LONGITUDE) <= radius;
+        if (LONGITUDE < west || LONGITUDE > east) return false;
+        // even odd rule
+        boolean inside = false;
+        for (int i = 0, j = latitudes.length - 1 ; i < latitudes.length ; j = i++) {
+            if ((latitudes[i] > LATITUDE) != (latitudes[j] > LATITUDE) &&
+                LONGITUDE < (longitudes[j] - longitudes[i]) * (LATITUDE - latitudes[i]) / (latitudes[j] - latitudes[i]) + longitudes[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+    public boolean contains(final Location LOCATION) { return contains(LOCATION.latitude, LOCATION.longitude); }
+
+    /**
+     * @return latitude of the center of a circle
+     */
+    public double getLatitude() { return latitude; }
+
+    /**
+     * @return longitude of the center of a circle
+     */
+    public double getLongitude() { return longitude; }
+
+    /**
+     * @return radius of a circle in meters
+     */
+    public double getRadius() { return radius; }
+
+    /**
+     * @return number of vertices of a polygon
+     */
+    public int getVertexCount() { return null == latitudes ? 0 : latitudes.length; }
+
+    public double getVertexLatitude(final int INDEX) { return latitudes[INDEX]; }
+
+    public double getVertexLongitude(final int INDEX) { return longitudes[INDEX]; }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("id", id);
+        json.put("dwell", dwellTime);
+        if (Type.CIRCLE == type) {
+            json.put("latitude", latitude);
+            json.put("longitude", longitude);
+            json.put("radius", radius);
+        } else {
+            JSONArray points = new JSONArray();
+            for (int i = 0 ; i < latitudes.length ; i++) {
+                JSONArray point = new JSONArray();
+                point.add(latitudes[i]);
+                point.add(longitudes[i]);
+                points.add(point);
+            }
+            json.put("points", points);
+        }
+        return json;
+    }
+
+    @Override public String toString() { return toJSON().toJSONString(); }
+
+
+    // ******************** Private Methods ***********************************
+    private static Number toNumber(final Object VALUE) {
+        if (null == VALUE) return 0;
+        if (VALUE instanceof Number) return (Number) VALUE;
+        return Double.parseDouble(VALUE.toString());
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+/**
+ * Evaluates positions against a set of Geofences and reports when persons
+ * enter, leave or dwell in them.
+ * The fences are registered in a latitude/longitude grid by their bounding
+ * box, so a position is only tested against the fences whose box covers
+ * its cell and against the fences the person is currently inside. Fences
+ * that would cover too many cells are kept in a short list that is always
+ * tested.
+ * The membership of every person is kept between updates, so events are
+ * only fired on changes. Dwell events are fired once per stay as soon as
+ * the timestamps of a person show that it stayed at least Geofence.dwellTime
+ * seconds inside.
+ * Not thread safe, listeners are called on the thread that calls update().
+ */
+public class GeofenceEngine {
+    public  static final double DEFAULT_CELL_SIZE = 0.05; // degrees, ~5.5 km in latitude
+    private static final int    MAX_FENCE_CELLS   = 4096;
+
+    public enum EventType { ENTER, EXIT, DWELL }
+
+    public static class Event {
+        public final EventType type;
+        public final Geofence  fence;
+        public final Location  location;
+
+        private Event(final EventType TYPE, final Geofence FENCE, final Location LOCATION) {
+            type     = TYPE;
+            fence    = FENCE;
+            location = LOCATION;
+        }
+
+        @Override public String toString() { return type + " " + fence.id + " " + location.name; }
+    }
+
+    @FunctionalInterface public interface Listener {
+        void onGeofenceEvent(Event EVENT);
+    }
+
+    private final double                        cellSize;
+    private final int                           lonCells;
+    private final Map<String, Geofence>         fences;
+    private final Map<Long, List<Geofence>>     cells;
+    private final List<Geofence>                largeFences;
+    private final Map<String, Membership>       memberships;
+    private final Map<String, int[]>            occupancy;
+    private final List<Listener>                listeners;
+
+
+    // ******************** Constructors **************************************
+    public GeofenceEngine() { this(DEFAULT_CELL_SIZE); }
+    public GeofenceEngine(final double CELL_SIZE) {
+        if (CELL_SIZE <= 0 || CELL_SIZE > 90) throw new IllegalArgumentException("Cell size must be in ]0, 90] degrees");
+        cellSize    = CELL_SIZE;
+        lonCells    = (int) Math.ceil(360.0 / CELL_SIZE);
+        fences      = new LinkedHashMap<>();
+        cells       = new HashMap<>();
+        largeFences = new ArrayList<>();
+        memberships = new HashMap<>();
+        occupancy   = new HashMap<>();
+        listeners   = new CopyOnWriteArrayList<>();
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Adds the given fence, a fence with the same id is replaced
+     */
+    public void addFence(final Geofence FENCE) {
+        if (fences.containsKey(FENCE.id)) { removeFence(FENCE.id); }
+        fences.put(FENCE.id, FENCE);
+        occupancy.put(FENCE.id, new int[1]);
+        final int  SOUTH = latIndex(FENCE.south);
+        final int  NORTH = latIndex(FENCE.north);
+        final int  WEST  = (int) Math.floor((FENCE.west + 180.0) / cellSize);
+        final int  EAST  = (int) Math.floor((FENCE.east + 180.0) / cellSize);
+        final long COUNT = (long) (NORTH - SOUTH + 1) * Math.min(lonCells, EAST - WEST + 1);
+        if (COUNT > MAX_FENCE_CELLS) {
+            largeFences.add(FENCE);
+            return;
+        }
+        for (int lat = SOUTH ; lat <= NORTH ; lat++) {
+            for (int lon = WEST ; lon <= EAST && lon < WEST + lonCells ; lon++) {
+                cells.computeIfAbsent(key(lat, Math.floorMod(lon, lonCells)), k -> new ArrayList<>(2)).add(FENCE);
+            }
+        }
+    }
+    public void addFences(final Collection<Geofence> FENCES) { for (Geofence fence : FENCES) { addFence(fence); } }
+
+    /**
+     * Removes the given fence, persons inside of it are dropped without exit events
+     */
+    public boolean removeFence(final String ID) {
+        Geofence fence = fences.remove(ID);
+        if (null == fence) return false;
+        occupancy.remove(ID);
+        if (!largeFences.remove(fence)) {
+            Iterator<List<Geofence>> iterator = cells.values().iterator();
+            while (iterator.hasNext()) {
+                List<Geofence> cell = iterator.next();
+                if (cell.remove(fence) && cell.isEmpty()) { iterator.remove(); }
+            }
+        }
+        for (Membership membership : memberships.values()) { membership.enteredAt.remove(fence); membership.dwelled.remove(fence); }
+        return true;
+    }
+
+    public Collection<Geofence> getFences() { return Collections.unmodifiableCollection(fences.values()); }
+
+    public Geofence getFence(final String ID) { return fences.get(ID); }
+
+    /**
+     * @return the number of persons that are currently inside the given fence
+     */
+    public int getOccupancy(final String ID) {
+        int[] count = occupancy.get(ID);
+        return null == count ? 0 : count[0];
+    }
+
+    /**
+     * @return the fences the given person is currently inside
+     */
+    public Collection<Geofence> getFencesOf(final String NAME) {
+        Membership membership = memberships.get(NAME);
+        return null == membership ? Collections.<Geofence>emptyList() : Collections.unmodifiableCollection(membership.enteredAt.keySet());
+    }
+
+    public void addListener(final Listener LISTENER) { listeners.add(LISTENER); }
+    public void removeListener(final Listener LISTENER) { listeners.remove(LISTENER); }
+
+    /**
+     * Evaluates the new position of a person and fires the resulting events
+     */
+    public void update(final Location LOCATION) {
+        final double LAT        = LOCATION.latitude;
+        final double LON        = LOCATION.longitude;
+        final long   EPOCH      = LOCATION.timestamp.getEpochSecond();
+        Membership   membership = memberships.get(LOCATION.name);
+
+        // Fences the person was inside
+        if (null != membership) {
+            membership.location = LOCATION;
+            Iterator<Map.Entry<Geofence, Long>> iterator = membership.enteredAt.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Geofence, Long> entry = iterator.next();
+                Geofence                  fence = entry.getKey();
+                if (!fence.contains(LAT, LON)) {
+                    iterator.remove();
+                    membership.dwelled.remove(fence);
+                    occupancy.get(fence.id)[0]--;
+                    fire(EventType.EXIT, fence, LOCATION);
+                } else if (fence.dwellTime > 0 && EPOCH - entry.getValue() >= fence.dwellTime && !membership.dwelled.containsKey(fence)) {
+                    membership.dwelled.put(fence, Boolean.TRUE);
+                    fire(EventType.DWELL, fence, LOCATION);
+                }
+            }
+        }
+
+        // Fences near the position
+        List<Geofence> cell = cells.get(key(latIndex(LAT), Math.floorMod((int) Math.floor((LON + 180.0) / cellSize), lonCells)));
+        if (null != cell) { membership = enter(cell, LOCATION, membership); }
+        if (!largeFences.isEmpty()) { membership = enter(largeFences, LOCATION, membership); }
+        if (null != membership && membership.enteredAt.isEmpty()) { memberships.remove(LOCATION.name); }
+    }
+    public void updateAll(final Collection<Location> LOCATIONS) { for (Location location : LOCATIONS) { update(location); } }
+
+    /**
+     * Forgets the given person, exit events are fired for all fences it was inside
+     */
+    public void remove(final String NAME) {
+        Membership membership = memberships.remove(NAME);
+        if (null == membership) return;
+        for (Geofence fence : membership.enteredAt.keySet()) {
+            occupancy.get(fence.id)[0]--;
+            fire(EventType.EXIT, fence, membership.location);
+        }
+    }
+
+    /**
+     * Reads a json array of fences as described in Geofence.fromJSON()
+     */
+    public static List<Geofence> readFences(final Reader READER) throws IOException {
+        Object json = JSONValue.parse(READER);
+        if (!(json instanceof JSONArray)) throw new IOException("Expected a json array of geofences");
+        List<Geofence> result = new ArrayList<>();
+        for (Object object : (JSONArray) json) {
+            try {
+                result.add(Geofence.fromJSON((JSONObject) object));
+            } catch (RuntimeException e) {
+                throw new IOException("Invalid geofence " + object, e);
+            }
+        }
+        return result;
+    }
+
+
+    // ******************** Private Methods ***********************************
+    private Membership enter(final List<Geofence> CANDIDATES, final Location LOCATION, Membership membership) {
+        final long EPOCH = LOCATION.timestamp.getEpochSecond();
+        for (int i = 0 ; i < CANDIDATES.size() ; i++) {
+            Geofence fence = CANDIDATES.get(i);
+            if (null != membership && membership.enteredAt.containsKey(fence)) continue;
+            if (!fence.contains(LOCATION.latitude, LOCATION.longitude)) continue;
+            if (null == membership) {
+                membership = new Membership(LOCATION);
+                memberships.put(LOCATION.name, membership);
+            }
+            membership.enteredAt.put(fence, EPOCH);
+            occupancy.get(fence.id)[0]++;
+            fire(EventType.ENTER, fence, LOCATION);
+        }
+        return membership;
+    }
+
+    private void fire(final EventType TYPE, final Geofence FENCE, final Location LOCATION) {
+        if (listeners.isEmpty()) return;
+        Event event = new Event(TYPE, FENCE, LOCATION);
+        for (Listener listener : listeners) { listener.onGeofenceEvent(event); }
+    }
+
+    private int latIndex(final double LATITUDE) {
+        return (int) Math.floor((Math.max(-90.0, Math.min(90.0, LATITUDE)) + 90.0) / cellSize);
+    }
+
+    private static long key(final int LAT_INDEX, final int LON_INDEX) { return ((long) LAT_INDEX << 32) | (LON_INDEX & 0xffffffffL); }
+
+
+    // ******************** Inner Classes *************************************
+    private static class Membership {
+        private final Map<Geofence, Long>    enteredAt;
+        private final Map<Geofence, Boolean> dwelled;
+        private Location                     location;
+
+        private Membership(final Location LOCATION) {
+            enteredAt = new HashMap<>(4);
+            dwelled   = new HashMap<>(4);
+            location  = LOCATION;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Lock free histogram with log linear buckets (8 buckets per power of two),
+ * so recording is a few atomic increments and percentiles are accurate to
+ * about 12 percent over the whole range of long values.
+ */
+public class Histogram implements HistogramMXBean {
+    private static final int    SUB_BUCKET_BITS = 3;
+    private static final int    SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+    private static final int    LINEAR_LIMIT    = SUB_BUCKETS * 2;
+    private static final int    BUCKETS         = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+    private final String        unit;
+    private final AtomicLongArray buckets;
+    private final LongAdder     count;
+    private final LongAdder     sum;
+    private final AtomicLong    max;
+
+
+    // ******************** Constructors **************************************
+    public Histogram(final String UNIT) {
+        unit    = UNIT;
+        buckets = new AtomicLongArray(BUCKETS);
+        count   = new LongAdder();
+        sum     = new LongAdder();
+        max     = new AtomicLong();
+    }
+
+
+    // ******************** Methods *******************************************
+    public void record(final long VALUE) {
+        final long V = Math.max(0, VALUE);
+        buckets.incrementAndGet(index(V));
+        count.increment();
+        sum.add(V);
+        long current;
+        while (V > (current = max.get()) && !max.compareAndSet(current, V)) { }
+    }
+
+    @Override public String getUnit() { return unit; }
+
+    @Override public long getCount() { return count.sum(); }
+
+    @Override public double getMean() {
+        final long COUNT = count.sum();
+        return COUNT == 0 ? 0 : (double) sum.sum() / COUNT;
+    }
+
+    @Override public long getMax() { return max.get(); }
+
+    @Override public long get50thPercentile() { return getPercentile(50); }
+
+    @Override public long get90thPercentile() { return getPercentile(90); }
+
+    @Override public long get99thPercentile() { return getPercentile(99); }
+
+    /**
+     * @param PERCENTILE 0 - 100
+     * @return the upper bound of the bucket that contains the given percentile, at most the max value
+     */
+    public long getPercentile(final double PERCENTILE) {
+        long total = 0;
+        for (int i = 0 ; i < BUCKETS ; i++) { total += buckets.get(i); }
+        if (total == 0) return 0;
+        final long TARGET = Math.max(1, (long) Math.ceil(PERCENTILE / 100.0 * total));
+        long cumulated = 0;
+        for (int i = 0 ; i < BUCKETS ; i++) {
+            cumulated += buckets.get(i);
+            if (cumulated >= TARGET) return Math.min(max.get(), i + 1 < BUCKETS ? lowerBound(i + 1) - 1 : Long.MAX_VALUE);
+        }
+        return max.get();
+    }
+
+    @Override public void reset() {
+        for (int i = 0 ; i < BUCKETS ; i++) { buckets.set(i, 0); }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+
+    // ******************** Private Methods ***********************************
+    private static int index(final long VALUE) {
+        if (VALUE < LINEAR_LIMIT) return (int) VALUE;
+        final int EXPONENT = 63 - Long.numberOfLeadingZeros(VALUE);
+        final int SUB      = (int) (VALUE >>> (EXPONENT - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (EXPONENT - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + SUB;
+    }
+
+    private static long lowerBound(final int INDEX) {
+        if (INDEX < LINEAR_LIMIT) return INDEX;
+        final int EXPONENT = (INDEX - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        final int SUB      = (INDEX - LINEAR_LIMIT) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + SUB) << (EXPONENT - SUB_BUCKET_BITS);
+    }
+}
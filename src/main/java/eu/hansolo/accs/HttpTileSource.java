@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+
+
+/**
+ * Loads tiles from a remote tile server. The url template uses the same
+ * placeholders as leaflet ({s}, {z}, {x} and {y}).
+ */
+public class HttpTileSource implements TileSource {
+    private static final String USER_AGENT = "AccsDesktop";
+    private final OkHttpClient  client;
+    private final String        urlTemplate;
+    private final String[]      subdomains;
+
+
+    // ******************** Constructors **************************************
+    public HttpTileSource(final OkHttpClient CLIENT, final String URL_TEMPLATE) { this(CLIENT, URL_TEMPLATE, "abc"); }
+    public HttpTileSource(final OkHttpClient CLIENT, final String URL_TEMPLATE, final String SUBDOMAINS) {
+        client      = CLIENT;
+        urlTemplate = URL_TEMPLATE;
+        subdomains  = SUBDOMAINS.isEmpty() ? new String[] { "" } : SUBDOMAINS.split("");
+    }
+
+
+    // ******************** Methods *******************************************
+    @Override public byte[] getTile(final int ZOOM, final int X, final int Y) throws IOException {
+        final String URL = urlTemplate.replace("{s}", subdomains[Math.abs(X + Y) % subdomains.length])
+                                      .replace("{z}", Integer.toString(ZOOM))
+                                      .replace("{x}", Integer.toString(X))
+                                      .replace("{y}", Integer.toString(Y));
+        Request request = new Request.Builder().url(URL).header("User-Agent", USER_AGENT).build();
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) throw new IOException("Tile request failed with " + response.code() + ": " + URL);
+            return response.body().bytes();
+        }
+    }
+}
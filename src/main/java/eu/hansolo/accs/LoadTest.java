@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import eu.hansolo.accs.Metrics.Metric;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Headless runner that drives the fetch, decode, prepare and reconcile
+ * stages of the client in a loop without a stage and reports throughput,
+ * latency percentiles and the allocation per cycle.
+ * The allocation is the sum of the polling thread and the threads that
+ * poll several backends concurrently (RestClient.FAN_OUT_THREAD), the
+ * threads of OkHttp and of the mock server are not included.
+ * If no URL is given a MockLocationServer is started in the same JVM.
+ * The FX part of an update (list and map) is not covered, it is measured
+ * by the Metrics of the running application.
+ *
+ * Usage: gradle loadTest or java -cp ... eu.hansolo.accs.LoadTest
+ *
+ * Environment variables:
+ * URL         : base url of the backend (or comma separated backends), if not set the mock server is used
+ * PERSONS     : number of persons of the mock server (default 1000)
+ * UPDATE_RATE : position updates per person and second of the mock server (default 0.2)
+ * INFO_SIZE   : characters of the info field of the mock server (default 32)
+ * DURATION    : measured seconds (default 60)
+ * WARMUP      : seconds before the measurement starts (default 10)
+ * INTERVAL    : ms between the start of two polls, 0 polls back to back (default 0)
+ * INCREMENTAL, BINARY : see RestClient
+ */
+public class LoadTest {
+    private static final long                REPORT_INTERVAL = 10; // s
+    private final int                        persons;
+    private final double                     updateRate;
+    private final int                        infoSize;
+    private final long                       duration;
+    private final long                       warmup;
+    private final long                       interval;
+    private final com.sun.management.ThreadMXBean threadBean;
+    private final boolean                    allocationSupported;
+    private Thread[]                         threads;
+    private final Histogram                  cycleTime;
+    private final Histogram                  prepareTime;
+    private final Histogram                  reconcileTime;
+    private final Histogram                  allocation;
+    private final Histogram                  changes;
+    private final LocationReconciler         reconciler;
+    private long                             cycles;
+    private long                             notModified;
+    private long                             locations;
+
+
+    // ******************** Constructors **************************************
+    public LoadTest() {
+        persons             = (int) getEnv("PERSONS", 1000);
+        updateRate          = getEnv("UPDATE_RATE", 0.2);
+        infoSize            = (int) getEnv("INFO_SIZE", 32);
+        duration            = (long) getEnv("DURATION", 60);
+        warmup              = (long) getEnv("WARMUP", 10);
+        interval            = (long) getEnv("INTERVAL", 0);
+        threadBean          = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        allocationSupported = threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled();
+        threads             = new Thread[64];
+        cycleTime           = new Histogram("ns");
+        prepareTime         = new Histogram("ns");
+        reconcileTime       = new Histogram("ns");
+        allocation          = new Histogram("bytes");
+        changes             = new Histogram("count");
+        reconciler          = new LocationReconciler();
+    }
+
+
+    // ******************** Methods *******************************************
+    public void run() throws IOException {
+        MockLocationServer mockServer = null;
+        if (!RestClient.INSTANCE.getUrl().isPresent()) {
+            mockServer = new MockLocationServer(persons, updateRate, infoSize);
+            mockServer.start();
+            RestClient.INSTANCE.setUrl(mockServer.getBaseUrl());
+            System.out.println(String.format(Locale.US, "Mock server with %d persons, %.2f updates/person/s, info size %d on %s",
+                                             persons, updateRate, infoSize, mockServer.getBaseUrl()));
+        }
+        System.out.println(String.format(Locale.US, "Backend %s, incremental %b, binary %b, interval %d ms, warmup %d s, duration %d s",
+                                         RestClient.INSTANCE.getUrl().get(), RestClient.INSTANCE.isIncremental(),
+                                         RestClient.INSTANCE.isBinary(), interval, warmup, duration));
+        Metrics.INSTANCE.setEnabled(true);
+        try {
+            runFor(TimeUnit.SECONDS.toNanos(warmup), false);
+            reset();
+            final long MOCK_UPDATES = null == mockServer ? 0 : mockServer.getUpdates();
+            final long START        = System.nanoTime();
+            runFor(TimeUnit.SECONDS.toNanos(duration), true);
+            final double SECONDS    = (System.nanoTime() - START) / 1e9;
+            System.out.println();
+            System.out.println("******************** Result ********************");
+            report(SECONDS);
+            if (null != mockServer) {
+                System.out.println(String.format(Locale.US, "mock updates     %.0f/s", (mockServer.getUpdates() - MOCK_UPDATES) / SECONDS));
+            }
+        } finally {
+            Metrics.INSTANCE.setEnabled(false);
+            if (null != mockServer) { mockServer.stop(); }
+        }
+    }
+
+
+    // ******************** Private Methods ***********************************
+    private void runFor(final long NANOS, final boolean REPORT) {
+        final long START      = System.nanoTime();
+        long       nextReport = START + TimeUnit.SECONDS.toNanos(REPORT_INTERVAL);
+        while (System.nanoTime() - START < NANOS) {
+            final long ALLOCATED = allocationSupported ? getAllocatedBytes() : 0;
+            final long CYCLE     = System.nanoTime();
+
+            Optional<List<Location>> update = RestClient.INSTANCE.fetchLocationUpdate();
+            if (update.isPresent()) {
+                long start = System.nanoTime();
+                List<Location> snapshot = LocationUpdater.prepare(update.get());
+                prepareTime.record(System.nanoTime() - start);
+
+                start = System.nanoTime();
+                LocationReconciler.Diff diff = reconciler.reconcile(snapshot);
+                reconcileTime.record(System.nanoTime() - start);
+
+                changes.record(diff.size());
+                locations += snapshot.size();
+            } else {
+                notModified++;
+            }
+
+            final long END = System.nanoTime();
+            cycleTime.record(END - CYCLE);
+            if (allocationSupported) { allocation.record(getAllocatedBytes() - ALLOCATED); }
+            cycles++;
+
+            if (REPORT && END > nextReport) {
+                report((END - START) / 1e9);
+                nextReport += TimeUnit.SECONDS.toNanos(REPORT_INTERVAL);
+            }
+            if (interval > 0) {
+                final long SLEEP = interval - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - CYCLE);
+                if (SLEEP > 0) {
+                    try {
+                        Thread.sleep(SLEEP);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the bytes allocated so far by this thread and the fan-out threads of the RestClient
+     */
+    private long getAllocatedBytes() {
+        long allocated = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        int  count     = Thread.enumerate(threads);
+        while (count == threads.length) {
+            threads = new Thread[threads.length * 2];
+            count   = Thread.enumerate(threads);
+        }
+        for (int i = 0 ; i < count ; i++) {
+            if (!threads[i].getName().startsWith(RestClient.FAN_OUT_THREAD)) continue;
+            // -1 if the thread ended in the meantime
+            allocated += Math.max(0, threadBean.getThreadAllocatedBytes(threads[i].getId()));
+        }
+        Arrays.fill(threads, 0, count, null);
+        return allocated;
+    }
+
+    private void reset() {
+        cycles      = 0;
+        notModified = 0;
+        locations   = 0;
+        cycleTime.reset();
+        prepareTime.reset();
+        reconcileTime.reset();
+        allocation.reset();
+        changes.reset();
+        Metrics.INSTANCE.reset();
+        for (EndpointStats stats : RestClient.INSTANCE.getEndpointStats()) { stats.reset(); }
+    }
+
+    private void report(final double SECONDS) {
+        System.out.println(String.format(Locale.US, "%6.0fs cycles %d (%.1f/s), not modified %d, locations %.0f/s, changes/cycle p50 %d max %d",
+                                         SECONDS, cycles, cycles / SECONDS, notModified, locations / SECONDS,
+                                         changes.get50thPercentile(), changes.getMax()));
+        System.out.println(formatTime("cycle", cycleTime));
+        System.out.println(formatTime("prepare", prepareTime));
+        System.out.println(formatTime("reconcile", reconcileTime));
+        String[] summary = Metrics.INSTANCE.getSummary();
+        for (Metric metric : new Metric[] { Metric.FETCH, Metric.DECODE, Metric.PAYLOAD_SIZE }) {
+            System.out.println("        " + summary[metric.ordinal()]);
+        }
+        List<EndpointStats> endpointStats = RestClient.INSTANCE.getEndpointStats();
+        if (endpointStats.size() > 1) {
+            for (EndpointStats stats : endpointStats) { System.out.println("        " + stats.getSummary()); }
+        }
+        if (allocationSupported) {
+            System.out.println(String.format(Locale.US, "        %-16s mean=%10.0f p50=%10d p99=%10d bytes/cycle, %.0f bytes/location", "allocation",
+                                             allocation.getMean(), allocation.get50thPercentile(), allocation.get99thPercentile(),
+                                             locations == 0 ? 0 : allocation.getMean() * allocation.getCount() / locations));
+        }
+    }
+
+    private static String formatTime(final String NAME, final Histogram HISTOGRAM) {
+        return String.format(Locale.US, "        %-16s n=%-6d mean=%8.2fms p50=%8.2fms p90=%8.2fms p99=%8.2fms max=%8.2fms", NAME, HISTOGRAM.getCount(),
+                             HISTOGRAM.getMean() / 1e6, HISTOGRAM.get50thPercentile() / 1e6, HISTOGRAM.get90thPercentile() / 1e6,
+                             HISTOGRAM.get99thPercentile() / 1e6, HISTOGRAM.getMax() / 1e6);
+    }
+
+    private static double getEnv(final String NAME, final double DEFAULT) {
+        String value = System.getenv(NAME);
+        if (null == value) return DEFAULT;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid value for " + NAME + ": " + value + ", using " + DEFAULT);
+            return DEFAULT;
+        }
+    }
+
+
+    // ******************** Start *********************************************
+    public static void main(final String[] ARGS) throws IOException {
+        new LoadTest().run();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+
+/**
+ * Stand-in tile source that renders a simple grid tile with its
+ * coordinates, so the map can be used and tested without network.
+ */
+public class LocalTileSource implements TileSource {
+    private static final int   TILE_SIZE  = 256;
+    private static final Color BACKGROUND = new Color(0xf2efe9);
+    private static final Color GRID       = new Color(0xd4cfc5);
+    private static final Color TEXT       = new Color(0x8c877d);
+    private static final Font  FONT       = new Font(Font.SANS_SERIF, Font.PLAIN, 12);
+
+
+    // ******************** Methods *******************************************
+    @Override public byte[] getTile(final int ZOOM, final int X, final int Y) throws IOException {
+        BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        Graphics2D    g     = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setColor(BACKGROUND);
+            g.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+            g.setColor(GRID);
+            for (int i = 0 ; i < TILE_SIZE ; i += TILE_SIZE / 4) {
+                g.drawLine(i, 0, i, TILE_SIZE);
+                g.drawLine(0, i, TILE_SIZE, i);
+            }
+            g.setColor(TEXT);
+            g.setFont(FONT);
+            g.drawString(ZOOM + "/" + X + "/" + Y, 8, 20);
+        } finally {
+            g.dispose();
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream(4096);
+        ImageIO.write(image, "png", output);
+        return output.toByteArray();
+    }
+}
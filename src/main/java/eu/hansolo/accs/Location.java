@@ -21,7 +21,6 @@ import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.Locale;
-import java.util.Objects;
 
 
 /**
@@ -46,6 +45,8 @@ public class Location {
         NW("North-West", 303.75, 326.25),
         NNW("North North-West", 326.25, 348.75);
 
+        private static final CardinalDirection[] VALUES = values();
+
         public String direction;
         public double from;
         public double to;
@@ -55,6 +56,16 @@ public class Location {
             from      = FROM;
             to        = TO;
         }
+
+        /**
+         * @param BEARING the bearing in degrees, values outside of [0, 360[ are wrapped
+         * @return the direction whose sector of 22.5 degrees contains the given bearing
+         */
+        public static CardinalDirection fromBearing(final double BEARING) {
+            double bearing = BEARING % 360.0;
+            if (bearing < 0) { bearing += 360.0; }
+            return VALUES[(int) ((bearing + 11.25) / 22.5) & 15];
+        }
     }
 
     // Location related information
@@ -70,10 +81,10 @@ public class Location {
     // ******************** Constructors **************************************
     public Location() { this(new JSONObject()); }
     public Location(final JSONObject JSON) {
-        this(Double.parseDouble(JSON.getOrDefault("latitude", "0").toString()),
-             Double.parseDouble(JSON.getOrDefault("longitude", "0").toString()),
-             Double.parseDouble(JSON.getOrDefault("altitude", "0").toString()),
-             Instant.ofEpochSecond(Long.parseLong(JSON.getOrDefault("timestamp", Instant.now().getEpochSecond()).toString())),
+        this(toDouble(JSON.get("latitude")),
+             toDouble(JSON.get("longitude")),
+             toDouble(JSON.get("altitude")),
+             toInstant(JSON.get("timestamp")),
              JSON.getOrDefault("name", "").toString(),
              JSON.getOrDefault("info", "").toString());
     }
@@ -129,7 +140,7 @@ public class Location {
     public double calcDistanceInKilometer(final Location P1, final Location P2) {
         return calcDistanceInMeter(P1, P2) / 1000.0;
     }
-    public double calcDistanceInMeter(final double LAT_1, final double LON_1, final double LAT_2, final double LON_2) {
+    public static double calcDistanceInMeter(final double LAT_1, final double LON_1, final double LAT_2, final double LON_2) {
         final double EARTH_RADIUS      = 6_371_000; // m
         final double LAT_1_RADIANS     = Math.toRadians(LAT_1);
         final double LAT_2_RADIANS     = Math.toRadians(LAT_2);
@@ -156,7 +167,7 @@ public class Location {
 
     public boolean isZero() { return Double.compare(latitude, 0d) == 0 && Double.compare(longitude, 0d) == 0; }
 
-    public double calcBearingInDegree(final double LAT_1, final double LON_1, final double LAT_2, final double LON_2) {
+    public static double calcBearingInDegree(final double LAT_1, final double LON_1, final double LAT_2, final double LON_2) {
         double lat1     = Math.toRadians(LAT_1);
         double lon1     = Math.toRadians(LON_1);
         double lat2     = Math.toRadians(LAT_2);
@@ -175,13 +186,21 @@ public class Location {
     }
 
     public String getCardinalDirectionFromBearing(final double BEARING) {
-        double bearing = BEARING % 360.0;
-        for (CardinalDirection cardinalDirection : CardinalDirection.values()) {
-            if (Double.compare(bearing, cardinalDirection.from) >= 0 && Double.compare(bearing, cardinalDirection.to) < 0) {
-                return cardinalDirection.direction;
-            }
-        }
-        return "";
+        if (Double.isNaN(BEARING) || Double.isInfinite(BEARING)) return "";
+        return CardinalDirection.fromBearing(BEARING).direction;
+    }
+
+
+    private static double toDouble(final Object VALUE) {
+        if (null == VALUE) return 0;
+        if (VALUE instanceof Number) return ((Number) VALUE).doubleValue();
+        return Double.parseDouble(VALUE.toString());
+    }
+
+    private static Instant toInstant(final Object VALUE) {
+        if (null == VALUE) return Instant.now();
+        if (VALUE instanceof Number) return Instant.ofEpochSecond(((Number) VALUE).longValue());
+        return Instant.ofEpochSecond(Long.parseLong(VALUE.toString()));
     }
 
 
@@ -219,5 +238,13 @@ public class Location {
                                   .toString();
     }
 
-    @Override public int hashCode() { return Objects.hashCode(this); }
+    /**
+     * Consistent with equals(), which compares the position
+     */
+    @Override public int hashCode() {
+        int result = Double.hashCode(latitude);
+        result = 31 * result + Double.hashCode(longitude);
+        result = 31 * result + Double.hashCode(altitude);
+        return result;
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import javafx.geometry.Pos;
+import javafx.scene.control.ContentDisplay;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.scene.shape.Circle;
+
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+
+/**
+ * ListCell for the persons list that creates its nodes once and only
+ * updates texts and style classes when it is reused for another item.
+ * Whether a location is up to date is decided once per refresh by the
+ * update pipeline, the cell only reads Location.isUpToDate.
+ * Speed and heading are taken from the MovementTracker.
+ */
+public class LocationCell extends ListCell<Location> {
+    private static final DateTimeFormatter DTF = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm").withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter TF  = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+    private final MovementTracker tracker;
+    private final Circle          circle;
+    private final Label           nameLabel;
+    private final Label           movementLabel;
+    private final Label           lastUpdateLabel;
+    private final VBox            pane;
+    private       int             upToDateState;
+
+
+    // ******************** Constructors **************************************
+    public LocationCell(final MovementTracker TRACKER) {
+        tracker = TRACKER;
+        circle  = new Circle(5);
+
+        nameLabel = new Label();
+        nameLabel.setAlignment(Pos.CENTER_LEFT);
+        nameLabel.setMaxWidth(Double.MAX_VALUE);
+        nameLabel.getStyleClass().add("location-info");
+        HBox.setHgrow(nameLabel, Priority.ALWAYS);
+
+        movementLabel = new Label();
+        movementLabel.setAlignment(Pos.CENTER_RIGHT);
+        movementLabel.getStyleClass().add("movement");
+
+        HBox hbox = new HBox(5, circle, nameLabel, movementLabel);
+        hbox.setAlignment(Pos.CENTER);
+
+        lastUpdateLabel = new Label();
+        lastUpdateLabel.setAlignment(Pos.CENTER_LEFT);
+        lastUpdateLabel.getStyleClass().add("last-update");
+
+        pane = new VBox(hbox, lastUpdateLabel);
+
+        setContentDisplay(ContentDisplay.GRAPHIC_ONLY);
+    }
+
+
+    // ******************** Methods *******************************************
+    @Override protected void updateItem(final Location LOCATION, final boolean IS_EMPTY) {
+        super.updateItem(LOCATION, IS_EMPTY);
+        if (IS_EMPTY || null == LOCATION) {
+            setText(null);
+            setGraphic(null);
+            return;
+        }
+        String dateTime = LOCATION.isUpToDate ? TF.format(LOCATION.timestamp) : DTF.format(LOCATION.timestamp);
+        nameLabel.setText(LOCATION.name);
+        movementLabel.setText(tracker.getSummary(LOCATION.name));
+        lastUpdateLabel.setText(LOCATION.info.isEmpty() ? dateTime : LOCATION.info + " - " + dateTime);
+        setUpToDate(LOCATION.isUpToDate);
+        if (getGraphic() != pane) { setGraphic(pane); }
+    }
+
+
+    // ******************** Private Methods ***********************************
+    private void setUpToDate(final boolean UP_TO_DATE) {
+        final int STATE = UP_TO_DATE ? 1 : 2;
+        if (STATE == upToDateState) return;
+        circle.getStyleClass().removeAll("active-marker", "old-marker");
+        circle.getStyleClass().add(UP_TO_DATE ? "active-marker" : "old-marker");
+        upToDateState = STATE;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+
+/**
+ * Compact binary encoding of a list of locations (MEDIA_TYPE).
+ *
+ * Layout (all integers are varints, signed values zigzag encoded):
+ * magic 'A' 'L', version byte
+ * number of strings, then for each string: length in bytes, utf-8 bytes
+ * number of records, then for each record:
+ *   index of the name, index of the info in the string table,
+ *   epoch second, latitude and longitude in 1e-7 degrees and altitude in
+ *   centimeters, each as the difference to the value of the previous record
+ *
+ * Coordinates are stored with a resolution of about 1 cm, so decoded values
+ * may differ from the encoded doubles in the last digits.
+ * Instances are not thread safe but can be reused.
+ */
+public class LocationCodec {
+    public  static final String MEDIA_TYPE       = "application/x-accs-locations";
+    private static final byte   MAGIC_1          = 'A';
+    private static final byte   MAGIC_2          = 'L';
+    private static final byte   VERSION          = 1;
+    private static final double COORDINATE_SCALE = 1e7;
+    private static final double ALTITUDE_SCALE   = 100;
+    private static final int    BUFFER_SIZE      = 8192;
+    private final byte[]        buffer;
+    private InputStream         input;
+    private int                 position;
+    private int                 limit;
+
+    @FunctionalInterface public interface RecordConsumer {
+        void accept(String NAME, String INFO, long EPOCH_SECOND, double LATITUDE, double LONGITUDE, double ALTITUDE);
+    }
+
+
+    // ******************** Constructors **************************************
+    public LocationCodec() {
+        buffer = new byte[BUFFER_SIZE];
+    }
+
+
+    // ******************** Methods *******************************************
+    public static byte[] encode(final Collection<Location> LOCATIONS) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(16 + LOCATIONS.size() * 24);
+        try {
+            encode(LOCATIONS, output);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return output.toByteArray();
+    }
+    public static void encode(final Collection<Location> LOCATIONS, final OutputStream OUTPUT) throws IOException {
+        Map<String, Integer> indices = new HashMap<>();
+        List<String>         strings = new ArrayList<>();
+        for (Location location : LOCATIONS) {
+            index(location.name, indices, strings);
+            index(location.info, indices, strings);
+        }
+        Writer writer = new Writer(OUTPUT);
+        writer.writeByte(MAGIC_1);
+        writer.writeByte(MAGIC_2);
+        writer.writeByte(VERSION);
+        writer.writeVarint(strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writer.writeVarint(bytes.length);
+            writer.writeBytes(bytes);
+        }
+        writer.writeVarint(LOCATIONS.size());
+        long epochSecond = 0;
+        long latitude    = 0;
+        long longitude   = 0;
+        long altitude    = 0;
+        for (Location location : LOCATIONS) {
+            final long EPOCH_SECOND = location.timestamp.getEpochSecond();
+            final long LATITUDE     = Math.round(location.latitude * COORDINATE_SCALE);
+            final long LONGITUDE    = Math.round(location.longitude * COORDINATE_SCALE);
+            final long ALTITUDE     = Math.round(location.altitude * ALTITUDE_SCALE);
+            writer.writeVarint(indices.get(null == location.name ? "" : location.name));
+            writer.writeVarint(indices.get(null == location.info ? "" : location.info));
+            writer.writeSignedVarint(EPOCH_SECOND - epochSecond);
+            writer.writeSignedVarint(LATITUDE - latitude);
+            writer.writeSignedVarint(LONGITUDE - longitude);
+            writer.writeSignedVarint(ALTITUDE - altitude);
+            epochSecond = EPOCH_SECOND;
+            latitude    = LATITUDE;
+            longitude   = LONGITUDE;
+            altitude    = ALTITUDE;
+        }
+        writer.flush();
+    }
+
+    public List<Location> decode(final byte[] PAYLOAD) throws IOException { return decode(new ByteArrayInputStream(PAYLOAD)); }
+    public List<Location> decode(final InputStream INPUT_STREAM) throws IOException {
+        List<Location> locations = new ArrayList<>();
+        decode(INPUT_STREAM, (Consumer<Location>) locations::add);
+        return locations;
+    }
+    public void decode(final InputStream INPUT_STREAM, final Consumer<Location> CONSUMER) throws IOException {
+        decode(INPUT_STREAM, (name, info, epochSecond, latitude, longitude, altitude) ->
+            CONSUMER.accept(new Location(latitude, longitude, altitude, Instant.ofEpochSecond(epochSecond), name, info)));
+    }
+    /**
+     * Decodes the payload without creating Location objects, e.g. to fill
+     * primitive columns. Names and infos are the same String instances for
+     * all records that share them.
+     * @throws IOException if the payload could not be read or is malformed
+     */
+    public void decode(final InputStream INPUT_STREAM, final RecordConsumer CONSUMER) throws IOException {
+        input    = INPUT_STREAM;
+        position = 0;
+        limit    = 0;
+        try {
+            if (readByte() != MAGIC_1 || readByte() != MAGIC_2) throw new IOException("Not a binary locations payload");
+            if (readByte() != VERSION) throw new IOException("Unsupported binary locations version");
+            final int STRING_COUNT = readLength();
+            String[]  strings      = new String[STRING_COUNT];
+            for (int i = 0 ; i < STRING_COUNT ; i++) { strings[i] = readString(readLength()); }
+            final int COUNT       = readLength();
+            long      epochSecond = 0;
+            long      latitude    = 0;
+            long      longitude   = 0;
+            long      altitude    = 0;
+            for (int i = 0 ; i < COUNT ; i++) {
+                final int NAME = readLength();
+                final int INFO = readLength();
+                if (NAME >= STRING_COUNT || INFO >= STRING_COUNT) throw new IOException("Invalid string index in binary locations payload");
+                epochSecond += readSignedVarint();
+                latitude    += readSignedVarint();
+                longitude   += readSignedVarint();
+                altitude    += readSignedVarint();
+                CONSUMER.accept(strings[NAME], strings[INFO], epochSecond, latitude / COORDINATE_SCALE, longitude / COORDINATE_SCALE, altitude / ALTITUDE_SCALE);
+            }
+        } finally {
+            input = null;
+        }
+    }
+
+
+    // ******************** Private Methods ***********************************
+    private static void index(final String STRING, final Map<String, Integer> INDICES, final List<String> STRINGS) {
+        final String KEY = null == STRING ? "" : STRING;
+        if (INDICES.containsKey(KEY)) return;
+        INDICES.put(KEY, STRINGS.size());
+        STRINGS.add(KEY);
+    }
+
+    private int readByte() throws IOException {
+        if (position == limit) {
+            limit    = input.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                throw new EOFException("Unexpected end of binary locations payload");
+            }
+        }
+        return buffer[position++];
+    }
+
+    private long readVarint() throws IOException {
+        long result = 0;
+        for (int shift = 0 ; shift < 64 ; shift += 7) {
+            final int B = readByte();
+            result |= (long) (B & 0x7f) << shift;
+            if ((B & 0x80) == 0) return result;
+        }
+        throw new IOException("Malformed varint in binary locations payload");
+    }
+
+    private long readSignedVarint() throws IOException {
+        final long VALUE = readVarint();
+        return (VALUE >>> 1) ^ -(VALUE & 1);
+    }
+
+    private int readLength() throws IOException {
+        final long VALUE = readVarint();
+        if (VALUE < 0 || VALUE > Integer.MAX_VALUE) throw new IOException("Invalid length in binary locations payload");
+        return (int) VALUE;
+    }
+
+    private String readString(final int LENGTH) throws IOException {
+        if (LENGTH <= limit - position) {
+            String string = new String(buffer, position, LENGTH, StandardCharsets.UTF_8);
+            position += LENGTH;
+            return string;
+        }
+        byte[] bytes = new byte[LENGTH];
+        for (int i = 0 ; i < LENGTH ; i++) { bytes[i] = (byte) readByte(); }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private static class Writer {
+        private final OutputStream output;
+        private final byte[]       buffer;
+        private int                position;
+
+        private Writer(final OutputStream OUTPUT) {
+            output = OUTPUT;
+            buffer = new byte[BUFFER_SIZE];
+        }
+
+        private void writeByte(final int VALUE) throws IOException {
+            if (position == buffer.length) { flush(); }
+            buffer[position++] = (byte) VALUE;
+        }
+
+        private void writeBytes(final byte[] BYTES) throws IOException {
+            for (byte b : BYTES) { writeByte(b); }
+        }
+
+        private void writeVarint(long value) throws IOException {
+            while ((value & ~0x7fL) != 0) {
+                writeByte((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        private void writeSignedVarint(final long VALUE) throws IOException { writeVarint((VALUE << 1) ^ (VALUE >> 63)); }
+
+        private void flush() throws IOException {
+            output.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.accs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+
+/**
+ * Streaming decoder for the json array that is returned by the /locations
+ * endpoint. The payload is read token by token from the stream and every
+ * object is directly turned into a Location, the document itself is never
+ * materialized.
+ * Like Location(JSONObject) it accepts numbers and strings for latitude,
+ * longitude, altitude and timestamp, unknown fields are skipped.
+ * Instances are not thread safe but can be reused.
+ */
+public class LocationDecoder {
+    private static final int      BUFFER_SIZE = 8192;
+    private static final double[] POW_10      = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+                                                  1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+    private final char[]          buffer;
+    private final StringBuilder   text;
+    private Reader                reader;
+    private int                   position;
+    private int                   limit;
+    // Fields of the object that is currently decoded
+    private double                latitude;
+    private double                longitude;
+    private double                altitude;
+    private long                  epochSecond;
+    private boolean               hasTimestamp;
+    private String                name;
+    private String                info;
+
+
+    // ******************** Constructors **************************************
+    public LocationDecoder() {
+        buffer = new char[BUFFER_SIZE];
+        text   = new StringBuilder(64);
+    }
+
+
+    // ******************** Methods *******************************************
+    public List<Location> decode(final String JSON) throws IOException {
+        List<Location> locations = new ArrayList<>();
+        decode(new StringReader(JSON), locations::add);
+        return locations;
+    }
+    public List<Location> decode(final InputStream INPUT_STREAM) throws IOException {
+        List<Location> locations = new ArrayList<>();
+        decode(new InputStreamReader(INPUT_STREAM, StandardCharsets.UTF_8), locations::add);
+        return locations;
+    }
+    /**
+     * Decodes a json array of location objects and hands every location over
+     * to the given consumer as soon as its closing brace has been read.
+     * A payload that is not an array (e.g. an empty body) results in no locations.
+     * @param READER the source of the json payload
+     * @param CONSUMER receives the decoded locations
+     * @throws IOException if the payload could not be read or is malformed
+     */
+    public void decode(final Reader READER, final Consumer<Location> CONSUMER) throws IOException {
+        reader   = READER;
+        position = 0;
+        limit    = 0;
+        try {
+            int c = firstNonWhitespace();
+            if (c != '[') return;
+            c = nextNonWhitespace();
+            if (c == ']') return;
+            while (true) {
+                if (c == '{') {
+                    CONSUMER.accept(readLocation());
+                } else {
+                    skipValue(c);
+                }
+                c = nextNonWhitespace();
+                if (c == ']') return;
+                if (c != ',') throw syntaxError("Expected ',' or ']'");
+                c = nextNonWhitespace();
+            }
+        } finally {
+            reader = null;
+        }
+    }
+
+
+    // ******************** Private Methods ***********************************
+    private Location readLocation() throws IOException {
+        latitude     = 0;
+        longitude    = 0;
+        altitude     = 0;
+        epochSecond  = 0;
+        hasTimestamp = false;
+        name         = "";
+        info         = "";
+
+        int c = nextNonWhitespace();
+        if (c != '}') {
+            while (true) {
+                if (c != '"') throw syntaxError("Expected field name");
+                readString();
+                if (nextNonWhitespace() != ':') throw syntaxError("Expected ':'");
+                readField(nextNonWhitespace());
+                c = nextNonWhitespace();
+                if (c == '}') break;
+                if (c != ',') throw syntaxError("Expected ',' or '}'");
+                c = nextNonWhitespace();
+            }
+        }
+        if (epochSecond < Instant.MIN.getEpochSecond() || epochSecond > Instant.MAX.getEpochSecond()) throw syntaxError("Timestamp out of range");
+        Instant timestamp = hasTimestamp ? Instant.ofEpochSecond(epochSecond) : Instant.now();
+        return new Location(latitude, longitude, altitude, timestamp, name, info);
+    }
+
+    private void readField(final int FIRST) throws IOException {
+        if (isField("latitude")) {
+            latitude = readDouble(FIRST);
+        } else if (isField("longitude")) {
+            longitude = readDouble(FIRST);
+        } else if (isField("altitude")) {
+            altitude = readDouble(FIRST);
+        } else if (isField("timestamp")) {
+            epochSecond  = (long) readDouble(FIRST);
+            hasTimestamp = true;
+        } else if (isField("name")) {
+            name = readScalarAsString(FIRST);
+        } else if (isField("info")) {
+            info = readScalarAsString(FIRST);
+        } else {
+            skipValue(FIRST);
+        }
+    }
+
+    private boolean isField(final String NAME) {
+        final int LENGTH = NAME.length();
+        if (text.length() != LENGTH) return false;
+        for (int i = 0 ; i < LENGTH ; i++) {
+            if (text.charAt(i) != NAME.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private double readDouble(final int FIRST) throws IOException {
+        if (FIRST == '"') {
+            readString();
+            return parseText();
+        } else if (FIRST == '-' || (FIRST >= '0' && FIRST <= '9')) {
+            readNumber(FIRST);
+            return parseText();
+        } else {
+            skipValue(FIRST);
+            return 0;
+        }
+    }
+
+    private String readScalarAsString(final int FIRST) throws IOException {
+        if (FIRST == '"') {
+            readString();
+            return text.toString();
+        } else if (FIRST == '-' || (FIRST >= '0' && FIRST <= '9')) {
+            readNumber(FIRST);
+            return text.toString();
+        } else if (FIRST == 't' || FIRST == 'f') {
+            return Boolean.toString(readLiteral(FIRST));
+        } else {
+            skipValue(FIRST);
+            return "";
+        }
+    }
+
+    /**
+     * Malformed numbers (e.g. "abc" as latitude) are reported like any
+     * other syntax error of the payload
+     */
+    private double parseText() throws IOException {
+        try {
+            return parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed number '" + text + "' in locations payload", e);
+        }
+    }
+
+    /**
+     * Parses the given decimal number without creating a String for the
+     * common case of up to 15 significant digits and a small exponent,
+     * where the result is exact. Everything else is handed over to
+     * Double.parseDouble().
+     */
+    private static double parseDouble(final CharSequence NUMBER) {
+        final int LENGTH = NUMBER.length();
+        int       i      = 0;
+        while (i < LENGTH && NUMBER.charAt(i) <= ' ') { i++; }
+        if (i == LENGTH) throw new NumberFormatException("empty String");
+        boolean negative = false;
+        char    c        = NUMBER.charAt(i);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int  digits   = 0;
+        int  scale    = 0;
+        boolean fraction = false;
+        boolean simple   = true;
+        int  start       = i;
+        for ( ; i < LENGTH ; i++) {
+            c = NUMBER.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (mantissa != 0 || c != '0') { digits++; }
+                mantissa = mantissa * 10 + (c - '0');
+                if (fraction) { scale++; }
+                if (digits > 15) { simple = false; break; }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                simple = false;
+                break;
+            }
+        }
+        if (simple && i > start && scale <= 22 && !(fraction && i == start + 1)) {
+            double value = scale == 0 ? mantissa : mantissa / POW_10[scale];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(NUMBER.toString().trim());
+    }
+
+    private void readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            if (position == limit && !fill()) throw syntaxError("Unterminated string");
+            char c = buffer[position++];
+            if (c == '"') return;
+            if (c == '\\') {
+                if (position == limit && !fill()) throw syntaxError("Unterminated escape sequence");
+                char escaped = buffer[position++];
+                switch (escaped) {
+                    case 'b': text.append('\b'); break;
+                    case 'f': text.append('\f'); break;
+                    case 'n': text.append('\n'); break;
+                    case 'r': text.append('\r'); break;
+                    case 't': text.append('\t'); break;
+                    case 'u':
+                        int unicode = 0;
+                        for (int i = 0 ; i < 4 ; i++) {
+                            if (position == limit && !fill()) throw syntaxError("Unterminated escape sequence");
+                            int digit = Character.digit(buffer[position++], 16);
+                            if (digit < 0) throw syntaxError("Malformed unicode escape");
+                            unicode = (unicode << 4) | digit;
+                        }
+                        text.append((char) unicode);
+                        break;
+                    default : text.append(escaped); break;
+                }
+            } else {
+                text.append(c);
+            }
+        }
+    }
+
+    private void readNumber(final int FIRST) throws IOException {
+        text.setLength(0);
+        text.append((char) FIRST);
+        while (position < limit || fill()) {
+            char c = buffer[position];
+            if ((c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+' || c == 'e' || c == 'E') {
+                text.append(c);
+                position++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private boolean readLiteral(final int FIRST) throws IOException {
+        final String LITERAL = FIRST == 't' ? "true" : FIRST == 'f' ? "false" : "null";
+        for (int i = 1 ; i < LITERAL.length() ; i++) {
+            if (position == limit && !fill()) throw syntaxError("Unexpected end of input");
+            if (buffer[position++] != LITERAL.charAt(i)) throw syntaxError("Expected " + LITERAL);
+        }
+        return FIRST == 't';
+    }
+
+    private void skipValue(final int FIRST) throws IOException {
+        switch (FIRST) {
+            case '"': readString(); break;
+            case 't':
+            case 'f':
+            case 'n': readLiteral(FIRST); break;
+            case '{': skipContainer('{', '}'); break;
+            case '[': skipContainer('[', ']'); break;
+            default :
+                if (FIRST == '-' || (FIRST >= '0' && FIRST <= '9')) {
+                    readNumber(FIRST);
+                } else {
+                    throw syntaxError("Unexpected character");
+                }
+        }
+    }
+
+    private void skipContainer(final char OPEN, final char CLOSE) throws IOException {
+        int depth = 1;
+        while (depth > 0) {
+            int c = nextNonWhitespace();
+            if (c == '"') {
+                readString();
+            } else if (c == OPEN || c == '{' || c == '[') {
+                depth++;
+            } else if (c == CLOSE || c == '}' || c == ']') {
+                depth--;
+            }
+        }
+    }
+
+    private int firstNonWhitespace() throws IOException {
+        while (position < limit || fill()) {
+            char c = buffer[position++];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t' && c != '\uFEFF') return c;
+        }
+        return -1;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (position < limit || fill()) {
+            char c = buffer[position++];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return c;
+        }
+        throw syntaxError("Unexpected end of input");
+    }
+
+    private boolean fill() throws IOException {
+        int count = reader.read(buffer, 0, buffer.length);
+        if (count <= 0) return false;
+        position = 0;
+        limit    = count;
+        return true;
+    }
+
+    private IOException syntaxError(final String MESSAGE) { return new IOException(MESSAGE + " in locations payload"); }
+}
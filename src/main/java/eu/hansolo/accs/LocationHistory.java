@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Persistent history of all received positions.
+ * Every position is appended as a fixed width record to memory mapped
+ * segment files, each record points back to the previous record of the
+ * same person. The head of each chain and the global counters live in a
+ * memory mapped index file, so reopening the store only reads the person
+ * names and never scans the records.
+ * The positions of a person are stored with strictly increasing epoch
+ * seconds, so their chain is sorted by time. The k-th record of a person
+ * also points back to record k - lowestOneBit(k) of the same person
+ * (skip pointer), which finds the newest record before a given time in
+ * O(log^2 n) steps instead of walking all newer records.
+ * Only the newest segments are kept, older ones are deleted (rolling
+ * retention). Heap usage is bounded by the number of persons and the
+ * number of retained segments, not by the number of records.
+ * The store blocks on disk I/O, in the application all calls run on a
+ * single background executor.
+ *
+ * Record layout (56 bytes):
+ * epochSecond (long), latitude (double), longitude (double), altitude (double),
+ * person id (int), number of the record of the person starting with 1 (int),
+ * sequence number of the previous record of the person (long),
+ * sequence number of the skip record of the person (long)
+ */
+public class LocationHistory implements Closeable {
+    public  static final int    DEFAULT_RECORDS_PER_SEGMENT = 1 << 18; // 14 MB per segment
+    public  static final int    DEFAULT_MAX_SEGMENTS        = 32;
+    private static final int    RECORD_SIZE                 = 56;
+    private static final int    HEADER_SIZE                 = 64;
+    private static final int    PERSON_ENTRY_SIZE           = 16;
+    private static final int    INITIAL_PERSON_CAPACITY     = 1 << 12;
+    private static final long   MAGIC                       = 0x4143435348495354L; // "ACCSHIST"
+    private static final int    VERSION                     = 2;
+    private static final long   NONE                        = -1;
+    // Header offsets in the index file
+    private static final int    MAGIC_OFFSET                = 0;
+    private static final int    VERSION_OFFSET              = 8;
+    private static final int    RECORDS_PER_SEGMENT_OFFSET  = 12;
+    private static final int    NEXT_SEQUENCE_OFFSET        = 16;
+    private static final int    FIRST_SEQUENCE_OFFSET       = 24;
+    private final File                          directory;
+    private final int                           recordsPerSegment;
+    private final int                           maxSegments;
+    private final Map<String, Integer>          personIds;
+    private final List<String>                  personNames;
+    private final Map<Long, MappedByteBuffer>   segments;
+    private final RandomAccessFile              indexFile;
+    private final DataOutputStream              namesOutput;
+    private MappedByteBuffer                    index;
+    private int                                 personCapacity;
+    private long                                nextSequence;
+    private long                                firstSequence;
+
+    @FunctionalInterface public interface RecordConsumer {
+        void accept(long epochSecond, double latitude, double longitude, double altitude);
+    }
+
+
+    // ******************** Constructors **************************************
+    public LocationHistory(final File DIRECTORY) throws IOException { this(DIRECTORY, DEFAULT_RECORDS_PER_SEGMENT, DEFAULT_MAX_SEGMENTS); }
+    public LocationHistory(final File DIRECTORY, final int RECORDS_PER_SEGMENT, final int MAX_SEGMENTS) throws IOException {
+        if (RECORDS_PER_SEGMENT <= 0 || MAX_SEGMENTS <= 0) throw new IllegalArgumentException("Records per segment and max segments must be > 0");
+        if (!DIRECTORY.isDirectory() && !DIRECTORY.mkdirs()) throw new IOException("Cannot create history directory " + DIRECTORY);
+        directory   = DIRECTORY;
+        maxSegments = MAX_SEGMENTS;
+        personIds   = new HashMap<>();
+        personNames = new ArrayList<>();
+        segments    = new LinkedHashMap<>(16, 0.75f, true);
+
+        File    indexPath = new File(DIRECTORY, "history.idx");
+        boolean isNew     = !indexPath.exists() || indexPath.length() < HEADER_SIZE;
+        indexFile = new RandomAccessFile(indexPath, "rw");
+        personCapacity = isNew ? INITIAL_PERSON_CAPACITY : (int) Math.max(INITIAL_PERSON_CAPACITY, (indexFile.length() - HEADER_SIZE) / PERSON_ENTRY_SIZE);
+        index = indexFile.getChannel().map(MapMode.READ_WRITE, 0, HEADER_SIZE + (long) personCapacity * PERSON_ENTRY_SIZE);
+        if (isNew) {
+            index.putLong(MAGIC_OFFSET, MAGIC);
+            index.putInt(VERSION_OFFSET, VERSION);
+            index.putInt(RECORDS_PER_SEGMENT_OFFSET, RECORDS_PER_SEGMENT);
+            index.putLong(NEXT_SEQUENCE_OFFSET, 0);
+            index.putLong(FIRST_SEQUENCE_OFFSET, 0);
+            recordsPerSegment = RECORDS_PER_SEGMENT;
+        } else {
+            if (index.getLong(MAGIC_OFFSET) != MAGIC || index.getInt(VERSION_OFFSET) != VERSION) {
+                indexFile.close();
+                throw new IOException("Unsupported history format in " + indexPath);
+            }
+            recordsPerSegment = index.getInt(RECORDS_PER_SEGMENT_OFFSET);
+        }
+        nextSequence  = index.getLong(NEXT_SEQUENCE_OFFSET);
+        firstSequence = index.getLong(FIRST_SEQUENCE_OFFSET);
+        deleteRetiredSegments();
+
+        File namesPath = new File(DIRECTORY, "persons.dat");
+        if (namesPath.exists()) { readNames(namesPath); }
+        dropUnnamedPersons();
+        namesOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(namesPath, true)));
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Appends the position of the given location. Positions that are not
+     * newer than the last stored position of the same person are skipped,
+     * so polling unchanged data does not grow the history.
+     * @return true if a record was appended
+     */
+    public synchronized boolean append(final Location LOCATION) throws IOException {
+        final long EPOCH_SECOND = LOCATION.timestamp.getEpochSecond();
+        final int  PERSON_ID    = getOrCreatePersonId(LOCATION.name);
+        final int  ENTRY        = HEADER_SIZE + PERSON_ID * PERSON_ENTRY_SIZE;
+        final long PREVIOUS     = index.getLong(ENTRY) - 1;
+        if (PREVIOUS >= firstSequence && index.getLong(ENTRY + 8) >= EPOCH_SECOND) return false;
+
+        final MappedByteBuffer PREVIOUS_SEGMENT = PREVIOUS >= firstSequence ? getSegment(PREVIOUS / recordsPerSegment, false) : null;
+        final int              COUNT            = null == PREVIOUS_SEGMENT ? 1 : PREVIOUS_SEGMENT.getInt(offset(PREVIOUS) + 36) + 1;
+        final long             SKIP             = null == PREVIOUS_SEGMENT ? NONE : findSkip(PREVIOUS, COUNT);
+        final long             SEQUENCE         = nextSequence;
+        final MappedByteBuffer SEGMENT          = getSegment(SEQUENCE / recordsPerSegment, true);
+        final int              OFFSET           = offset(SEQUENCE);
+        SEGMENT.putLong(OFFSET, EPOCH_SECOND);
+        SEGMENT.putDouble(OFFSET + 8, LOCATION.latitude);
+        SEGMENT.putDouble(OFFSET + 16, LOCATION.longitude);
+        SEGMENT.putDouble(OFFSET + 24, LOCATION.altitude);
+        SEGMENT.putInt(OFFSET + 32, PERSON_ID);
+        SEGMENT.putInt(OFFSET + 36, COUNT);
+        SEGMENT.putLong(OFFSET + 40, null == PREVIOUS_SEGMENT ? NONE : PREVIOUS);
+        SEGMENT.putLong(OFFSET + 48, SKIP);
+
+        nextSequence = SEQUENCE + 1;
+        index.putLong(ENTRY, SEQUENCE + 1); // 0 means no record
+        index.putLong(ENTRY + 8, EPOCH_SECOND);
+        index.putLong(NEXT_SEQUENCE_OFFSET, nextSequence);
+
+        if (SEQUENCE % recordsPerSegment == recordsPerSegment - 1) { applyRetention(); }
+        return true;
+    }
+
+    /**
+     * Seeks the newest record of the given person with epochSecond <= TO_EPOCH
+     * with the skip pointers, walks the records from there to the oldest
+     * and hands all records with FROM_EPOCH <= epochSecond <= TO_EPOCH over
+     * to the consumer, newest first.
+     */
+    public synchronized void forEachRecord(final String NAME, final long FROM_EPOCH, final long TO_EPOCH, final RecordConsumer CONSUMER) throws IOException {
+        Integer personId = personIds.get(NAME);
+        if (null == personId) return;
+        long sequence = seek(index.getLong(HEADER_SIZE + personId * PERSON_ENTRY_SIZE) - 1, TO_EPOCH);
+        while (sequence >= firstSequence && sequence < nextSequence) {
+            final MappedByteBuffer SEGMENT = getSegment(sequence / recordsPerSegment, false);
+            if (null == SEGMENT) return;
+            final int  OFFSET       = offset(sequence);
+            final long EPOCH_SECOND = SEGMENT.getLong(OFFSET);
+            if (EPOCH_SECOND < FROM_EPOCH) return;
+            CONSUMER.accept(EPOCH_SECOND, SEGMENT.getDouble(OFFSET + 8), SEGMENT.getDouble(OFFSET + 16), SEGMENT.getDouble(OFFSET + 24));
+            sequence = SEGMENT.getLong(OFFSET + 40);
+        }
+    }
+
+    /**
+     * @return the track of the given person between FROM and TO in chronological order
+     */
+    public List<Location> getTrack(final String NAME, final Instant FROM, final Instant TO) throws IOException {
+        List<Location> track = new ArrayList<>();
+        forEachRecord(NAME, FROM.getEpochSecond(), TO.getEpochSecond(),
+                      (epochSecond, latitude, longitude, altitude) -> track.add(new Location(latitude, longitude, altitude, Instant.ofEpochSecond(epochSecond), NAME, "")));
+        Collections.reverse(track);
+        return track;
+    }
+
+    public synchronized long getRecordCount() { return nextSequence - firstSequence; }
+
+    public synchronized int getPersonCount() { return personNames.size(); }
+
+    /**
+     * Writes all changes of the mapped files to disk
+     */
+    public synchronized void flush() throws IOException {
+        index.force();
+        for (MappedByteBuffer segment : segments.values()) { segment.force(); }
+        namesOutput.flush();
+    }
+
+    @Override public synchronized void close() throws IOException {
+        flush();
+        segments.clear();
+        namesOutput.close();
+        indexFile.close();
+    }
+
+
+    // ******************** Private Methods ***********************************
+    private void readNames(final File NAMES_PATH) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(NAMES_PATH)))) {
+            while (true) {
+                String name = input.readUTF();
+                personIds.put(name, personNames.size());
+                personNames.add(name);
+            }
+        } catch (EOFException e) {
+            // end of the names file
+        }
+        if (personNames.size() > personCapacity) { growIndex(personNames.size()); }
+    }
+
+    /**
+     * Names are buffered, after a crash the index may contain persons whose
+     * name was never written. Their entries are cleared so that their ids
+     * can be given to new persons.
+     */
+    private void dropUnnamedPersons() {
+        for (int id = personNames.size() ; id < personCapacity ; id++) {
+            final int ENTRY = HEADER_SIZE + id * PERSON_ENTRY_SIZE;
+            if (index.getLong(ENTRY) == 0) continue;
+            index.putLong(ENTRY, 0);
+            index.putLong(ENTRY + 8, 0);
+        }
+    }
+
+    private int getOrCreatePersonId(final String NAME) throws IOException {
+        Integer personId = personIds.get(NAME);
+        if (null != personId) return personId;
+        final int ID = personNames.size();
+        if (ID >= personCapacity) { growIndex(ID + 1); }
+        // Buffered, the names are written to disk with flush() or close()
+        namesOutput.writeUTF(NAME);
+        personIds.put(NAME, ID);
+        personNames.add(NAME);
+        return ID;
+    }
+
+    /**
+     * Follows the chain from the record before the new one (number COUNT - 1)
+     * to record COUNT - lowestOneBit(COUNT), every step clears the lowest
+     * bit of the record number, so this takes at most log2(COUNT) steps
+     * @return the sequence of the skip record or NONE if it is not retained
+     */
+    private long findSkip(final long PREVIOUS, final int COUNT) throws IOException {
+        final int TARGET   = COUNT - Integer.lowestOneBit(COUNT);
+        int       number   = COUNT - 1;
+        long      sequence = PREVIOUS;
+        while (number > TARGET) {
+            if (sequence < firstSequence) return NONE;
+            final MappedByteBuffer SEGMENT = getSegment(sequence / recordsPerSegment, false);
+            if (null == SEGMENT) return NONE;
+            sequence = SEGMENT.getLong(offset(sequence) + 48);
+            number  -= Integer.lowestOneBit(number);
+        }
+        return TARGET > 0 && sequence >= firstSequence ? sequence : NONE;
+    }
+
+    /**
+     * @return the sequence of the newest record with epochSecond <= TO_EPOCH
+     * in the chain that starts at the given sequence or NONE
+     */
+    private long seek(final long HEAD, final long TO_EPOCH) throws IOException {
+        long sequence = HEAD;
+        while (sequence >= firstSequence && sequence < nextSequence) {
+            final MappedByteBuffer SEGMENT = getSegment(sequence / recordsPerSegment, false);
+            if (null == SEGMENT) return NONE;
+            final int OFFSET = offset(sequence);
+            if (SEGMENT.getLong(OFFSET) <= TO_EPOCH) return sequence;
+            // The skip record is older, take it as long as it is still too new
+            final long             SKIP         = SEGMENT.getLong(OFFSET + 48);
+            final MappedByteBuffer SKIP_SEGMENT = SKIP >= firstSequence ? getSegment(SKIP / recordsPerSegment, false) : null;
+            sequence = null != SKIP_SEGMENT && SKIP_SEGMENT.getLong(offset(SKIP)) > TO_EPOCH ? SKIP : SEGMENT.getLong(OFFSET + 40);
+        }
+        return NONE;
+    }
+
+    private int offset(final long SEQUENCE) { return (int) (SEQUENCE % recordsPerSegment) * RECORD_SIZE; }
+
+    private void growIndex(final int MIN_CAPACITY) throws IOException {
+        int capacity = personCapacity;
+        while (capacity < MIN_CAPACITY) { capacity <<= 1; }
+        index.force();
+        index          = indexFile.getChannel().map(MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * PERSON_ENTRY_SIZE);
+        personCapacity = capacity;
+    }
+
+    private MappedByteBuffer getSegment(final long SEGMENT, final boolean CREATE) throws IOException {
+        MappedByteBuffer buffer = segments.get(SEGMENT);
+        if (null != buffer) return buffer;
+        File file = getSegmentFile(SEGMENT);
+        if (!CREATE && !file.exists()) return null;
+        try (RandomAccessFile segmentFile = new RandomAccessFile(file, "rw")) {
+            buffer = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) recordsPerSegment * RECORD_SIZE);
+        }
+        segments.put(SEGMENT, buffer);
+        // Keep at most as many segments mapped as are retained
+        if (segments.size() > maxSegments) {
+            Iterator<Map.Entry<Long, MappedByteBuffer>> iterator = segments.entrySet().iterator();
+            Map.Entry<Long, MappedByteBuffer>           eldest   = iterator.next();
+            eldest.getValue().force();
+            iterator.remove();
+        }
+        return buffer;
+    }
+
+    private void applyRetention() {
+        final long LAST_SEGMENT  = (nextSequence - 1) / recordsPerSegment;
+        final long FIRST_SEGMENT = firstSequence / recordsPerSegment;
+        // The next append opens a new segment, so keep room for it
+        for (long segment = FIRST_SEGMENT ; segment <= LAST_SEGMENT - maxSegments + 1 ; segment++) {
+            MappedByteBuffer buffer = segments.remove(segment);
+            if (null != buffer) { buffer.force(); }
+            firstSequence = (segment + 1) * recordsPerSegment;
+            index.putLong(FIRST_SEQUENCE_OFFSET, firstSequence);
+            // Deleting a still mapped file fails on some platforms, it is never written again and deleted on exit or on the next start then
+            if (!getSegmentFile(segment).delete()) { getSegmentFile(segment).deleteOnExit(); }
+        }
+    }
+
+    /**
+     * Deletes the segment files below the first retained sequence that could
+     * not be deleted by the retention of a previous run
+     */
+    private void deleteRetiredSegments() {
+        final long   FIRST_SEGMENT = firstSequence / recordsPerSegment;
+        final File[] FILES         = directory.listFiles((DIR, NAME) -> NAME.matches("segment-\\d{12}\\.dat"));
+        if (null == FILES) return;
+        for (File file : FILES) {
+            final long SEGMENT = Long.parseLong(file.getName().substring(8, 20));
+            if (SEGMENT < FIRST_SEGMENT && !file.delete()) { file.deleteOnExit(); }
+        }
+    }
+
+    private File getSegmentFile(final long SEGMENT) { return new File(directory, String.format("segment-%012d.dat", SEGMENT)); }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.accs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Spatial index over the current set of persons based on a regular
+ * latitude/longitude grid. Persons are keyed by Location.name and can be
+ * added, moved and removed in O(1).
+ * Radius, bounding box and k-nearest queries only look at the grid cells
+ * that can contain a match and filter the candidates with
+ * Location.calcDistanceInMeter(), so the results are exactly the same as
+ * the ones of a full scan with Location.isWithinRangeOf().
+ * A coarse level groups the persons of COARSE_FACTOR x COARSE_FACTOR
+ * cells, it is used by k-nearest queries far away from all persons.
+ * The index is not thread safe.
+ */
+public class LocationIndex {
+    public  static final double DEFAULT_CELL_SIZE = 0.01; // degrees, ~1.1 km in latitude
+    private static final double EARTH_RADIUS      = 6_371_000; // m
+    private static final int    COARSE_FACTOR     = 16; // cells per side of a coarse cell
+    private final double                   cellSize;
+    private final int                      latCells;
+    private final int                      lonCells;
+    private final Map<Long, List<Entry>>   cells;
+    private final Map<Long, List<Entry>>   coarseCells;
+    private final Map<String, Entry>       entries;
+
+
+    // ******************** Constructors **************************************
+    public LocationIndex() { this(DEFAULT_CELL_SIZE); }
+    public LocationIndex(final double CELL_SIZE) {
+        if (CELL_SIZE <= 0 || CELL_SIZE > 90) throw new IllegalArgumentException("Cell size must be in ]0, 90] degrees");
+        cellSize    = CELL_SIZE;
+        latCells    = (int) Math.ceil(180.0 / CELL_SIZE);
+        lonCells    = (int) Math.ceil(360.0 / CELL_SIZE);
+        cells       = new HashMap<>();
+        coarseCells = new HashMap<>();
+        entries     = new HashMap<>();
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Adds the given location or moves it if a location with the same name
+     * is already part of the index.
+     * @param LOCATION the location to add or update
+     */
+    public void put(final Location LOCATION) {
+        final int  LAT_INDEX = latIndex(LOCATION.latitude);
+        final int  LON_INDEX = lonIndex(LOCATION.longitude);
+        final long CELL      = key(LAT_INDEX, LON_INDEX);
+        Entry entry = entries.get(LOCATION.name);
+        if (null == entry) {
+            entry = new Entry(LOCATION);
+            entries.put(LOCATION.name, entry);
+            addToCell(entry, CELL);
+        } else {
+            entry.location = LOCATION;
+            if (entry.cell != CELL) {
+                removeFromCell(entry);
+                addToCell(entry, CELL);
+            }
+        }
+        entry.latitude  = LOCATION.latitude;
+        entry.longitude = LOCATION.longitude;
+    }
+
+    public void putAll(final Collection<Location> LOCATIONS) { for (Location location : LOCATIONS) { put(location); } }
+
+    public boolean remove(final String NAME) {
+        Entry entry = entries.remove(NAME);
+        if (null == entry) return false;
+        removeFromCell(entry);
+        return true;
+    }
+
+    public void clear() {
+        cells.clear();
+        coarseCells.clear();
+        entries.clear();
+    }
+
+    public Location get(final String NAME) {
+        Entry entry = entries.get(NAME);
+        return null == entry ? null : entry.location;
+    }
+
+    public int size() { return entries.size(); }
+
+    /**
+     * @param LATITUDE  latitude of the center
+     * @param LONGITUDE longitude of the center
+     * @param METERS    radius in meters
+     * @return all persons whose distance to the center is smaller than the given radius
+     */
+    public List<Location> getWithinRadius(final double LATITUDE, final double LONGITUDE, final double METERS) {
+        List<Location> result = new ArrayList<>();
+        if (entries.isEmpty() || METERS <= 0) return result;
+
+        final double ANGLE       = METERS / EARTH_RADIUS;
+        final double DELTA_LAT   = Math.toDegrees(ANGLE);
+        final double MIN_LAT     = LATITUDE - DELTA_LAT;
+        final double MAX_LAT     = LATITUDE + DELTA_LAT;
+        final double COS_LAT     = Math.cos(Math.toRadians(LATITUDE));
+        final boolean ALL_LON    = MIN_LAT <= -90 || MAX_LAT >= 90 || ANGLE >= Math.PI * 0.5 || Math.sin(ANGLE) >= COS_LAT;
+        final double DELTA_LON   = ALL_LON ? 180 : Math.toDegrees(Math.asin(Math.sin(ANGLE) / COS_LAT));
+
+        final int  MIN_LAT_INDEX = latIndex(MIN_LAT);
+        final int  MAX_LAT_INDEX = latIndex(MAX_LAT);
+        final int  MIN_LON_INDEX = ALL_LON ? 0 : (int) Math.floor((LONGITUDE - DELTA_LON + 180) / cellSize);
+        final int  MAX_LON_INDEX = ALL_LON ? lonCells - 1 : (int) Math.floor((LONGITUDE + DELTA_LON + 180) / cellSize);
+        final long CELL_COUNT    = (long) (MAX_LAT_INDEX - MIN_LAT_INDEX + 1) * Math.min(lonCells, MAX_LON_INDEX - MIN_LON_INDEX + 1);
+
+        if (CELL_COUNT > cells.size()) {
+            for (List<Entry> cell : cells.values()) { collectWithinRadius(cell, LATITUDE, LONGITUDE, METERS, result); }
+        } else {
+            final int LON_SPAN = Math.min(lonCells, MAX_LON_INDEX - MIN_LON_INDEX + 1);
+            for (int latIndex = MIN_LAT_INDEX ; latIndex <= MAX_LAT_INDEX ; latIndex++) {
+                for (int i = 0 ; i < LON_SPAN ; i++) {
+                    List<Entry> cell = cells.get(key(latIndex, Math.floorMod(MIN_LON_INDEX + i, lonCells)));
+                    if (null != cell) { collectWithinRadius(cell, LATITUDE, LONGITUDE, METERS, result); }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return all persons inside the given bounding box, if MIN_LON is larger
+     * than MAX_LON the box is taken to cross the antimeridian
+     */
+    public List<Location> getWithinBounds(final double MIN_LAT, final double MIN_LON, final double MAX_LAT, final double MAX_LON) {
+        List<Location> result = new ArrayList<>();
+        if (entries.isEmpty()) return result;
+
+        final boolean WRAPS         = MIN_LON > MAX_LON;
+        final int     MIN_LAT_INDEX = latIndex(MIN_LAT);
+        final int     MAX_LAT_INDEX = latIndex(MAX_LAT);
+        final int     MIN_LON_INDEX = lonIndex(MIN_LON);
+        final int     LON_SPAN      = !WRAPS && MAX_LON - MIN_LON >= 360 ? lonCells : Math.floorMod(lonIndex(MAX_LON) - MIN_LON_INDEX, lonCells) + 1;
+        final long    CELL_COUNT    = (long) (MAX_LAT_INDEX - MIN_LAT_INDEX + 1) * LON_SPAN;
+
+        if (CELL_COUNT > cells.size()) {
+            for (List<Entry> cell : cells.values()) { collectWithinBounds(cell, MIN_LAT, MIN_LON, MAX_LAT, MAX_LON, WRAPS, result); }
+        } else {
+            for (int latIndex = MIN_LAT_INDEX ; latIndex <= MAX_LAT_INDEX ; latIndex++) {
+                for (int i = 0 ; i < LON_SPAN ; i++) {
+                    List<Entry> cell = cells.get(key(latIndex, (MIN_LON_INDEX + i) % lonCells));
+                    if (null != cell) { collectWithinBounds(cell, MIN_LAT, MIN_LON, MAX_LAT, MAX_LON, WRAPS, result); }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Searches the rings of cells around the given point until no cell
+     * outside of the searched area can contain a closer person. If that is
+     * not the case after COARSE_FACTOR rings or after more cells than are
+     * occupied, the coarse cells are checked in the order of their distance
+     * instead, so a point far away from all persons does not walk through
+     * the empty cells in between.
+     * @return the K nearest persons sorted by ascending distance
+     */
+    public List<Location> getNearest(final double LATITUDE, final double LONGITUDE, final int K) {
+        List<Location> result = new ArrayList<>(Math.max(0, Math.min(K, entries.size())));
+        if (K <= 0 || entries.isEmpty()) return result;
+
+        final int      COUNT     = Math.min(K, entries.size());
+        final double[] distances = new double[COUNT];
+        final Entry[]  nearest   = new Entry[COUNT];
+        final int      LAT_INDEX = latIndex(LATITUDE);
+        final int      LON_INDEX = lonIndex(LONGITUDE);
+        int     found    = 0;
+        int     visited  = 0;
+        long    probed   = 0;
+        int     ring     = 0;
+        boolean complete = false;
+
+        for ( ; ring <= COARSE_FACTOR && 2 * ring + 1 <= lonCells ; ring++) {
+            if (visited == cells.size() || (found == COUNT && getMinDistanceOutside(LATITUDE, LONGITUDE, LAT_INDEX, LON_INDEX, ring - 1) >= distances[COUNT - 1])) {
+                complete = true;
+                break;
+            }
+            probed += 0 == ring ? 1 : 8L * ring;
+            if (probed > cells.size()) break;
+            for (int dLat = -ring ; dLat <= ring ; dLat++) {
+                final int LAT = LAT_INDEX + dLat;
+                if (LAT < 0 || LAT >= latCells) continue;
+                // Only the cells on the border of the ring, the inner ones have been visited before
+                final int STEP = (dLat == -ring || dLat == ring) ? 1 : Math.max(1, 2 * ring);
+                for (int dLon = -ring ; dLon <= ring ; dLon += STEP) {
+                    List<Entry> cell = cells.get(key(LAT, Math.floorMod(LON_INDEX + dLon, lonCells)));
+                    if (null == cell) continue;
+                    visited++;
+                    found = collectNearest(cell, LATITUDE, LONGITUDE, distances, nearest, found, -1, 0, 0);
+                }
+            }
+        }
+        if (!complete) {
+            // Coarse cells sorted by the float bits of their minimum distance (order preserving for positive values) and their index
+            final List<List<Entry>> COARSE = new ArrayList<>(coarseCells.values());
+            final long[]            ORDER  = new long[COARSE.size()];
+            final double[]          BOUNDS = new double[COARSE.size()];
+            int i = 0;
+            for (Map.Entry<Long, List<Entry>> cell : coarseCells.entrySet()) {
+                final long KEY = cell.getKey();
+                BOUNDS[i] = getMinDistanceToCoarseCell(LATITUDE, LONGITUDE, (int) (KEY >>> 32), (int) KEY);
+                ORDER[i]  = ((long) Float.floatToIntBits((float) BOUNDS[i]) << 32) | i;
+                COARSE.set(i++, cell.getValue());
+            }
+            Arrays.sort(ORDER);
+            for (long order : ORDER) {
+                final int INDEX = (int) order;
+                if (found == COUNT && BOUNDS[INDEX] > distances[COUNT - 1]) continue;
+                // Skip the persons in the rings that have been searched already
+                found = collectNearest(COARSE.get(INDEX), LATITUDE, LONGITUDE, distances, nearest, found, ring - 1, LAT_INDEX, LON_INDEX);
+            }
+        }
+        for (int i = 0 ; i < found ; i++) { result.add(nearest[i].location); }
+        return result;
+    }
+
+
+    // ******************** Private Methods ***********************************
+    private int latIndex(final double LATITUDE) {
+        int index = (int) Math.floor((LATITUDE + 90) / cellSize);
+        return index < 0 ? 0 : index >= latCells ? latCells - 1 : index;
+    }
+
+    private int lonIndex(final double LONGITUDE) { return Math.floorMod((int) Math.floor((LONGITUDE + 180) / cellSize), lonCells); }
+
+    private static long key(final int LAT_INDEX, final int LON_INDEX) { return ((long) LAT_INDEX << 32) | (LON_INDEX & 0xffffffffL); }
+
+    private void addToCell(final Entry ENTRY, final long CELL) {
+        ENTRY.cell       = CELL;
+        ENTRY.slot       = add(cells, CELL, ENTRY);
+        ENTRY.coarseCell = key((int) (CELL >>> 32) / COARSE_FACTOR, (int) CELL / COARSE_FACTOR);
+        ENTRY.coarseSlot = add(coarseCells, ENTRY.coarseCell, ENTRY);
+    }
+
+    private void removeFromCell(final Entry ENTRY) {
+        Entry moved = remove(cells, ENTRY.cell, ENTRY.slot);
+        if (null != moved) { moved.slot = ENTRY.slot; }
+        moved = remove(coarseCells, ENTRY.coarseCell, ENTRY.coarseSlot);
+        if (null != moved) { moved.coarseSlot = ENTRY.coarseSlot; }
+    }
+
+    /**
+     * @return the slot of the entry in the given cell
+     */
+    private static int add(final Map<Long, List<Entry>> CELLS, final long CELL, final Entry ENTRY) {
+        List<Entry> cell = CELLS.get(CELL);
+        if (null == cell) {
+            cell = new ArrayList<>(4);
+            CELLS.put(CELL, cell);
+        }
+        cell.add(ENTRY);
+        return cell.size() - 1;
+    }
+
+    /**
+     * @return the entry that moved to the given slot or null
+     */
+    private static Entry remove(final Map<Long, List<Entry>> CELLS, final long CELL, final int SLOT) {
+        List<Entry> cell  = CELLS.get(CELL);
+        int         last  = cell.size() - 1;
+        Entry       moved = cell.remove(last);
+        if (cell.isEmpty()) { CELLS.remove(CELL); }
+        if (last == SLOT) return null;
+        cell.set(SLOT, moved);
+        return moved;
+    }
+
+    private static void collectWithinRadius(final List<Entry> CELL, final double LATITUDE, final double LONGITUDE, final double METERS, final List<Location> RESULT) {
+        for (Entry entry : CELL) {
+            if (Location.calcDistanceInMeter(LATITUDE, LONGITUDE, entry.latitude, entry.longitude) < METERS) { RESULT.add(entry.location); }
+        }
+    }
+
+    private static void collectWithinBounds(final List<Entry> CELL, final double MIN_LAT, final double MIN_LON, final double MAX_LAT, final double MAX_LON,
+                                            final boolean WRAPS, final List<Location> RESULT) {
+        for (Entry entry : CELL) {
+            if (entry.latitude < MIN_LAT || entry.latitude > MAX_LAT) continue;
+            boolean inside = WRAPS ? (entry.longitude >= MIN_LON || entry.longitude <= MAX_LON)
+                                   : (entry.longitude >= MIN_LON && entry.longitude <= MAX_LON);
+            if (inside) { RESULT.add(entry.location); }
+        }
+    }
+
+    /**
+     * Lower bound for the distance between the given point and any point that
+     * lies outside of the square of cells with the given ring radius around it
+     */
+    private double getMinDistanceOutside(final double LATITUDE, final double LONGITUDE, final int LAT_INDEX, final int LON_INDEX, final int RING) {
+        if (RING < 0) return 0;
+        final double SOUTH = (LAT_INDEX - RING) * cellSize - 90;
+        final double NORTH = (LAT_INDEX + RING + 1) * cellSize - 90;
+        final double WEST  = (LON_INDEX - RING) * cellSize - 180;
+        final double EAST  = (LON_INDEX + RING + 1) * cellSize - 180;
+        double minDistance = Double.MAX_VALUE;
+        // Distance to the closest parallel that bounds the square
+        if (SOUTH > -90) { minDistance = Math.min(minDistance, Math.toRadians(LATITUDE - SOUTH) * EARTH_RADIUS); }
+        if (NORTH <  90) { minDistance = Math.min(minDistance, Math.toRadians(NORTH - LATITUDE) * EARTH_RADIUS); }
+        // Distance to the great circle of the closest meridian that bounds the square
+        final double LON      = LONGITUDE - Math.floor((LONGITUDE + 180) / 360) * 360;
+        final double DELTA    = Math.min(90, Math.min(LON - WEST, EAST - LON));
+        minDistance = Math.min(minDistance, Math.asin(Math.cos(Math.toRadians(LATITUDE)) * Math.sin(Math.toRadians(DELTA))) * EARTH_RADIUS);
+        return minDistance;
+    }
+
+    /**
+     * Adds the persons of the given cell that are closer than the current
+     * ones to the K nearest, persons in the cells within SEARCHED rings
+     * around the given cell indices are skipped
+     * @return the new number of found persons
+     */
+    private int collectNearest(final List<Entry> CELL, final double LATITUDE, final double LONGITUDE, final double[] DISTANCES, final Entry[] NEAREST, final int FOUND,
+                               final int SEARCHED, final int LAT_INDEX, final int LON_INDEX) {
+        int found = FOUND;
+        for (Entry entry : CELL) {
+            if (SEARCHED >= 0 && isWithinRings(entry.cell, LAT_INDEX, LON_INDEX, SEARCHED)) continue;
+            double distance = Location.calcDistanceInMeter(LATITUDE, LONGITUDE, entry.latitude, entry.longitude);
+            if (found < DISTANCES.length) {
+                insert(DISTANCES, NEAREST, found++, distance, entry);
+            } else if (distance < DISTANCES[DISTANCES.length - 1]) {
+                insert(DISTANCES, NEAREST, DISTANCES.length - 1, distance, entry);
+            }
+        }
+        return found;
+    }
+
+    private boolean isWithinRings(final long CELL, final int LAT_INDEX, final int LON_INDEX, final int RINGS) {
+        final int DELTA_LON = Math.floorMod((int) CELL - LON_INDEX, lonCells);
+        return Math.abs((int) (CELL >>> 32) - LAT_INDEX) <= RINGS && Math.min(DELTA_LON, lonCells - DELTA_LON) <= RINGS;
+    }
+
+    /**
+     * Distance between the given point and the closest point of the given
+     * coarse cell, which lies on the meridian that bounds the cell on the
+     * side of the point unless the point is within the longitudes of the cell
+     */
+    private double getMinDistanceToCoarseCell(final double LATITUDE, final double LONGITUDE, final int LAT_INDEX, final int LON_INDEX) {
+        final double SOUTH  = LAT_INDEX * COARSE_FACTOR * cellSize - 90;
+        final double NORTH  = Math.min(90, SOUTH + COARSE_FACTOR * cellSize);
+        final double WEST   = LON_INDEX * COARSE_FACTOR * cellSize - 180;
+        final double WIDTH  = Math.min(360, (Math.min(lonCells, (LON_INDEX + 1) * COARSE_FACTOR) - LON_INDEX * COARSE_FACTOR) * cellSize);
+        final double OFFSET = ((LONGITUDE - WEST) % 360 + 360) % 360; // eastwards from the west border
+        if (OFFSET <= WIDTH) return Math.toRadians(Math.max(0, Math.max(SOUTH - LATITUDE, LATITUDE - NORTH))) * EARTH_RADIUS;
+
+        final double MERIDIAN = OFFSET - WIDTH < 360 - OFFSET ? WEST + WIDTH : WEST;
+        final double DELTA    = Math.toRadians(Math.min(OFFSET - WIDTH, 360 - OFFSET));
+        final double PHI      = Math.toRadians(LATITUDE);
+        // Closest point on the great circle of the meridian
+        final double FOOT     = Math.toDegrees(Math.atan2(Math.sin(PHI), Math.cos(PHI) * Math.cos(DELTA)));
+        if (FOOT >= SOUTH && FOOT <= NORTH) return Location.calcDistanceInMeter(LATITUDE, LONGITUDE, FOOT, MERIDIAN);
+        return Math.min(Location.calcDistanceInMeter(LATITUDE, LONGITUDE, SOUTH, MERIDIAN), Location.calcDistanceInMeter(LATITUDE, LONGITUDE, NORTH, MERIDIAN));
+    }
+
+    private static void insert(final double[] DISTANCES, final Entry[] NEAREST, final int INDEX, final double DISTANCE, final Entry ENTRY) {
+        int i = INDEX;
+        while (i > 0 && DISTANCES[i - 1] > DISTANCE) {
+            DISTANCES[i] = DISTANCES[i - 1];
+            NEAREST[i]   = NEAREST[i - 1];
+            i--;
+        }
+        DISTANCES[i] = DISTANCE;
+        NEAREST[i]   = ENTRY;
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private static class Entry {
+        private Location location;
+        private double   latitude;
+        private double   longitude;
+        private long     cell;
+        private int      slot;
+        private long     coarseCell;
+        private int      coarseSlot;
+
+        private Entry(final Location LOCATION) { location = LOCATION; }
+    }
+}
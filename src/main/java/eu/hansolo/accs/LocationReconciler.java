@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.accs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * Compares each new snapshot of locations with the previous one by
+ * Location.name and only reports the persons that have been added,
+ * removed or changed since the last call.
+ * Unchanged persons keep the Location instance of the previous snapshot,
+ * so the instances that are already shown stay valid.
+ */
+public class LocationReconciler {
+    public static class Diff {
+        public final List<Location> added;
+        public final List<Location> changed;
+        public final List<Location> removed;
+
+        private Diff(final List<Location> ADDED, final List<Location> CHANGED, final List<Location> REMOVED) {
+            added   = Collections.unmodifiableList(ADDED);
+            changed = Collections.unmodifiableList(CHANGED);
+            removed = Collections.unmodifiableList(REMOVED);
+        }
+
+        public boolean isEmpty() { return added.isEmpty() && changed.isEmpty() && removed.isEmpty(); }
+
+        public int size() { return added.size() + changed.size() + removed.size(); }
+    }
+
+    private Map<String, Location> current;
+
+
+    // ******************** Constructors **************************************
+    public LocationReconciler() {
+        current = new HashMap<>();
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Reconciles the given snapshot with the previous one.
+     * If a name shows up more than once in the snapshot only the first entry is taken.
+     * @param SNAPSHOT the complete list of locations as received from the backend
+     * @return the added, changed and removed locations
+     */
+    public Diff reconcile(final List<Location> SNAPSHOT) {
+        Map<String, Location> next    = new HashMap<>(SNAPSHOT.size() * 4 / 3 + 1);
+        List<Location>        added   = new ArrayList<>();
+        List<Location>        changed = new ArrayList<>();
+        for (Location location : SNAPSHOT) {
+            if (next.containsKey(location.name)) continue;
+            Location previous = current.remove(location.name);
+            if (null == previous) {
+                added.add(location);
+            } else if (hasChanged(previous, location)) {
+                changed.add(location);
+            } else {
+                location = previous;
+            }
+            next.put(location.name, location);
+        }
+        List<Location> removed = new ArrayList<>(current.values());
+        current = next;
+        return new Diff(added, changed, removed);
+    }
+
+    /**
+     * Applies single changes (e.g. pushed events) to the current state
+     * without treating the persons that are not mentioned as removed.
+     * If a name shows up more than once in the updates only the last entry is taken.
+     * @param UPDATES the new or changed locations
+     * @param REMOVED the names of the persons that have been removed
+     * @return the added, changed and removed locations
+     */
+    public Diff apply(final Collection<Location> UPDATES, final Collection<String> REMOVED) {
+        List<Location>        added   = new ArrayList<>();
+        List<Location>        changed = new ArrayList<>();
+        List<Location>        removed = new ArrayList<>();
+        Map<String, Location> latest  = new LinkedHashMap<>(UPDATES.size() * 4 / 3 + 1);
+        for (Location location : UPDATES) { latest.put(location.name, location); }
+        for (String name : REMOVED) {
+            Location previous = current.remove(name);
+            if (null != previous) { removed.add(previous); }
+        }
+        for (Location location : latest.values()) {
+            Location previous = current.get(location.name);
+            if (null == previous) {
+                added.add(location);
+            } else if (hasChanged(previous, location)) {
+                changed.add(location);
+            } else {
+                continue;
+            }
+            current.put(location.name, location);
+        }
+        return new Diff(added, changed, removed);
+    }
+
+    /**
+     * @return the locations of the last reconciled snapshot
+     */
+    public Collection<Location> getLocations() { return Collections.unmodifiableCollection(current.values()); }
+
+    public Location get(final String NAME) { return current.get(NAME); }
+
+    public int size() { return current.size(); }
+
+
+    // ******************** Private Methods ***********************************
+    static boolean hasChanged(final Location OLD, final Location NEW) {
+        return Double.compare(OLD.latitude, NEW.latitude) != 0 ||
+               Double.compare(OLD.longitude, NEW.longitude) != 0 ||
+               Double.compare(OLD.altitude, NEW.altitude) != 0 ||
+               OLD.isUpToDate != NEW.isUpToDate ||
+               !Objects.equals(OLD.timestamp, NEW.timestamp) ||
+               !Objects.equals(OLD.info, NEW.info);
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+
+/**
+ * Text search and filters over the current set of persons.
+ * Name and info of every person are indexed with all n-grams of length 1
+ * to MAX_GRAM (lower case), a query is answered by taking the smallest
+ * posting list of its n-grams and checking the candidates with
+ * String.contains(), so the result is the same as a full scan. A query
+ * that extends the previous one only checks the previous matches.
+ * Besides the text the persons can be filtered by state (up to date or
+ * stale) and by their distance to a point, the candidates of a distance
+ * filter without text come from the LocationIndex.
+ * The set of matching persons is kept up to date on every put() and
+ * remove(), so matches() is a lookup and can be used as predicate of a
+ * FilteredList. Persons are only indexed again if their info changed.
+ * The search is not thread safe.
+ */
+public class LocationSearch {
+    public enum State { ALL, UP_TO_DATE, STALE }
+
+    private static final int             MAX_GRAM = 3;
+    private final LocationIndex          locationIndex;
+    private final Map<String, Entry>     entries;
+    private final Map<String, Posting>   postings;
+    private final List<Entry>            slots;
+    private final List<Integer>          freeSlots;
+    private Set<String>                  matches;
+    private String                       query;
+    private State                        state;
+    private double                       latitude;
+    private double                       longitude;
+    private double                       meters;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * @param LOCATION_INDEX spatial index over the same persons that is used for distance filters or null
+     */
+    public LocationSearch(final LocationIndex LOCATION_INDEX) {
+        locationIndex = LOCATION_INDEX;
+        entries       = new HashMap<>();
+        postings      = new HashMap<>();
+        slots         = new ArrayList<>();
+        freeSlots     = new ArrayList<>();
+        matches       = new HashSet<>();
+        query         = "";
+        state         = State.ALL;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Adds the given location or updates it if a location with the same
+     * name is already part of the search
+     */
+    public void put(final Location LOCATION) {
+        Entry entry = entries.get(LOCATION.name);
+        if (null == entry) {
+            entry = new Entry(LOCATION, freeSlots.isEmpty() ? slots.size() : freeSlots.remove(freeSlots.size() - 1));
+            if (entry.slot == slots.size()) { slots.add(entry); } else { slots.set(entry.slot, entry); }
+            entries.put(LOCATION.name, entry);
+            index(entry);
+        } else {
+            final boolean INFO_CHANGED = !Objects.equals(LOCATION.info, entry.location.info);
+            entry.location = LOCATION;
+            if (INFO_CHANGED) {
+                unindex(entry);
+                entry.text = toText(LOCATION);
+                index(entry);
+            }
+        }
+        if (!isFiltering()) return;
+        if (accept(entry)) {
+            matches.add(LOCATION.name);
+        } else {
+            matches.remove(LOCATION.name);
+        }
+    }
+
+    public void putAll(final Collection<Location> LOCATIONS) { for (Location location : LOCATIONS) { put(location); } }
+
+    public boolean remove(final String NAME) {
+        Entry entry = entries.remove(NAME);
+        if (null == entry) return false;
+        unindex(entry);
+        slots.set(entry.slot, null);
+        freeSlots.add(entry.slot);
+        matches.remove(NAME);
+        return true;
+    }
+
+    public void clear() {
+        entries.clear();
+        postings.clear();
+        slots.clear();
+        freeSlots.clear();
+        matches.clear();
+    }
+
+    public int size() { return entries.size(); }
+
+    /**
+     * @param QUERY text that has to be part of the name or the info of a person, case is ignored
+     * @return true if the query changed
+     */
+    public boolean setQuery(final String QUERY) {
+        final String NEW_QUERY = null == QUERY ? "" : QUERY.trim().toLowerCase(Locale.ROOT);
+        if (NEW_QUERY.equals(query)) return false;
+        final boolean NARROWS = !query.isEmpty() && NEW_QUERY.contains(query);
+        query = NEW_QUERY;
+        if (NARROWS) {
+            // Every match of the new query is a match of the previous one
+            Set<String> narrowed = new HashSet<>();
+            for (String name : matches) {
+                if (accept(entries.get(name))) { narrowed.add(name); }
+            }
+            matches = narrowed;
+        } else {
+            update();
+        }
+        return true;
+    }
+
+    public String getQuery() { return query; }
+
+    /**
+     * @return true if the state filter changed
+     */
+    public boolean setState(final State STATE) {
+        if (STATE == state) return false;
+        state = null == STATE ? State.ALL : STATE;
+        update();
+        return true;
+    }
+
+    public State getState() { return state; }
+
+    /**
+     * Only accepts persons that are closer than the given distance to the given point
+     * @param METERS radius in meters, 0 or less removes the distance filter
+     * @return true if the distance filter changed
+     */
+    public boolean setDistance(final double LATITUDE, final double LONGITUDE, final double METERS) {
+        final double NEW_METERS = Math.max(0, METERS);
+        if (NEW_METERS == meters && (NEW_METERS == 0 || (LATITUDE == latitude && LONGITUDE == longitude))) return false;
+        latitude  = LATITUDE;
+        longitude = LONGITUDE;
+        meters    = NEW_METERS;
+        update();
+        return true;
+    }
+
+    public double getDistance() { return meters; }
+
+    /**
+     * @return true if a query or a filter is set
+     */
+    public boolean isFiltering() { return !query.isEmpty() || State.ALL != state || meters > 0; }
+
+    /**
+     * @return true if the person with the given name matches the query and the filters
+     */
+    public boolean matches(final String NAME) { return !isFiltering() ? entries.containsKey(NAME) : matches.contains(NAME); }
+
+    /**
+     * @return number of persons that match the query and the filters
+     */
+    public int getMatchCount() { return isFiltering() ? matches.size() : entries.size(); }
+
+
+    // ******************** Private Methods ***********************************
+    /**
+     * Collects the matches from the smallest set of candidates
+     */
+    private void update() {
+        if (!isFiltering()) {
+            matches = new HashSet<>();
+            return;
+        }
+        Set<String> result = new HashSet<>();
+        if (!query.isEmpty()) {
+            final Posting POSTING = getSmallestPosting(query);
+            if (null != POSTING) {
+                for (int i = 0 ; i < POSTING.size ; i++) {
+                    final Entry ENTRY = slots.get(POSTING.slots[i]);
+                    if (accept(ENTRY)) { result.add(ENTRY.location.name); }
+                }
+            }
+        } else if (meters > 0 && null != locationIndex) {
+            for (Location location : locationIndex.getWithinRadius(latitude, longitude, meters)) {
+                final Entry ENTRY = entries.get(location.name);
+                if (null != ENTRY && accept(ENTRY)) { result.add(location.name); }
+            }
+        } else {
+            for (Entry entry : entries.values()) {
+                if (accept(entry)) { result.add(entry.location.name); }
+            }
+        }
+        matches = result;
+    }
+
+    private boolean accept(final Entry ENTRY) {
+        final Location LOCATION = ENTRY.location;
+        if (State.UP_TO_DATE == state && !LOCATION.isUpToDate) return false;
+        if (State.STALE == state && LOCATION.isUpToDate) return false;
+        if (!query.isEmpty() && !ENTRY.text.contains(query)) return false;
+        return meters <= 0 || Location.calcDistanceInMeter(latitude, longitude, LOCATION.latitude, LOCATION.longitude) < meters;
+    }
+
+    /**
+     * @return the shortest posting list of the n-grams of the given query or null if one of them is unknown
+     */
+    private Posting getSmallestPosting(final String QUERY) {
+        if (QUERY.length() <= MAX_GRAM) return postings.get(QUERY);
+        Posting smallest = null;
+        for (int i = 0 ; i + MAX_GRAM <= QUERY.length() ; i++) {
+            final Posting POSTING = postings.get(QUERY.substring(i, i + MAX_GRAM));
+            if (null == POSTING) return null;
+            if (null == smallest || POSTING.size < smallest.size) { smallest = POSTING; }
+        }
+        return smallest;
+    }
+
+    private void index(final Entry ENTRY) {
+        final Set<String> GRAMS = getGrams(ENTRY.text);
+        ENTRY.postings  = new Posting[GRAMS.size()];
+        ENTRY.positions = new int[GRAMS.size()];
+        int i = 0;
+        for (String gram : GRAMS) {
+            Posting posting = postings.get(gram);
+            if (null == posting) {
+                posting = new Posting(gram);
+                postings.put(gram, posting);
+            }
+            ENTRY.positions[i]  = posting.add(ENTRY.slot, i);
+            ENTRY.postings[i++] = posting;
+        }
+    }
+
+    private void unindex(final Entry ENTRY) {
+        for (int i = 0 ; i < ENTRY.postings.length ; i++) {
+            final Posting POSTING  = ENTRY.postings[i];
+            final int     POSITION = ENTRY.positions[i];
+            if (POSTING.remove(POSITION)) {
+                // The last slot of the posting took the place of the removed one
+                slots.get(POSTING.slots[POSITION]).positions[POSTING.grams[POSITION]] = POSITION;
+            }
+            if (POSTING.size == 0) { postings.remove(POSTING.gram); }
+        }
+        ENTRY.postings  = null;
+        ENTRY.positions = null;
+    }
+
+    private static Set<String> getGrams(final String TEXT) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0 ; i < TEXT.length() ; i++) {
+            for (int length = 1 ; length <= MAX_GRAM && i + length <= TEXT.length() ; length++) {
+                grams.add(TEXT.substring(i, i + length));
+            }
+        }
+        return grams;
+    }
+
+    /**
+     * Name and info in lower case, separated by a line break which can not be part of a query
+     */
+    private static String toText(final Location LOCATION) {
+        return (LOCATION.name + '\n' + (null == LOCATION.info ? "" : LOCATION.info)).toLowerCase(Locale.ROOT);
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private static class Entry {
+        private final int  slot;
+        private Location   location;
+        private String     text;
+        private Posting[]  postings;
+        private int[]      positions; // position of the slot in each of the postings
+
+        private Entry(final Location LOCATION, final int SLOT) {
+            location = LOCATION;
+            slot     = SLOT;
+            text     = toText(LOCATION);
+        }
+    }
+
+    /**
+     * Unordered set of the slots of all persons that contain the n-gram,
+     * every entry knows the positions of its slot, so removing is a swap
+     * with the last slot
+     */
+    private static class Posting {
+        private final String gram;
+        private int[]        slots;
+        private int[]        grams; // index of this posting in Entry.postings of the slot
+        private int          size;
+
+        private Posting(final String GRAM) {
+            gram  = GRAM;
+            slots = new int[4];
+            grams = new int[4];
+        }
+
+        /**
+         * @return the position of the added slot
+         */
+        private int add(final int SLOT, final int GRAM_INDEX) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+                grams = Arrays.copyOf(grams, size * 2);
+            }
+            slots[size] = SLOT;
+            grams[size] = GRAM_INDEX;
+            return size++;
+        }
+
+        /**
+         * @return true if the last slot moved to the given position
+         */
+        private boolean remove(final int POSITION) {
+            size--;
+            if (POSITION == size) return false;
+            slots[POSITION] = slots[size];
+            grams[POSITION] = grams[size];
+            return true;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+
+/**
+ * Keeps the last known set of locations in a file in the LocationCodec
+ * format, so that the list and the map can be filled right at startup
+ * before the first response of the backend arrives.
+ * The file is replaced atomically, a missing file results in an empty
+ * snapshot.
+ */
+public class LocationSnapshot {
+    private final File file;
+
+
+    // ******************** Constructors **************************************
+    public LocationSnapshot(final File FILE) {
+        file = FILE;
+    }
+
+
+    // ******************** Methods *******************************************
+    public File getFile() { return file; }
+
+    /**
+     * @return the locations of the last saved snapshot or an empty list if there is none
+     * @throws IOException if the snapshot can not be read or is broken
+     */
+    public List<Location> load() throws IOException {
+        if (!file.isFile()) return new ArrayList<>();
+        try (InputStream input = Files.newInputStream(file.toPath())) {
+            return new LocationCodec().decode(input);
+        }
+    }
+
+    public void save(final Collection<Location> LOCATIONS) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (null != directory) { Files.createDirectories(directory.toPath()); }
+        File tmp = new File(directory, file.getName() + ".tmp");
+        try (OutputStream output = Files.newOutputStream(tmp.toPath())) {
+            LocationCodec.encode(LOCATIONS, output);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+
+
+/**
+ * Column store for very large numbers of persons.
+ * The positions are kept in primitive arrays, names and infos are
+ * dictionary encoded, so a row costs about 45 bytes plus the name itself
+ * instead of a Location with its Instant and a hash map entry. The
+ * dictionaries count the rows that use a string and drop it when the last
+ * one is gone, so changing infos and names do not pile up.
+ * Rows are addressed by index (0 <= row < size()), removing a person moves
+ * the last row into the gap, so row indices are only stable until the
+ * next removal.
+ * UI code can either read the columns directly or fill a reused Location
+ * with get(row, flyweight).
+ * Not thread safe.
+ */
+public class LocationStore implements LocationCodec.RecordConsumer {
+    private static final int INITIAL_CAPACITY = 64;
+    private final StringTable names;
+    private final StringTable infos;
+    private int[]             rowByName;
+    private long[]            epochSeconds;
+    private double[]          latitudes;
+    private double[]          longitudes;
+    private double[]          altitudes;
+    private int[]             nameIds;
+    private int[]             infoIds;
+    private long[]            upToDate;
+    private int               size;
+
+
+    // ******************** Constructors **************************************
+    public LocationStore() { this(INITIAL_CAPACITY); }
+    public LocationStore(final int INITIAL_CAPACITY) {
+        final int CAPACITY = Math.max(1, INITIAL_CAPACITY);
+        names        = new StringTable(CAPACITY);
+        infos        = new StringTable(16);
+        rowByName    = new int[CAPACITY];
+        epochSeconds = new long[CAPACITY];
+        latitudes    = new double[CAPACITY];
+        longitudes   = new double[CAPACITY];
+        altitudes    = new double[CAPACITY];
+        nameIds      = new int[CAPACITY];
+        infoIds      = new int[CAPACITY];
+        upToDate     = new long[(CAPACITY + 63) >>> 6];
+        Arrays.fill(rowByName, -1);
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Adds the given person or updates its row
+     * @return the row of the person
+     */
+    public int put(final String NAME, final String INFO, final long EPOCH_SECOND, final double LATITUDE, final double LONGITUDE, final double ALTITUDE, final boolean UP_TO_DATE) {
+        final String KEY     = null == NAME ? "" : NAME;
+        final String TEXT    = null == INFO ? "" : INFO;
+        final int    NAME_ID = names.find(KEY);
+        final int    row;
+        if (NAME_ID < 0) {
+            final int NEW_ID = names.intern(KEY);
+            if (NEW_ID >= rowByName.length) {
+                final int OLD_LENGTH = rowByName.length;
+                rowByName = Arrays.copyOf(rowByName, Math.max(NEW_ID + 1, OLD_LENGTH + (OLD_LENGTH >> 1)));
+                Arrays.fill(rowByName, OLD_LENGTH, rowByName.length, -1);
+            }
+            if (size == latitudes.length) { grow(); }
+            row = size++;
+            rowByName[NEW_ID] = row;
+            nameIds[row]      = NEW_ID;
+            infoIds[row]      = infos.intern(TEXT);
+        } else {
+            row = rowByName[NAME_ID];
+            if (!TEXT.equals(infos.get(infoIds[row]))) {
+                final int INFO_ID = infos.intern(TEXT);
+                infos.release(infoIds[row]);
+                infoIds[row] = INFO_ID;
+            }
+        }
+        epochSeconds[row] = EPOCH_SECOND;
+        latitudes[row]    = LATITUDE;
+        longitudes[row]   = LONGITUDE;
+        altitudes[row]    = ALTITUDE;
+        setUpToDate(row, UP_TO_DATE);
+        return row;
+    }
+    public int put(final Location LOCATION) {
+        return put(LOCATION.name, LOCATION.info, LOCATION.timestamp.getEpochSecond(), LOCATION.latitude, LOCATION.longitude, LOCATION.altitude, LOCATION.isUpToDate);
+    }
+    public void putAll(final Collection<Location> LOCATIONS) {
+        for (Location location : LOCATIONS) { put(location); }
+    }
+
+    /**
+     * Allows to decode LocationCodec payloads straight into the store
+     * without creating Location objects, e.g. codec.decode(input, store)
+     */
+    @Override public void accept(final String NAME, final String INFO, final long EPOCH_SECOND, final double LATITUDE, final double LONGITUDE, final double ALTITUDE) {
+        put(NAME, INFO, EPOCH_SECOND, LATITUDE, LONGITUDE, ALTITUDE, true);
+    }
+
+    /**
+     * Removes the given person, the last row is moved into its place
+     * @return true if the person was stored
+     */
+    public boolean remove(final String NAME) {
+        final int NAME_ID = names.find(NAME);
+        if (NAME_ID < 0) return false;
+        final int ROW  = rowByName[NAME_ID];
+        final int LAST = --size;
+        rowByName[NAME_ID] = -1;
+        names.release(NAME_ID);
+        infos.release(infoIds[ROW]);
+        if (ROW != LAST) {
+            epochSeconds[ROW] = epochSeconds[LAST];
+            latitudes[ROW]    = latitudes[LAST];
+            longitudes[ROW]   = longitudes[LAST];
+            altitudes[ROW]    = altitudes[LAST];
+            nameIds[ROW]      = nameIds[LAST];
+            infoIds[ROW]      = infoIds[LAST];
+            setUpToDate(ROW, (upToDate[LAST >>> 6] & (1L << LAST)) != 0);
+            rowByName[nameIds[ROW]] = ROW;
+        }
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(rowByName, -1);
+        names.clear();
+        infos.clear();
+        size = 0;
+    }
+
+    /**
+     * @return the row of the given person or -1
+     */
+    public int indexOf(final String NAME) {
+        final int NAME_ID = names.find(NAME);
+        return NAME_ID < 0 ? -1 : rowByName[NAME_ID];
+    }
+
+    public int size() { return size; }
+
+    public String getName(final int ROW) { return names.get(nameIds[check(ROW)]); }
+
+    public String getInfo(final int ROW) { return infos.get(infoIds[check(ROW)]); }
+
+    public long getEpochSecond(final int ROW) { return epochSeconds[check(ROW)]; }
+
+    public double getLatitude(final int ROW) { return latitudes[check(ROW)]; }
+
+    public double getLongitude(final int ROW) { return longitudes[check(ROW)]; }
+
+    public double getAltitude(final int ROW) { return altitudes[check(ROW)]; }
+
+    public boolean isUpToDate(final int ROW) { return (upToDate[check(ROW) >>> 6] & (1L << ROW)) != 0; }
+
+    /**
+     * Fills the given Location with the values of the given row and returns
+     * it, so one instance can be reused for a whole scan. The Instant is
+     * only replaced if the timestamp differs.
+     */
+    public Location get(final int ROW, final Location FLYWEIGHT) {
+        check(ROW);
+        final long EPOCH_SECOND = epochSeconds[ROW];
+        if (null == FLYWEIGHT.timestamp || FLYWEIGHT.timestamp.getEpochSecond() != EPOCH_SECOND || FLYWEIGHT.timestamp.getNano() != 0) {
+            FLYWEIGHT.timestamp = Instant.ofEpochSecond(EPOCH_SECOND);
+        }
+        FLYWEIGHT.name       = names.get(nameIds[ROW]);
+        FLYWEIGHT.info       = infos.get(infoIds[ROW]);
+        FLYWEIGHT.latitude   = latitudes[ROW];
+        FLYWEIGHT.longitude  = longitudes[ROW];
+        FLYWEIGHT.altitude   = altitudes[ROW];
+        FLYWEIGHT.isUpToDate = isUpToDate(ROW);
+        return FLYWEIGHT;
+    }
+
+    /**
+     * @return a new Location with the values of the given row
+     */
+    public Location get(final int ROW) {
+        Location location = new Location(latitudes[check(ROW)], longitudes[ROW], altitudes[ROW], Instant.ofEpochSecond(epochSeconds[ROW]), names.get(nameIds[ROW]), infos.get(infoIds[ROW]));
+        location.isUpToDate = isUpToDate(ROW);
+        return location;
+    }
+
+    /**
+     * @return the approximate number of bytes used by the arrays of the store, without the strings themselves
+     */
+    public long getFootprint() {
+        final long CAPACITY = latitudes.length;
+        return CAPACITY * (8 * 4 + 4 * 2) + upToDate.length * 8L + rowByName.length * 4L + names.getFootprint() + infos.getFootprint();
+    }
+
+
+    // ******************** Private Methods ***********************************
+    private int check(final int ROW) {
+        if (ROW < 0 || ROW >= size) throw new IndexOutOfBoundsException("Row: " + ROW + ", size: " + size);
+        return ROW;
+    }
+
+    private void setUpToDate(final int ROW, final boolean UP_TO_DATE) {
+        if (UP_TO_DATE) {
+            upToDate[ROW >>> 6] |= 1L << ROW;
+        } else {
+            upToDate[ROW >>> 6] &= ~(1L << ROW);
+        }
+    }
+
+    private void grow() {
+        final int CAPACITY = latitudes.length + (latitudes.length >> 1) + 1;
+        epochSeconds = Arrays.copyOf(epochSeconds, CAPACITY);
+        latitudes    = Arrays.copyOf(latitudes, CAPACITY);
+        longitudes   = Arrays.copyOf(longitudes, CAPACITY);
+        altitudes    = Arrays.copyOf(altitudes, CAPACITY);
+        nameIds      = Arrays.copyOf(nameIds, CAPACITY);
+        infoIds      = Arrays.copyOf(infoIds, CAPACITY);
+        upToDate     = Arrays.copyOf(upToDate, (CAPACITY + 63) >>> 6);
+    }
+
+
+    // ******************** Inner Classes *************************************
+    /**
+     * Dictionary that maps strings to dense ids with an open addressing
+     * hash table. Every id counts its users, the id of a string that is
+     * released by its last user is reused for the next new string. Entries
+     * are removed by shifting the following entries of the probe sequence
+     * back, so the table needs no tombstones.
+     */
+    private static class StringTable {
+        private String[] values;
+        private int[]    counts;
+        private int[]    slots;    // id + 1, 0 = empty
+        private int[]    freeIds;
+        private int      freeCount;
+        private int      size;     // ids handed out so far, including the free ones
+
+        private StringTable(final int CAPACITY) {
+            values  = new String[Math.max(4, CAPACITY)];
+            counts  = new int[values.length];
+            slots   = new int[tableSize(values.length)];
+            freeIds = new int[4];
+        }
+
+        /**
+         * @return the id of the given string, every call has to be balanced by a call of release()
+         */
+        private int intern(final String VALUE) {
+            int slot = VALUE.hashCode() & (slots.length - 1);
+            while (slots[slot] != 0) {
+                final int ID = slots[slot] - 1;
+                if (values[ID].equals(VALUE)) {
+                    counts[ID]++;
+                    return ID;
+                }
+                slot = (slot + 1) & (slots.length - 1);
+            }
+            final int ID;
+            if (freeCount > 0) {
+                ID = freeIds[--freeCount];
+            } else {
+                if (size == values.length) {
+                    values = Arrays.copyOf(values, size + (size >> 1) + 1);
+                    counts = Arrays.copyOf(counts, values.length);
+                }
+                ID = size++;
+            }
+            values[ID] = VALUE;
+            counts[ID] = 1;
+            if (size() * 2 > slots.length) {
+                rehash(tableSize(values.length));
+            } else {
+                slots[slot] = ID + 1;
+            }
+            return ID;
+        }
+
+        private void release(final int ID) {
+            if (--counts[ID] > 0) return;
+            final int MASK = slots.length - 1;
+            int hole = values[ID].hashCode() & MASK;
+            while (slots[hole] != ID + 1) { hole = (hole + 1) & MASK; }
+            // Moves every following entry of the cluster that may live in the hole back
+            for (int slot = (hole + 1) & MASK ; slots[slot] != 0 ; slot = (slot + 1) & MASK) {
+                final int HOME = values[slots[slot] - 1].hashCode() & MASK;
+                if (((slot - HOME) & MASK) >= ((slot - hole) & MASK)) {
+                    slots[hole] = slots[slot];
+                    hole        = slot;
+                }
+            }
+            slots[hole] = 0;
+            values[ID]  = null;
+            if (freeCount == freeIds.length) { freeIds = Arrays.copyOf(freeIds, freeCount * 2); }
+            freeIds[freeCount++] = ID;
+        }
+
+        private int find(final String VALUE) {
+            if (null == VALUE) return -1;
+            int slot = VALUE.hashCode() & (slots.length - 1);
+            while (slots[slot] != 0) {
+                final int ID = slots[slot] - 1;
+                if (values[ID].equals(VALUE)) return ID;
+                slot = (slot + 1) & (slots.length - 1);
+            }
+            return -1;
+        }
+
+        private String get(final int ID) { return values[ID]; }
+
+        private int size() { return size - freeCount; }
+
+        private void clear() {
+            Arrays.fill(values, 0, size, null);
+            Arrays.fill(slots, 0);
+            size      = 0;
+            freeCount = 0;
+        }
+
+        private long getFootprint() { return (values.length + counts.length + slots.length + freeIds.length) * 4L; }
+
+        private void rehash(final int TABLE_SIZE) {
+            slots = new int[TABLE_SIZE];
+            for (int id = 0 ; id < size ; id++) {
+                if (null == values[id]) continue;
+                int slot = values[id].hashCode() & (TABLE_SIZE - 1);
+                while (slots[slot] != 0) { slot = (slot + 1) & (TABLE_SIZE - 1); }
+                slots[slot] = id + 1;
+            }
+        }
+
+        private static int tableSize(final int CAPACITY) {
+            int tableSize = 16;
+            while (tableSize < CAPACITY * 2) { tableSize <<= 1; }
+            return tableSize;
+        }
+    }
+}
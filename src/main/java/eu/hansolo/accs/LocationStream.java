@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import javafx.application.Platform;
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * Subscribes to the server sent event stream of the backend
+ * (RestClient.newStreamCall()) and hands the pushed position changes over
+ * to the FX application thread.
+ * Events of type "message" or "location" carry one location object or an
+ * array of them, events of type "remove" carry the objects (or just the
+ * names) of the persons that are gone. Events that arrive in a burst are
+ * handed over together: the changes are collected as long as the next
+ * event has been received completely, but at most MAX_BATCH events.
+ * Lost connections are reopened with an exponential backoff and the id of
+ * the last received event (Last-Event-ID), so the backend can resume the
+ * stream. A connection without data or keep alive comments for longer
+ * than the read timeout of the stream call is taken as lost, so half open
+ * connections are detected. If the backend has no stream endpoint the listener is told that
+ * the stream is disconnected, so the caller can keep polling, and the
+ * stream is only retried every few minutes.
+ */
+public class LocationStream {
+    private static final long             MIN_BACKOFF         = 1_000;
+    private static final long             MAX_BACKOFF         = 60_000;
+    private static final long             UNAVAILABLE_BACKOFF = 300_000;
+    private static final int              MAX_BATCH           = 1_000; // events per hand over
+    private static final String           EVENT_STREAM        = "text/event-stream";
+    private final Listener                listener;
+    private final LocationDecoder         decoder;
+    private final Map<String, Location>   updated;
+    private final Set<String>             removed;
+    private final StringBuilder           data;
+    private volatile boolean              running;
+    private volatile Call                 call;
+    private volatile String               lastEventId;
+    private volatile long                 retry;
+    private boolean                       connected;
+    private Thread                        thread;
+
+    public interface Listener {
+        /**
+         * Called on the FX application thread with the changes of one or more events
+         */
+        void onEvents(List<Location> UPDATED, List<String> REMOVED);
+
+        /**
+         * Called on the FX application thread whenever the stream has been
+         * opened or lost, while it is disconnected the caller should poll
+         */
+        void onConnectionChanged(boolean CONNECTED);
+    }
+
+
+    // ******************** Constructors **************************************
+    public LocationStream(final Listener LISTENER) {
+        listener = LISTENER;
+        decoder  = new LocationDecoder();
+        updated  = new LinkedHashMap<>();
+        removed  = new LinkedHashSet<>();
+        data     = new StringBuilder(256);
+        retry    = MIN_BACKOFF;
+    }
+
+
+    // ******************** Methods *******************************************
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread  = new Thread(this::run, "StreamTask");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        Call current = call;
+        if (null != current) { current.cancel(); }
+        thread.interrupt();
+        thread = null;
+    }
+
+    public boolean isRunning() { return running; }
+
+    public String getLastEventId() { return lastEventId; }
+
+
+    // ******************** Private Methods ***********************************
+    private void run() {
+        long backoff = MIN_BACKOFF;
+        while (running) {
+            long            delay      = UNAVAILABLE_BACKOFF;
+            Optional<Call>  streamCall = RestClient.INSTANCE.newStreamCall(lastEventId);
+            if (streamCall.isPresent()) {
+                call = streamCall.get();
+                try (Response response = call.execute()) {
+                    if (response.isSuccessful() && isEventStream(response)) {
+                        setConnected(true);
+                        backoff = retry;
+                        read(response.body().source());
+                        delay = retry;
+                    } else if (response.code() >= 500) {
+                        delay = backoff;
+                    }
+                } catch (IOException e) {
+                    // Also a read timeout, the connection is reopened like any other lost one
+                    delay = backoff;
+                } finally {
+                    call = null;
+                }
+            }
+            setConnected(false);
+            if (delay == backoff) { backoff = Math.min(MAX_BACKOFF, backoff * 2); }
+            try {
+                Thread.sleep(delay + ThreadLocalRandom.current().nextLong(delay / 4 + 1));
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads the events line by line as described in the server sent events
+     * specification until the stream ends.
+     */
+    private void read(final BufferedSource SOURCE) throws IOException {
+        String event = null;
+        String id    = null;
+        String line;
+        int    batched = 0;
+        data.setLength(0);
+        while (running && null != (line = SOURCE.readUtf8Line())) {
+            if (line.isEmpty()) {
+                if (null != id) { lastEventId = id; }
+                dispatch(event);
+                event = null;
+                id    = null;
+                data.setLength(0);
+                if (++batched >= MAX_BATCH || !hasCompleteEvent(SOURCE.buffer())) {
+                    flush();
+                    batched = 0;
+                }
+                continue;
+            }
+            if (line.charAt(0) == ':') continue; // comment, e.g. keep alive
+            int    colon = line.indexOf(':');
+            String field = colon < 0 ? line : line.substring(0, colon);
+            String value = colon < 0 ? "" : line.substring(value(line, colon));
+            switch (field) {
+                case "data" : if (data.length() > 0) { data.append('\n'); } data.append(value); break;
+                case "event": event = value; break;
+                case "id"   : if (value.indexOf('\u0000') < 0) { id = value; } break;
+                case "retry":
+                    try {
+                        retry = Math.max(MIN_BACKOFF, Long.parseLong(value));
+                    } catch (NumberFormatException e) {
+                        // ignored as defined in the specification
+                    }
+                    break;
+                default     : break;
+            }
+        }
+        flush();
+    }
+
+    private void dispatch(final String EVENT) {
+        if (data.length() == 0) return;
+        final String TYPE = null == EVENT || EVENT.isEmpty() ? "message" : EVENT;
+        final String JSON = data.toString().trim();
+        if (JSON.isEmpty()) return;
+        try {
+            if ("message".equals(TYPE) || "location".equals(TYPE)) {
+                for (Location location : decoder.decode(JSON.charAt(0) == '[' ? JSON : "[" + JSON + "]")) {
+                    removed.remove(location.name);
+                    updated.put(location.name, location);
+                }
+            } else if ("remove".equals(TYPE)) {
+                if (JSON.charAt(0) == '[' || JSON.charAt(0) == '{') {
+                    for (Location location : decoder.decode(JSON.charAt(0) == '[' ? JSON : "[" + JSON + "]")) { remove(location.name); }
+                } else {
+                    remove(JSON.length() > 1 && JSON.charAt(0) == '"' ? JSON.substring(1, JSON.length() - 1) : JSON);
+                }
+            }
+        } catch (IOException e) {
+            // malformed events are skipped, the next poll or resync fixes the state
+        }
+    }
+
+    private void remove(final String NAME) {
+        updated.remove(NAME);
+        removed.add(NAME);
+    }
+
+    private void flush() {
+        if (updated.isEmpty() && removed.isEmpty()) return;
+        final List<Location> UPDATED = LocationUpdater.prepare(new ArrayList<>(updated.values()));
+        final List<String>   REMOVED = new ArrayList<>(removed);
+        updated.clear();
+        removed.clear();
+        Platform.runLater(() -> {
+            if (running) { listener.onEvents(UPDATED, REMOVED); }
+        });
+    }
+
+    private void setConnected(final boolean CONNECTED) {
+        if (connected == CONNECTED) return;
+        connected = CONNECTED;
+        Platform.runLater(() -> {
+            if (running) { listener.onConnectionChanged(CONNECTED); }
+        });
+    }
+
+    private static int value(final String LINE, final int COLON) {
+        return COLON + 1 < LINE.length() && LINE.charAt(COLON + 1) == ' ' ? COLON + 2 : COLON + 1;
+    }
+
+    /**
+     * @return true if the given buffer contains an empty line, which ends the next event
+     */
+    private static boolean hasCompleteEvent(final Buffer BUFFER) {
+        long lineStart = 0;
+        for (long lineEnd = BUFFER.indexOf((byte) '\n') ; lineEnd >= 0 ; lineEnd = BUFFER.indexOf((byte) '\n', lineStart)) {
+            final long LENGTH = lineEnd - lineStart;
+            if (LENGTH == 0 || (LENGTH == 1 && BUFFER.getByte(lineStart) == '\r')) return true;
+            lineStart = lineEnd + 1;
+        }
+        return false;
+    }
+
+    private static boolean isEventStream(final Response RESPONSE) {
+        MediaType contentType = RESPONSE.body().contentType();
+        return null != contentType && EVENT_STREAM.equals(contentType.type() + "/" + contentType.subtype());
+    }
+}
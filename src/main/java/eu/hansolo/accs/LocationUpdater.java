@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.accs;
+
+import javafx.application.Platform;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+
+/**
+ * Staged update pipeline that keeps the blocking RestClient calls off the
+ * FX application thread.
+ * The payload is streamed and decoded into Location objects on an io thread,
+ * post-processed on a parse thread and only the finished, unmodifiable
+ * snapshot is handed over to the FX application thread. While an update is in flight further requests
+ * are dropped, so a slow backend never piles up fetches.
+ * If the backend reports no change (304, empty delta) on another day than
+ * the last snapshot was prepared, the last snapshot is prepared again, so
+ * persons become stale after midnight without a change of the backend.
+ */
+public class LocationUpdater {
+    private final Consumer<List<Location>> consumer;
+    private final ExecutorService          fetchExecutor;
+    private final ExecutorService          parseExecutor;
+    private final AtomicBoolean            busy;
+    private final AtomicLong               generation;
+    private volatile CompletableFuture<?>  pending;
+    private List<Location>                 lastSnapshot; // only used on the parse thread
+    private LocalDate                      lastDate;
+
+
+    // ******************** Constructors **************************************
+    public LocationUpdater(final Consumer<List<Location>> CONSUMER) {
+        consumer      = CONSUMER;
+        fetchExecutor = Executors.newSingleThreadExecutor(getThreadFactory("FetchTask"));
+        parseExecutor = Executors.newSingleThreadExecutor(getThreadFactory("ParseTask"));
+        busy          = new AtomicBoolean(false);
+        generation    = new AtomicLong(0);
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Triggers an update if no other update is in flight.
+     * Can be called from any thread.
+     * @return true if a new update was started, false if it was coalesced into a running one
+     */
+    public boolean update() {
+        if (!busy.compareAndSet(false, true)) return false;
+        final long GENERATION = generation.get();
+        CompletableFuture<Void> future = CompletableFuture.supplyAsync(() -> RestClient.INSTANCE.fetchLocationUpdate(), fetchExecutor)
+                                                          .thenApplyAsync(update -> prepareUpdate(update, LocalDate.now()), parseExecutor)
+                                                          .thenAccept(snapshot -> snapshot.ifPresent(locations -> handOver(locations, GENERATION)));
+        pending = future;
+        future.whenComplete((result, throwable) -> busy.set(false));
+        return true;
+    }
+
+    /**
+     * Cancels the update that is currently in flight, a snapshot that is
+     * already on its way will not be handed over to the consumer anymore.
+     */
+    public void cancel() {
+        generation.incrementAndGet();
+        CompletableFuture<?> future = pending;
+        if (null != future) { future.cancel(true); }
+        RestClient.INSTANCE.cancel();
+    }
+
+    public void shutdown() {
+        cancel();
+        fetchExecutor.shutdownNow();
+        parseExecutor.shutdownNow();
+    }
+
+    /**
+     * Prepares the given update or, if nothing changed but the day did,
+     * the last prepared snapshot again
+     * @return the snapshot to hand over or an empty optional if nothing changed
+     */
+    Optional<List<Location>> prepareUpdate(final Optional<List<Location>> UPDATE, final LocalDate TODAY) {
+        if (UPDATE.isPresent()) {
+            lastSnapshot = prepare(UPDATE.get(), TODAY);
+        } else if (null != lastSnapshot && !TODAY.equals(lastDate)) {
+            lastSnapshot = prepare(new ArrayList<>(lastSnapshot), TODAY);
+        } else {
+            return Optional.empty();
+        }
+        lastDate = TODAY;
+        return Optional.of(lastSnapshot);
+    }
+
+    static List<Location> prepare(final List<Location> LOCATIONS) { return prepare(LOCATIONS, LocalDate.now()); }
+    /**
+     * Decides once per snapshot which locations are up to date. Locations
+     * whose state changes are replaced by a copy, because in incremental mode
+     * the instances may already be shown on the FX application thread.
+     */
+    static List<Location> prepare(final List<Location> LOCATIONS, final LocalDate TODAY) {
+        final ZoneId    ZONE_ID = ZoneId.systemDefault();
+        for (int i = 0 ; i < LOCATIONS.size() ; i++) {
+            Location  location   = LOCATIONS.get(i);
+            LocalDate date       = location.timestamp.atZone(ZONE_ID).toLocalDate();
+            boolean   isUpToDate = date.getYear() == TODAY.getYear() && date.getDayOfYear() >= TODAY.getDayOfYear();
+            if (location.isUpToDate != isUpToDate) {
+                Location copy = new Location(location.latitude, location.longitude, location.altitude, location.timestamp, location.name, location.info);
+                copy.isUpToDate = isUpToDate;
+                LOCATIONS.set(i, copy);
+            }
+        }
+        return Collections.unmodifiableList(LOCATIONS);
+    }
+
+
+
+    // ******************** Private Methods ***********************************
+    private void handOver(final List<Location> SNAPSHOT, final long GENERATION) {
+        if (GENERATION != generation.get()) return;
+        Platform.runLater(() -> {
+            if (GENERATION != generation.get()) return;
+            consumer.accept(SNAPSHOT);
+        });
+    }
+
+    private static ThreadFactory getThreadFactory(final String THREAD_NAME) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+
+/**
+ * Reference implementation of the /locations endpoint for a
+ * com.sun.net.httpserver.HttpServer, e.g. to run the client against a
+ * local stand-in of the backend.
+ * It answers with the LocationCodec format if the Accept header asks for
+ * it and with the json of the backend otherwise, supports ?since=epochSecond
+ * and conditional requests with If-None-Match.
+ * The since filter includes the given second, so updates that arrive in the
+ * same second after a poll are not lost, clients have to expect repeated
+ * locations in a delta.
+ */
+public class LocationsHandler implements HttpHandler {
+    private final Supplier<Collection<Location>> supplier;
+
+
+    // ******************** Constructors **************************************
+    public LocationsHandler(final Supplier<Collection<Location>> SUPPLIER) {
+        supplier = SUPPLIER;
+    }
+
+
+    // ******************** Methods *******************************************
+    @Override public void handle(final HttpExchange EXCHANGE) throws IOException {
+        try {
+            if (!"GET".equals(EXCHANGE.getRequestMethod())) {
+                EXCHANGE.sendResponseHeaders(405, -1);
+                return;
+            }
+            Collection<Location> locations = supplier.get();
+            final long           SINCE     = getSince(EXCHANGE.getRequestURI().getRawQuery());
+            if (SINCE > 0) {
+                List<Location> changed = new ArrayList<>();
+                for (Location location : locations) {
+                    if (location.timestamp.getEpochSecond() >= SINCE) { changed.add(location); }
+                }
+                locations = changed;
+            }
+            final boolean BINARY  = acceptsBinary(EXCHANGE.getRequestHeaders().getFirst("Accept"));
+            final byte[]  PAYLOAD = BINARY ? LocationCodec.encode(locations) : toJSON(locations).getBytes(StandardCharsets.UTF_8);
+            final String  ETAG    = "\"" + (BINARY ? "b" : "j") + Integer.toHexString(Arrays.hashCode(PAYLOAD)) + "-" + PAYLOAD.length + "\"";
+            EXCHANGE.getResponseHeaders().set("Vary", "Accept");
+            EXCHANGE.getResponseHeaders().set("ETag", ETAG);
+            if (ETAG.equals(EXCHANGE.getRequestHeaders().getFirst("If-None-Match"))) {
+                EXCHANGE.sendResponseHeaders(304, -1);
+                return;
+            }
+            EXCHANGE.getResponseHeaders().set("Content-Type", BINARY ? LocationCodec.MEDIA_TYPE : "application/json; charset=utf-8");
+            EXCHANGE.sendResponseHeaders(200, PAYLOAD.length);
+            try (OutputStream output = EXCHANGE.getResponseBody()) { output.write(PAYLOAD); }
+        } finally {
+            EXCHANGE.close();
+        }
+    }
+
+    /**
+     * @return the json array in the format of the backend (numbers as strings)
+     */
+    public static String toJSON(final Collection<Location> LOCATIONS) {
+        JSONArray array = new JSONArray();
+        for (Location location : LOCATIONS) {
+            JSONObject json = new JSONObject();
+            json.put("name", location.name);
+            json.put("timestamp", Long.toString(location.timestamp.getEpochSecond()));
+            json.put("latitude", String.format(Locale.US, "%.7f", location.latitude));
+            json.put("longitude", String.format(Locale.US, "%.7f", location.longitude));
+            json.put("altitude", String.format(Locale.US, "%.2f", location.altitude));
+            json.put("info", location.info);
+            array.add(json);
+        }
+        return array.toJSONString();
+    }
+
+
+    // ******************** Private Methods ***********************************
+    private static boolean acceptsBinary(final String ACCEPT) {
+        if (null == ACCEPT) return false;
+        for (String range : ACCEPT.split(",")) {
+            String[] parts = range.trim().split(";");
+            if (!LocationCodec.MEDIA_TYPE.equalsIgnoreCase(parts[0].trim())) continue;
+            for (int i = 1 ; i < parts.length ; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static long getSince(final String QUERY) {
+        if (null == QUERY) return 0;
+        for (String parameter : QUERY.split("&")) {
+            if (!parameter.startsWith("since=")) continue;
+            try {
+                return Long.parseLong(parameter.substring(6));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+}
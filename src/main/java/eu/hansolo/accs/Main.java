@@ -16,46 +16,59 @@
 
 package eu.hansolo.accs;
 
+import eu.hansolo.accs.LocationSearch.State;
+import eu.hansolo.accs.Metrics.Metric;
 import eu.hansolo.accs.font.Fonts;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
-import javafx.concurrent.Worker;
+import javafx.collections.transformation.FilteredList;
 import javafx.geometry.Dimension2D;
-import javafx.geometry.Pos;
 import javafx.scene.Scene;
-import javafx.scene.control.ContentDisplay;
-import javafx.scene.control.Label;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.AnchorPane;
-import javafx.scene.layout.HBox;
-import javafx.scene.layout.Priority;
 import javafx.scene.layout.Region;
-import javafx.scene.layout.VBox;
+import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
-import javafx.scene.shape.Circle;
 import javafx.scene.text.Text;
-import javafx.scene.web.WebEngine;
-import javafx.scene.web.WebView;
 import javafx.stage.Stage;
 import javafx.util.Callback;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
+import okhttp3.OkHttpClient;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
 
-import java.net.URL;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 /**
@@ -64,19 +77,49 @@ import java.util.concurrent.TimeUnit;
  * Time: 13:03
  */
 public class Main extends Application {
-    private static final String               OPEN_STREET_MAP = "osm.html";
+    private static final int                  INITIAL_ZOOM    = 15;
     private static final Dimension2D          SIZE            = new Dimension2D(800, 600);
     private static final DateTimeFormatter    DTF             = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm");
-    private static final DateTimeFormatter    TF              = DateTimeFormatter.ofPattern("HH:mm:ss");
     private static final DecimalFormat        DF              = new DecimalFormat("");
     private static final DecimalFormatSymbols DFS             = new DecimalFormatSymbols(Locale.US);
+    private static final long                 UPDATE_INTERVAL = 30; // s
+    private static final State[]              STATES          = { State.ALL, State.UP_TO_DATE, State.STALE };
+    private static final String[]             STATE_NAMES     = { "All", "Up to date", "Stale" };
+    private static final double[]             DISTANCES       = { 0, 1_000, 5_000, 25_000 }; // m from the center of the map
+    private static final String[]             DISTANCE_NAMES  = { "Any distance", "< 1 km", "< 5 km", "< 25 km" };
+    private static final Logger               LOGGER          = Logger.getLogger(Main.class.getName());
     private volatile ScheduledFuture<?>       updateTask;
     private static   ScheduledExecutorService periodicUpdateExecutorService;
     private static   boolean                  readyToGo = false;
+    private          LocationUpdater          locationUpdater;
+    private          LocationReconciler       reconciler;
+    private          LocationIndex            locationIndex;
+    private          LocationSearch           search;
+    private          MarkerLayer              markerLayer;
+    private          TrackLayer               trackLayer;
+    private          MapConnector             mapConnector;
+    private          LocationHistory          history;
+    private          ExecutorService          historyExecutor;
+    private          Map<String, TileCache>   tileCaches;
+    private          TileServer               tileServer;
+    private          MapRenderer              mapRenderer;
+    private          LocationStream           locationStream;
+    private          MetricsOverlay           metricsOverlay;
+    private          MovementTracker          movementTracker;
+    private          GeofenceEngine           geofenceEngine;
+    private          LocationSnapshot         snapshot;
+    private          long                     launchTime;
+    private          Set<String>              changedFences;
     private          ObservableList<Location> locationList;
+    private          FilteredList<Location>   filteredList;
     private          ListView<Location>       listView;
-    private          WebView                  webView;
-    private          WebEngine                webEngine;
+    private          TextField                searchField;
+    private          ChoiceBox<String>        stateFilter;
+    private          ChoiceBox<String>        distanceFilter;
+    private          double                   mapCenterLatitude;
+    private          double                   mapCenterLongitude;
+    private          boolean                  restoringSelection;
+    private          StackPane                mapPane;
     private          Region                   header;
     private          Text                     title;
     private          Region                   locationPanel;
@@ -85,11 +128,42 @@ public class Main extends Application {
 
     // ******************** Initialization ************************************
     @Override public void init() {
+        if (Boolean.parseBoolean(System.getenv("METRICS"))) { Metrics.INSTANCE.setEnabled(true); }
+        Metrics.INSTANCE.register();
+        launchTime = Metrics.INSTANCE.start();
+
         DFS.setDecimalSeparator('.');
         DFS.setGroupingSeparator(' ');
         DF.setDecimalFormatSymbols(DFS);
 
-        locationList = FXCollections.observableArrayList();
+        locationList    = FXCollections.observableArrayList();
+        reconciler      = new LocationReconciler();
+        movementTracker = new MovementTracker();
+        geofenceEngine  = new GeofenceEngine();
+        changedFences   = new LinkedHashSet<>();
+        geofenceEngine.addFences(readFences());
+        geofenceEngine.addListener(event -> changedFences.add(event.fence.id));
+        locationIndex   = new LocationIndex();
+        search          = new LocationSearch(locationIndex);
+        markerLayer     = new MarkerLayer(INITIAL_ZOOM);
+        trackLayer      = openTrackLayer();
+        mapConnector    = new MapConnector(this::onViewChanged);
+        locationUpdater = new LocationUpdater(this::updateLocations);
+        history         = openHistory();
+        historyExecutor = Executors.newSingleThreadExecutor(getThreadFactory("HistoryTask", false));
+        tileCaches      = openTileCaches();
+        tileServer      = isCanvasRenderer() ? null : openTileServer(tileCaches);
+        snapshot        = openSnapshot();
+        if (RestClient.INSTANCE.isStreaming()) {
+            locationStream = new LocationStream(new LocationStream.Listener() {
+                @Override public void onEvents(final List<Location> UPDATED, final List<String> REMOVED) {
+                    applyDiff(reconciler.apply(UPDATED, REMOVED));
+                }
+                @Override public void onConnectionChanged(final boolean CONNECTED) { onStreamConnectionChanged(CONNECTED); }
+            });
+        }
+
+        restoreSnapshot();
 
         initGraphics();
 
@@ -135,114 +209,456 @@ public class Main extends Application {
         AnchorPane.setRightAnchor(locationPanelTitle, 213d);
 
 
+        // Search
+        searchField = new TextField();
+        searchField.setPromptText("Search name or info");
+        searchField.setPrefWidth(250);
+        searchField.getStyleClass().add("search-field");
+
+        AnchorPane.setTopAnchor(searchField, header.getPrefHeight() + 45d);
+        AnchorPane.setRightAnchor(searchField, 10d);
+
+
         // LocationList
-        listView = new ListView<>(locationList);
+        filteredList = new FilteredList<>(locationList);
+        listView = new ListView<>(filteredList);
         listView.setPrefWidth(270);
         listView.setCellFactory(new Callback<ListView<Location>, ListCell<Location>>(){
-            @Override public ListCell<Location> call(ListView<Location> p) {
-                ListCell<Location> cell = new ListCell<Location>() {
-                    @Override protected void updateItem(final Location LOCATION, final boolean IS_EMPTY) {
-                        super.updateItem(LOCATION, IS_EMPTY);
-                        if (LOCATION != null) {
-                            String        dateTime;
-                            Circle        circle        = new Circle(5);
-                            LocalDateTime localDateTime = LocalDateTime.ofInstant(LOCATION.timestamp, ZoneId.systemDefault());
-                            if (localDateTime.getDayOfYear() < LocalDateTime.now().getDayOfYear()) {
-                                dateTime = DTF.format(localDateTime);
-                                circle.getStyleClass().add("old-marker");
-                                LOCATION.isUpToDate = false;
-                            } else {
-                                dateTime = TF.format(localDateTime);
-                                circle.getStyleClass().add("active-marker");
-                                LOCATION.isUpToDate = true;
-                            }
-                            String locationDateTime = LOCATION.info.isEmpty() ? dateTime : LOCATION.info + " - " + dateTime;
-
-                            Label text = new Label(LOCATION.name);
-                            text.setAlignment(Pos.CENTER_LEFT);
-                            text.setMaxWidth(Double.MAX_VALUE);
-                            text.getStyleClass().add("location-info");
-                            HBox.setHgrow(text, Priority.ALWAYS);
-                            HBox hbox = new HBox(5, circle, text);
-                            hbox.setAlignment(Pos.CENTER);
-                            Label lastUpdate = new Label(locationDateTime);
-                            lastUpdate.setAlignment(Pos.CENTER_LEFT);
-                            lastUpdate.getStyleClass().add("last-update");
-
-                            VBox vBox = new VBox(hbox, lastUpdate);
-                            setGraphic(vBox);
-                            setContentDisplay(ContentDisplay.GRAPHIC_ONLY);
-                        }
-                    }
-                };
-                return cell;
-            }
+            @Override public ListCell<Location> call(ListView<Location> p) { return new LocationCell(movementTracker); }
         });
 
-        AnchorPane.setTopAnchor(listView, header.getPrefHeight() + 50d);
+        AnchorPane.setTopAnchor(listView, header.getPrefHeight() + 80d);
         AnchorPane.setRightAnchor(listView, 0d);
         AnchorPane.setBottomAnchor(listView, 90d);
+
+
+        // Filters
+        stateFilter = new ChoiceBox<>(FXCollections.observableArrayList(STATE_NAMES));
+        stateFilter.getSelectionModel().select(0);
+        stateFilter.setPrefWidth(120);
+
+        AnchorPane.setRightAnchor(stateFilter, 140d);
+        AnchorPane.setBottomAnchor(stateFilter, 50d);
+
+        distanceFilter = new ChoiceBox<>(FXCollections.observableArrayList(DISTANCE_NAMES));
+        distanceFilter.getSelectionModel().select(0);
+        distanceFilter.setPrefWidth(120);
+
+        AnchorPane.setRightAnchor(distanceFilter, 10d);
+        AnchorPane.setBottomAnchor(distanceFilter, 50d);
+
+
+        // Metrics (F3 toggles the overlay and the recording)
+        metricsOverlay = new MetricsOverlay();
+        metricsOverlay.setVisible(Metrics.INSTANCE.isEnabled());
+
+        AnchorPane.setLeftAnchor(metricsOverlay, 10d);
+        AnchorPane.setBottomAnchor(metricsOverlay, 10d);
     }
 
     private void registerListeners() {
+        searchField.textProperty().addListener(o -> applySearch());
+        searchField.setOnKeyPressed(e -> { if (KeyCode.ESCAPE == e.getCode()) { searchField.clear(); } });
+        stateFilter.getSelectionModel().selectedIndexProperty().addListener(o -> applySearch());
+        distanceFilter.getSelectionModel().selectedIndexProperty().addListener(o -> applySearch());
         listView.getSelectionModel().selectedItemProperty().addListener((o, ov, nv) -> {
-            if (null == nv) return;
+            if (null == nv || restoringSelection) return;
             // Move map to selected location
             if (readyToGo) {
-                StringBuilder scriptCommand = new StringBuilder();
-                Platform.runLater(() -> {
-                    scriptCommand.append("window.userName = \"").append(nv.name).append("\";")
-                                 .append("document.panToMarker(window.userName);");
-                    webEngine.executeScript(scriptCommand.toString());
-                });
+                // Pan to the coordinates because the person might be part of a cluster
+                Platform.runLater(() -> mapRenderer.panTo(nv.latitude, nv.longitude));
             }
         });
     }
 
+    /**
+     * The first fetch runs while the stage is built and osm.html is loaded
+     */
     private void initTasks() {
+        locationUpdater.update();
         scheduleUpdateTask();
+        if (null != locationStream) { locationStream.start(); }
     }
 
     private void initOnFxApplicationThread() {
-        webView = new WebView();
-        webView.setPrefSize(530, 400);
-        webView.setMinSize(530, 400);
-        AnchorPane.setTopAnchor(webView, header.getPrefHeight());
-        AnchorPane.setBottomAnchor(webView, 0d);
-        webEngine = webView.getEngine();
-        webEngine.getLoadWorker().stateProperty().addListener((ov, o, n) -> {
-            if (Worker.State.SUCCEEDED == n) {
-                readyToGo = true;
-                updateLocations();
-            }
+        if (isCanvasRenderer()) {
+            mapRenderer = new CanvasMapRenderer(this::onViewChanged, INITIAL_ZOOM).addLayer("Hydda", tileCaches.get("hydda"))
+                                                                               .addLayer("World Imagery", tileCaches.get("imagery"));
+        } else {
+            mapRenderer = new WebMapRenderer(mapConnector, tileServer);
+        }
+        mapPane = new StackPane(mapRenderer.getNode());
+        mapPane.setPrefSize(530, 400);
+        mapPane.setMinSize(530, 400);
+        AnchorPane.setTopAnchor(mapPane, header.getPrefHeight());
+        AnchorPane.setBottomAnchor(mapPane, 0d);
+        mapRenderer.load(() -> {
+            showFences();
+            readyToGo = true;
+            updateAllMarkers();
+            updateAllTracks();
         });
-        URL maps = Main.class.getResource(OPEN_STREET_MAP);
-        webEngine.load(maps.toExternalForm());
     }
 
 
     // ******************** Methods *******************************************
-    private void updateLocations() {
-        locationList.clear();
-        JSONArray locationArray = RestClient.INSTANCE.getLocations();
-        for (Object obj : locationArray) {
-            Location location = new Location(((JSONObject) obj));
-            LocalDateTime localDateTime = LocalDateTime.ofInstant(location.timestamp, ZoneId.systemDefault());
-            location.isUpToDate = (localDateTime.getDayOfYear() < LocalDateTime.now().getDayOfYear() || localDateTime.getYear() != LocalDateTime.now().getYear()) ? false : true;
-            locationList.add(location);
-            if (readyToGo) {
-                StringBuilder scriptCommand = new StringBuilder();
-                Platform.runLater(() -> {
-                    scriptCommand.append("window.lat = ").append(location.latitude).append(";")
-                                 .append("window.lon = ").append(location.longitude).append(";")
-                                 .append("window.userName = \"").append(location.name).append("\";")
-                                 .append("window.userInfo = \"").append(getLocationInfo(location)).append("\";")
-                                 .append("window.upToDate = \"").append(location.isUpToDate).append("\";")
-                                 .append("document.moveMarker(window.userName, window.userInfo, window.upToDate, window.lat, window.lon);");
-                    webEngine.executeScript(scriptCommand.toString());
-                });
+    private void updateLocations(final List<Location> LOCATIONS) {
+        applyDiff(reconciler.reconcile(LOCATIONS));
+    }
+
+    private void applyDiff(final LocationReconciler.Diff DIFF) {
+        if (DIFF.isEmpty()) return;
+        final long START = Metrics.INSTANCE.start();
+
+        updateMovement(DIFF);
+        updateLocationIndex(DIFF);
+        updateSearch(DIFF);
+        final long LIST_START = Metrics.INSTANCE.start();
+        updateLocationList(DIFF);
+        Metrics.INSTANCE.stop(Metric.LIST_UPDATE, LIST_START);
+        updateMarkerLayer(DIFF);
+        updateTrackLayer(DIFF);
+        updateHistory(DIFF);
+        updateGeofences(DIFF);
+
+        if (readyToGo) {
+            syncMarkers();
+            syncTracks();
+            syncFences();
+        }
+        Metrics.INSTANCE.stop(Metric.UPDATE, START);
+    }
+
+    /**
+     * Polling only runs while the stream is disconnected. After the stream
+     * has been (re)opened one poll brings the state up to date in case the
+     * backend could not resume after the last event.
+     */
+    private void onStreamConnectionChanged(final boolean CONNECTED) {
+        if (CONNECTED) {
+            stopTask(updateTask);
+            locationUpdater.update();
+        } else {
+            scheduleUpdateTask();
+        }
+    }
+
+    /**
+     * Applies the diff with one structural change of the list, so the
+     * FilteredList and the ListView handle one change event per update
+     * instead of one per person. Because setAll() clears the selection of
+     * the ListView, the selected person is selected again without panning
+     * the map.
+     */
+    private void updateLocationList(final LocationReconciler.Diff DIFF) {
+        if (DIFF.changed.isEmpty() && DIFF.removed.isEmpty()) {
+            locationList.addAll(DIFF.added);
+            return;
+        }
+        Map<String, Location> changed = new HashMap<>(DIFF.changed.size() * 4 / 3 + 1);
+        Set<String>           removed = new HashSet<>(DIFF.removed.size() * 4 / 3 + 1);
+        for (Location location : DIFF.changed) { changed.put(location.name, location); }
+        for (Location location : DIFF.removed) { removed.add(location.name); }
+
+        List<Location> next = new ArrayList<>(locationList.size() - DIFF.removed.size() + DIFF.added.size());
+        for (Location location : locationList) {
+            if (removed.contains(location.name)) continue;
+            next.add(changed.getOrDefault(location.name, location));
+        }
+        next.addAll(DIFF.added);
+
+        final Location SELECTED = null == listView ? null : listView.getSelectionModel().getSelectedItem();
+        locationList.setAll(next);
+        if (null == SELECTED || removed.contains(SELECTED.name)) return;
+        restoringSelection = true;
+        try {
+            listView.getSelectionModel().select(changed.getOrDefault(SELECTED.name, SELECTED));
+        } finally {
+            restoringSelection = false;
+        }
+    }
+
+    private void updateMovement(final LocationReconciler.Diff DIFF) {
+        for (Location location : DIFF.removed) { movementTracker.remove(location.name); }
+        for (Location location : DIFF.added)   { movementTracker.update(location); }
+        for (Location location : DIFF.changed) { movementTracker.update(location); }
+    }
+
+    private void updateGeofences(final LocationReconciler.Diff DIFF) {
+        for (Location location : DIFF.removed) { geofenceEngine.remove(location.name); }
+        for (Location location : DIFF.added)   { geofenceEngine.update(location); }
+        for (Location location : DIFF.changed) { geofenceEngine.update(location); }
+    }
+
+    private void showFences() {
+        if (geofenceEngine.getFences().isEmpty()) return;
+        for (Geofence fence : geofenceEngine.getFences()) { changedFences.add(fence.id); }
+        mapRenderer.setFences(geofenceEngine.getFences());
+        syncFences();
+    }
+
+    private void syncFences() {
+        if (changedFences.isEmpty()) return;
+        Map<String, Integer> occupancy = new LinkedHashMap<>();
+        for (String id : changedFences) { occupancy.put(id, geofenceEngine.getOccupancy(id)); }
+        changedFences.clear();
+        mapRenderer.applyFenceUpdates(occupancy);
+    }
+
+    /**
+     * FENCES points to a json file with the geofences (see Geofence.fromJSON())
+     */
+    private static List<Geofence> readFences() {
+        String fencesFile = System.getenv("FENCES");
+        if (null == fencesFile) return new ArrayList<>();
+        try (Reader reader = new FileReader(fencesFile)) {
+            return GeofenceEngine.readFences(reader);
+        } catch (IOException e) {
+            reportError("Error reading geofences", e);
+            return new ArrayList<>();
+        }
+    }
+
+    private void updateLocationIndex(final LocationReconciler.Diff DIFF) {
+        for (Location location : DIFF.removed) { locationIndex.remove(location.name); }
+        for (Location location : DIFF.added)   { locationIndex.put(location); }
+        for (Location location : DIFF.changed) { locationIndex.put(location); }
+    }
+
+    /**
+     * Runs before the list is updated, so the FilteredList sees the new matches
+     */
+    private void updateSearch(final LocationReconciler.Diff DIFF) {
+        for (Location location : DIFF.removed) { search.remove(location.name); }
+        for (Location location : DIFF.added)   { search.put(location); }
+        for (Location location : DIFF.changed) { search.put(location); }
+    }
+
+    /**
+     * Hands the search text and the filters over to the LocationSearch and
+     * filters the list with the resulting matches
+     */
+    private void applySearch() {
+        final long START = Metrics.INSTANCE.start();
+        final int  STATE = Math.max(0, stateFilter.getSelectionModel().getSelectedIndex());
+        final int  RANGE = Math.max(0, distanceFilter.getSelectionModel().getSelectedIndex());
+        boolean changed = search.setQuery(searchField.getText());
+        changed |= search.setState(STATES[STATE]);
+        changed |= search.setDistance(mapCenterLatitude, mapCenterLongitude, DISTANCES[RANGE]);
+        if (changed) { filteredList.setPredicate(search.isFiltering() ? location -> search.matches(location.name) : null); }
+        Metrics.INSTANCE.stop(Metric.SEARCH, START);
+    }
+
+    private void updateMarkerLayer(final LocationReconciler.Diff DIFF) {
+        for (Location location : DIFF.removed) { markerLayer.remove(location.name); }
+        for (Location location : DIFF.added)   { markerLayer.put(location); }
+        for (Location location : DIFF.changed) { markerLayer.put(location); }
+    }
+
+    /**
+     * The trail of a person that shows up is filled from the history if there is one
+     */
+    private void updateTrackLayer(final LocationReconciler.Diff DIFF) {
+        if (null == trackLayer) return;
+        List<Location> newTracks = new ArrayList<>();
+        for (Location location : DIFF.removed) { trackLayer.remove(location.name); }
+        for (Location location : DIFF.added) {
+            if (!trackLayer.contains(location.name)) { newTracks.add(location); }
+            trackLayer.put(location);
+        }
+        for (Location location : DIFF.changed) { trackLayer.put(location); }
+        if (null != history && !newTracks.isEmpty()) { loadTracks(newTracks); }
+    }
+
+    /**
+     * Reads the trails of the given persons from the history on the history
+     * executor and puts them in front of the trails on the FX application thread
+     */
+    private void loadTracks(final List<Location> LOCATIONS) {
+        final long MAX_AGE = trackLayer.getMaxAge();
+        historyExecutor.execute(() -> {
+            Map<String, List<Location>> tracks = new HashMap<>(LOCATIONS.size() * 4 / 3 + 1);
+            try {
+                for (Location location : LOCATIONS) {
+                    tracks.put(location.name, history.getTrack(location.name, location.timestamp.minusSeconds(MAX_AGE), location.timestamp));
+                }
+            } catch (IOException e) {
+                reportError("Error reading location history", e);
             }
+            Platform.runLater(() -> {
+                for (Map.Entry<String, List<Location>> entry : tracks.entrySet()) { trackLayer.putHistory(entry.getKey(), entry.getValue()); }
+                if (readyToGo) { syncTracks(); }
+            });
+        });
+    }
+
+    /**
+     * The positions are appended on the history executor, the FX application thread never waits for the disk
+     */
+    private void updateHistory(final LocationReconciler.Diff DIFF) {
+        if (null == history) return;
+        final List<Location> LOCATIONS = new ArrayList<>(DIFF.added.size() + DIFF.changed.size());
+        LOCATIONS.addAll(DIFF.added);
+        LOCATIONS.addAll(DIFF.changed);
+        historyExecutor.execute(() -> {
+            try {
+                for (Location location : LOCATIONS) { history.append(location); }
+            } catch (IOException e) {
+                reportError("Error writing location history", e);
+            }
+        });
+    }
+
+    /**
+     * Shows the persons of the last session until the first response of the backend arrives
+     */
+    private void restoreSnapshot() {
+        if (null == snapshot) return;
+        List<Location> locations;
+        try {
+            locations = snapshot.load();
+        } catch (IOException e) {
+            reportError("Error reading location snapshot", e);
+            return;
         }
+        if (locations.isEmpty()) return;
+        updateLocations(LocationUpdater.prepare(locations));
+    }
+
+    private void saveSnapshot() {
+        if (null == snapshot || reconciler.size() == 0) return;
+        try {
+            snapshot.save(reconciler.getLocations());
+        } catch (IOException e) {
+            reportError("Error writing location snapshot", e);
+        }
+    }
+
+    /**
+     * SNAPSHOT_FILE overrides the file of the last known locations,
+     * SNAPSHOT=false disables it
+     */
+    private static LocationSnapshot openSnapshot() {
+        if ("false".equalsIgnoreCase(System.getenv("SNAPSHOT"))) return null;
+        String snapshotFile = System.getenv("SNAPSHOT_FILE");
+        return new LocationSnapshot(null == snapshotFile ? new File(System.getProperty("user.home"), ".accs" + File.separator + "snapshot.dat") : new File(snapshotFile));
+    }
+
+    /**
+     * TRACK_MINUTES sets the length of the trails (default 30),
+     * TRACKS=false hides them
+     */
+    private static TrackLayer openTrackLayer() {
+        if ("false".equalsIgnoreCase(System.getenv("TRACKS"))) return null;
+        long minutes = 30;
+        String trackMinutes = System.getenv("TRACK_MINUTES");
+        if (null != trackMinutes) {
+            try {
+                minutes = Long.parseLong(trackMinutes);
+            } catch (NumberFormatException e) {
+                reportError("Invalid value for TRACK_MINUTES: " + trackMinutes + ", using " + minutes, e);
+            }
+        }
+        return new TrackLayer(TimeUnit.MINUTES.toSeconds(minutes), INITIAL_ZOOM);
+    }
+
+    private static LocationHistory openHistory() {
+        String historyDir = System.getenv("HISTORY_DIR");
+        if (null == historyDir) return null;
+        try {
+            return new LocationHistory(new File(historyDir));
+        } catch (IOException e) {
+            reportError("Error opening location history", e);
+            return null;
+        }
+    }
+
+    /**
+     * Creates the tile caches of both layers, TILE_SOURCE=local renders
+     * stand-in tiles instead of loading them from the providers,
+     * TILE_CACHE_DIR overrides the directory of the disk cache.
+     */
+    private static Map<String, TileCache> openTileCaches() {
+        String                 cacheDir = System.getenv("TILE_CACHE_DIR");
+        File                   tileDir  = null == cacheDir ? new File(System.getProperty("user.home"), ".accs" + File.separator + "tiles") : new File(cacheDir);
+        Map<String, TileCache> caches   = new LinkedHashMap<>();
+        if ("local".equalsIgnoreCase(System.getenv("TILE_SOURCE"))) {
+            TileSource local = new LocalTileSource();
+            caches.put("hydda", new TileCache(local, null));
+            caches.put("imagery", new TileCache(local, null));
+        } else {
+            OkHttpClient client = new OkHttpClient();
+            caches.put("hydda", new TileCache(new HttpTileSource(client, "http://{s}.tile.openstreetmap.se/hydda/full/{z}/{x}/{y}.png"), new File(tileDir, "hydda")));
+            caches.put("imagery", new TileCache(new HttpTileSource(client, "http://server.arcgisonline.com/ArcGIS/rest/services/World_Imagery/MapServer/tile/{z}/{y}/{x}", ""), new File(tileDir, "imagery")));
+        }
+        return caches;
+    }
+
+    /**
+     * Starts the local tile server that serves the tile caches to osm.html
+     */
+    private static TileServer openTileServer(final Map<String, TileCache> CACHES) {
+        TileServer server = new TileServer();
+        for (Map.Entry<String, TileCache> entry : CACHES.entrySet()) { server.addLayer(entry.getKey(), entry.getValue()); }
+        try {
+            server.start();
+            return server;
+        } catch (IOException e) {
+            reportError("Error starting tile server", e);
+            return null;
+        }
+    }
+
+    /**
+     * All errors of the background tasks and of reading the configuration end up here
+     */
+    private static void reportError(final String MESSAGE, final Exception EXCEPTION) {
+        LOGGER.log(Level.WARNING, MESSAGE, EXCEPTION);
+    }
+
+    /**
+     * RENDERER=canvas draws the map on a Canvas instead of showing osm.html in a WebView
+     */
+    private static boolean isCanvasRenderer() { return "canvas".equalsIgnoreCase(System.getenv("RENDERER")); }
+
+    private void updateAllMarkers() {
+        mapRenderer.clearMarkers();
+        markerLayer.reset();
+        syncMarkers();
+    }
+
+    private void syncMarkers() {
+        MarkerBatch batch = new MarkerBatch();
+        markerLayer.sync(batch, this::getLocationInfo);
+        final boolean FIRST = launchTime != 0 && !batch.isEmpty();
+        batch.apply(mapRenderer);
+        if (FIRST) {
+            Metrics.INSTANCE.stop(Metric.FIRST_MARKER, launchTime);
+            launchTime = 0;
+        }
+    }
+
+    private void updateAllTracks() {
+        if (null == trackLayer) return;
+        mapRenderer.clearTracks();
+        trackLayer.reset();
+        syncTracks();
+    }
+
+    private void syncTracks() {
+        if (null == trackLayer) return;
+        TrackBatch batch = new TrackBatch();
+        trackLayer.sync(batch);
+        batch.apply(mapRenderer);
+    }
+
+    private void onViewChanged(final int ZOOM, final double SOUTH, final double WEST, final double NORTH, final double EAST) {
+        if (markerLayer.setView(ZOOM, SOUTH, WEST, NORTH, EAST) && readyToGo) { syncMarkers(); }
+        if (null != trackLayer && trackLayer.setView(ZOOM, SOUTH, WEST, NORTH, EAST) && readyToGo) { syncTracks(); }
+        mapCenterLatitude  = (SOUTH + NORTH) * 0.5;
+        // The bounds of a map that wraps may lie outside of [-180, 180]
+        mapCenterLongitude = ((WEST + EAST) * 0.5 + 540) % 360 - 180;
+        if (search.getDistance() > 0) { applySearch(); }
     }
 
     private String getLocationInfo(final Location LOCATION) {
@@ -250,6 +666,13 @@ public class Main extends Application {
         userInfo.append("<tr><td>Person  :</td><td>").append(LOCATION.name).append("</td></tr>")
                 .append("<tr><td>Location:</td><td>").append(LOCATION.info).append("</td></tr>")
                 .append("<tr><td>Time    :</td><td>").append(DTF.format(LocalDateTime.ofInstant(LOCATION.timestamp, ZoneId.systemDefault()))).append("</td></tr>");
+        if (movementTracker.hasMovement(LOCATION.name)) {
+            Location.CardinalDirection direction = movementTracker.getCardinalDirection(LOCATION.name);
+            userInfo.append("<tr><td>Speed   :</td><td>").append(String.format(Locale.US, "%.1f", movementTracker.getSpeed(LOCATION.name) * 3.6)).append(" km/h")
+                    .append(movementTracker.isMoving(LOCATION.name) ? "" : " (stationary)").append("</td></tr>")
+                    .append("<tr><td>Heading :</td><td>").append(null == direction ? "-" : direction.direction).append("</td></tr>")
+                    .append("<tr><td>Climb   :</td><td>").append(String.format(Locale.US, "%.2f", movementTracker.getAltitudeRate(LOCATION.name))).append(" m/s</td></tr>");
+        }
         userInfo.append("</table>");
         return userInfo.toString();
     }
@@ -264,9 +687,7 @@ public class Main extends Application {
     private synchronized void scheduleUpdateTask() {
         enableUpdateExecutorService();
         stopTask(updateTask);
-        updateTask = periodicUpdateExecutorService.scheduleAtFixedRate(() ->
-            Platform.runLater(() -> updateLocations())
-        , 60, 30, TimeUnit.SECONDS);
+        updateTask = periodicUpdateExecutorService.scheduleAtFixedRate(() -> locationUpdater.update(), UPDATE_INTERVAL, UPDATE_INTERVAL, TimeUnit.SECONDS);
     }
 
     private static ThreadFactory getThreadFactory(final String THREAD_NAME, final boolean IS_DAEMON) {
@@ -291,9 +712,14 @@ public class Main extends Application {
 
         AnchorPane pane = new AnchorPane();
         pane.getStyleClass().add("background");
-        pane.getChildren().addAll(header, title, webView, locationPanel, locationPanelTitle, listView);
+        pane.getChildren().addAll(header, title, mapPane, locationPanel, locationPanelTitle, searchField, listView, stateFilter, distanceFilter, metricsOverlay);
 
         Scene scene = new Scene(pane, SIZE.getWidth(), SIZE.getHeight());
+        scene.addEventFilter(KeyEvent.KEY_PRESSED, e -> {
+            if (KeyCode.F3 != e.getCode()) return;
+            Metrics.INSTANCE.setEnabled(!Metrics.INSTANCE.isEnabled());
+            metricsOverlay.setVisible(Metrics.INSTANCE.isEnabled());
+        });
         scene.getStylesheets().add(Main.class.getResource("styles.css").toExternalForm());
 
         STAGE.setTitle("ACCS Desktop");
@@ -305,6 +731,27 @@ public class Main extends Application {
     }
 
     @Override public void stop() {
+        stopTask(updateTask);
+        if (null != locationStream) { locationStream.stop(); }
+        locationUpdater.shutdown();
+        saveSnapshot();
+        mapRenderer.dispose();
+        if (null != tileServer) { tileServer.stop(); }
+        for (TileCache cache : tileCaches.values()) { cache.shutdown(); }
+        historyExecutor.shutdown();
+        if (null != history) {
+            try {
+                // Let the queued appends finish before the files are closed
+                historyExecutor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                history.close();
+            } catch (IOException e) {
+                reportError("Error closing location history", e);
+            }
+        }
         System.exit(0);
     }
 
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+/**
+ * Receives the upcalls from osm.html, it is registered as
+ * window.javaConnector once the page has been loaded.
+ * The methods are called on the FX application thread.
+ */
+public class MapConnector {
+    @FunctionalInterface public interface ViewListener {
+        void onViewChanged(int zoom, double south, double west, double north, double east);
+    }
+
+    private final ViewListener viewListener;
+
+
+    // ******************** Constructors **************************************
+    public MapConnector(final ViewListener VIEW_LISTENER) {
+        viewListener = VIEW_LISTENER;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Called by the moveend handler of the map, which also fires after zooming
+     * @param ZOOM  the current zoom level
+     * @param SOUTH southern bound of the visible area
+     * @param WEST  western bound of the visible area
+     * @param NORTH northern bound of the visible area
+     * @param EAST  eastern bound of the visible area
+     */
+    public void viewChanged(final double ZOOM, final double SOUTH, final double WEST, final double NORTH, final double EAST) {
+        viewListener.onViewChanged((int) ZOOM, SOUTH, WEST, NORTH, EAST);
+    }
+}
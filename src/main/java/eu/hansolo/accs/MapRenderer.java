@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import javafx.scene.Node;
+
+import java.util.Collection;
+import java.util.Map;
+
+
+/**
+ * The map of the application, either Leaflet in a WebView (WebMapRenderer)
+ * or drawn directly on a Canvas (CanvasMapRenderer).
+ * Changes of the visible area are reported with a MapConnector.ViewListener.
+ * All methods must be called on the FX application thread.
+ */
+public interface MapRenderer {
+    Node getNode();
+
+    /**
+     * Loads the map, onLoaded is called on the FX application thread as
+     * soon as markers can be added
+     */
+    void load(Runnable onLoaded);
+
+    void applyMarkerUpdates(MarkerBatch batch);
+
+    void clearMarkers();
+
+    void panTo(double latitude, double longitude);
+
+    void panToMarker(String name);
+
+    /**
+     * Replaces the shown geofences, all of them start with an occupancy of 0
+     */
+    void setFences(Collection<Geofence> fences);
+
+    /**
+     * @param occupancy number of persons per geofence id
+     */
+    void applyFenceUpdates(Map<String, Integer> occupancy);
+
+    /**
+     * Adds, replaces or removes track segments, see TrackLayer
+     */
+    void applyTrackUpdates(TrackBatch batch);
+
+    void clearTracks();
+
+    void dispose();
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.accs;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Collects marker updates and removals so that they can be sent to the map
+ * in one go, e.g. with one single call of document.applyMarkerUpdates() in
+ * osm.html instead of one executeScript() call per person.
+ */
+public class MarkerBatch {
+    public interface Visitor {
+        void marker(String name, String info, boolean upToDate, double latitude, double longitude);
+
+        void cluster(String id, int count, double latitude, double longitude);
+
+        void remove(String name);
+    }
+
+    private final List<Update> updates;
+
+
+    // ******************** Constructors **************************************
+    public MarkerBatch() {
+        updates = new ArrayList<>();
+    }
+
+
+    // ******************** Methods *******************************************
+    public MarkerBatch put(final Location LOCATION, final String INFO) {
+        updates.add(new Update(LOCATION.name, INFO, LOCATION.isUpToDate, LOCATION.latitude, LOCATION.longitude, 0, false));
+        return this;
+    }
+
+    public MarkerBatch putCluster(final String ID, final int COUNT, final double LATITUDE, final double LONGITUDE) {
+        updates.add(new Update(ID, null, false, LATITUDE, LONGITUDE, COUNT, false));
+        return this;
+    }
+
+    public MarkerBatch remove(final String NAME) {
+        updates.add(new Update(NAME, null, false, 0, 0, 0, true));
+        return this;
+    }
+
+    public boolean isEmpty() { return updates.isEmpty(); }
+
+    public int size() { return updates.size(); }
+
+    /**
+     * Hands all collected updates over to the given visitor in the order they were added
+     */
+    public void forEach(final Visitor VISITOR) {
+        for (Update update : updates) {
+            if (update.remove) {
+                VISITOR.remove(update.name);
+            } else if (update.count > 0) {
+                VISITOR.cluster(update.name, update.count, update.latitude, update.longitude);
+            } else {
+                VISITOR.marker(update.name, update.info, update.upToDate, update.latitude, update.longitude);
+            }
+        }
+    }
+
+    /**
+     * @return the updates as json array in the format of document.applyMarkerUpdates() in osm.html
+     */
+    public String toJSONString() {
+        JSONArray array = new JSONArray();
+        for (Update update : updates) {
+            JSONObject json = new JSONObject();
+            json.put("name", update.name);
+            if (update.remove) {
+                json.put("remove", Boolean.TRUE);
+            } else if (update.count > 0) {
+                json.put("count", update.count);
+                json.put("lat", update.latitude);
+                json.put("lon", update.longitude);
+            } else {
+                json.put("info", update.info);
+                json.put("upToDate", update.upToDate);
+                json.put("lat", update.latitude);
+                json.put("lon", update.longitude);
+            }
+            array.add(json);
+        }
+        return array.toJSONString();
+    }
+
+    /**
+     * Sends all collected updates to the map and clears the batch.
+     * Must be called on the FX application thread.
+     * @param RENDERER the map
+     */
+    public void apply(final MapRenderer RENDERER) {
+        if (updates.isEmpty()) return;
+        final long START = Metrics.INSTANCE.start();
+        RENDERER.applyMarkerUpdates(this);
+        Metrics.INSTANCE.stop(Metrics.Metric.SCRIPT, START);
+        Metrics.INSTANCE.record(Metrics.Metric.SCRIPT_BATCH, updates.size());
+        updates.clear();
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private static class Update {
+        private final String  name;
+        private final String  info;
+        private final boolean upToDate;
+        private final double  latitude;
+        private final double  longitude;
+        private final int     count;
+        private final boolean remove;
+
+        private Update(final String NAME, final String INFO, final boolean UP_TO_DATE, final double LATITUDE, final double LONGITUDE, final int COUNT, final boolean REMOVE) {
+            name      = NAME;
+            info      = INFO;
+            upToDate  = UP_TO_DATE;
+            latitude  = LATITUDE;
+            longitude = LONGITUDE;
+            count     = COUNT;
+            remove    = REMOVE;
+        }
+    }
+}
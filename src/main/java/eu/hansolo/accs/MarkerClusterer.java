@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+
+/**
+ * Groups the persons into clusters for the current zoom level of the map.
+ * The clusters are the cells of a regular grid in web mercator pixel space,
+ * so persons that would be drawn close to each other end up in the same
+ * cluster. Adding, moving and removing a person only touches its old and
+ * new cluster, the grid is only rebuilt when the zoom level changes.
+ * Above MAX_CLUSTER_ZOOM no clustering takes place.
+ */
+public class MarkerClusterer {
+    public  static final int    MAX_CLUSTER_ZOOM = 16;
+    private static final double CELL_SIZE        = 64;  // px
+    private static final double TILE_SIZE        = 256; // px
+    private static final double MAX_LATITUDE     = 85.0511287798;
+    private final Map<String, Member> members;
+    private final Map<Long, Cluster>  clusters;
+    private int                       zoom;
+
+
+    // ******************** Constructors **************************************
+    public MarkerClusterer(final int ZOOM) {
+        members  = new HashMap<>();
+        clusters = new HashMap<>();
+        zoom     = ZOOM;
+    }
+
+
+    // ******************** Methods *******************************************
+    public int getZoom() { return zoom; }
+    /**
+     * @param ZOOM the new zoom level of the map
+     * @return true if the zoom level changed and the clusters have been rebuilt
+     */
+    public boolean setZoom(final int ZOOM) {
+        if (ZOOM == zoom) return false;
+        zoom = ZOOM;
+        clusters.clear();
+        for (Member member : members.values()) { addToCluster(member); }
+        return true;
+    }
+
+    public boolean isClustering() { return zoom <= MAX_CLUSTER_ZOOM; }
+
+    public void put(final Location LOCATION) {
+        Member member = members.get(LOCATION.name);
+        if (null == member) {
+            member = new Member(LOCATION);
+            members.put(LOCATION.name, member);
+        } else {
+            removeFromCluster(member);
+            member.location = LOCATION;
+        }
+        addToCluster(member);
+    }
+
+    public void remove(final String NAME) {
+        Member member = members.remove(NAME);
+        if (null != member) { removeFromCluster(member); }
+    }
+
+    public void clear() {
+        members.clear();
+        clusters.clear();
+    }
+
+    public Collection<Cluster> getClusters() { return Collections.unmodifiableCollection(clusters.values()); }
+
+    /**
+     * Hands all clusters whose grid cell intersects the given bounds over to
+     * the consumer. If the bounds cover less cells than there are clusters
+     * only the cells inside the bounds are looked up.
+     * WEST may be larger than EAST or outside of [-180, 180] if the bounds
+     * cross the antimeridian.
+     */
+    public void forEachCluster(final double SOUTH, final double WEST, final double NORTH, final double EAST, final Consumer<Cluster> CONSUMER) {
+        final double WORLD_SIZE  = TILE_SIZE * Math.pow(2, zoom);
+        final int    WORLD_CELLS = (int) Math.ceil(WORLD_SIZE / CELL_SIZE);
+        final int    MIN_ROW     = Math.max(0, (int) Math.floor(toY(NORTH, WORLD_SIZE) / CELL_SIZE));
+        final int    MAX_ROW     = Math.min(WORLD_CELLS - 1, (int) Math.floor(toY(SOUTH, WORLD_SIZE) / CELL_SIZE));
+        final double EAST_LON    = EAST < WEST ? EAST + 360 : EAST;
+        final int    MIN_COL     = (int) Math.floor(toX(WEST, WORLD_SIZE) / CELL_SIZE);
+        final int    COL_SPAN    = Math.min(WORLD_CELLS, (int) Math.floor(toX(EAST_LON, WORLD_SIZE) / CELL_SIZE) - MIN_COL + 1);
+        if (MAX_ROW < MIN_ROW || COL_SPAN <= 0) return;
+
+        if ((long) (MAX_ROW - MIN_ROW + 1) * COL_SPAN > clusters.size()) {
+            for (Cluster cluster : clusters.values()) {
+                final int ROW = (int) (cluster.key >> 32);
+                final int COL = (int) cluster.key;
+                if (ROW >= MIN_ROW && ROW <= MAX_ROW && Math.floorMod(COL - MIN_COL, WORLD_CELLS) < COL_SPAN) { CONSUMER.accept(cluster); }
+            }
+        } else {
+            for (int row = MIN_ROW ; row <= MAX_ROW ; row++) {
+                for (int i = 0 ; i < COL_SPAN ; i++) {
+                    Cluster cluster = clusters.get(((long) row << 32) | (Math.floorMod(MIN_COL + i, WORLD_CELLS) & 0xffffffffL));
+                    if (null != cluster) { CONSUMER.accept(cluster); }
+                }
+            }
+        }
+    }
+
+    public int size() { return members.size(); }
+
+
+    // ******************** Private Methods ***********************************
+    private static double toX(final double LONGITUDE, final double WORLD_SIZE) { return (LONGITUDE + 180.0) / 360.0 * WORLD_SIZE; }
+
+    private static double toY(final double LATITUDE, final double WORLD_SIZE) {
+        final double SIN_LAT = Math.sin(Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, LATITUDE))));
+        return (0.5 - Math.log((1 + SIN_LAT) / (1 - SIN_LAT)) / (4 * Math.PI)) * WORLD_SIZE;
+    }
+
+    private void addToCluster(final Member MEMBER) {
+        final double WORLD_SIZE  = TILE_SIZE * Math.pow(2, zoom);
+        final int    WORLD_CELLS = (int) Math.ceil(WORLD_SIZE / CELL_SIZE);
+        final int    ROW         = Math.min(WORLD_CELLS - 1, (int) Math.floor(toY(MEMBER.location.latitude, WORLD_SIZE) / CELL_SIZE));
+        final int    COL         = Math.floorMod((int) Math.floor(toX(MEMBER.location.longitude, WORLD_SIZE) / CELL_SIZE), WORLD_CELLS);
+        final long   KEY         = ((long) ROW << 32) | (COL & 0xffffffffL);
+
+        Cluster cluster = clusters.get(KEY);
+        if (null == cluster) {
+            cluster = new Cluster(KEY);
+            clusters.put(KEY, cluster);
+        }
+        cluster.add(MEMBER.location);
+        MEMBER.cluster = cluster;
+    }
+
+    private void removeFromCluster(final Member MEMBER) {
+        Cluster cluster = MEMBER.cluster;
+        if (null == cluster) return;
+        cluster.remove(MEMBER.location);
+        if (cluster.getCount() == 0) { clusters.remove(cluster.key); }
+        MEMBER.cluster = null;
+    }
+
+
+    // ******************** Inner Classes *************************************
+    public static class Cluster {
+        private final long                  key;
+        private final Map<String, Location> locations;
+        private double                      sumLatitude;
+        private double                      sumLongitude;
+
+        private Cluster(final long KEY) {
+            key       = KEY;
+            locations = new LinkedHashMap<>();
+        }
+
+        public String getId() { return "#cluster-" + key; }
+
+        public int getCount() { return locations.size(); }
+
+        public double getLatitude() { return sumLatitude / locations.size(); }
+
+        public double getLongitude() { return sumLongitude / locations.size(); }
+
+        public Collection<Location> getLocations() { return Collections.unmodifiableCollection(locations.values()); }
+
+        private void add(final Location LOCATION) {
+            locations.put(LOCATION.name, LOCATION);
+            sumLatitude  += LOCATION.latitude;
+            sumLongitude += LOCATION.longitude;
+        }
+
+        private void remove(final Location LOCATION) {
+            if (null == locations.remove(LOCATION.name)) return;
+            if (locations.isEmpty()) {
+                sumLatitude  = 0;
+                sumLongitude = 0;
+            } else {
+                sumLatitude  -= LOCATION.latitude;
+                sumLongitude -= LOCATION.longitude;
+            }
+        }
+    }
+
+    private static class Member {
+        private Location location;
+        private Cluster  cluster;
+
+        private Member(final Location LOCATION) { location = LOCATION; }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+
+/**
+ * Keeps track of what is currently shown on the map and turns the state of
+ * the MarkerClusterer into the minimal set of marker updates.
+ * Clusters with more than one person are sent as cluster markers with their
+ * centroid and count, single persons and all persons above the maximum
+ * cluster zoom level are sent as individual markers.
+ * Persons are compared by instance, which works because the
+ * LocationReconciler keeps the instance of unchanged persons.
+ * Once the visible bounds of the map are known only markers inside the
+ * bounds plus a margin are sent, markers that leave that area are removed
+ * from the map and persons outside of it stay parked on the Java side until
+ * they scroll into view.
+ */
+public class MarkerLayer {
+    private static final double       MARGIN = 0.5; // fraction of the visible width/height added on each side
+    private final MarkerClusterer     clusterer;
+    private       Map<String, Object> shown;
+    private       boolean             culling;
+    private       double              south;
+    private       double              west;
+    private       double              north;
+    private       double              east;
+
+
+    // ******************** Constructors **************************************
+    public MarkerLayer(final int ZOOM) {
+        clusterer = new MarkerClusterer(ZOOM);
+        shown     = new HashMap<>();
+    }
+
+
+    // ******************** Methods *******************************************
+    public void put(final Location LOCATION) { clusterer.put(LOCATION); }
+
+    public void remove(final String NAME) { clusterer.remove(NAME); }
+
+    public int getZoom() { return clusterer.getZoom(); }
+    public boolean setZoom(final int ZOOM) { return clusterer.setZoom(ZOOM); }
+
+    /**
+     * Sets the zoom level and the visible bounds of the map
+     * @return true if zoom or bounds changed
+     */
+    public boolean setView(final int ZOOM, final double SOUTH, final double WEST, final double NORTH, final double EAST) {
+        final double LAT_MARGIN = (NORTH - SOUTH) * MARGIN;
+        final double LON_MARGIN = (EAST - WEST) * MARGIN;
+        final double NEW_SOUTH  = Math.max(-90, SOUTH - LAT_MARGIN);
+        final double NEW_NORTH  = Math.min(90, NORTH + LAT_MARGIN);
+        final double NEW_WEST   = WEST - LON_MARGIN;
+        final double NEW_EAST   = EAST + LON_MARGIN;
+        boolean changed = clusterer.setZoom(ZOOM);
+        if (!culling || NEW_SOUTH != south || NEW_WEST != west || NEW_NORTH != north || NEW_EAST != east) {
+            culling = NEW_EAST - NEW_WEST < 360;
+            south   = NEW_SOUTH;
+            west    = NEW_WEST;
+            north   = NEW_NORTH;
+            east    = NEW_EAST;
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Forgets what has been sent to the map, e.g. after osm.html has been (re)loaded
+     */
+    public void reset() { shown.clear(); }
+
+    /**
+     * Adds all changes since the last call to the given batch.
+     * @param BATCH receives the marker updates and removals
+     * @param INFO  creates the popup content of a person
+     */
+    public void sync(final MarkerBatch BATCH, final Function<Location, String> INFO) {
+        final boolean       CLUSTERING = clusterer.isClustering();
+        final Map<String, Object> NEXT = new HashMap<>(shown.size() * 4 / 3 + 16);
+        final Consumer<MarkerClusterer.Cluster> SYNC = cluster -> {
+            if (CLUSTERING && cluster.getCount() > 1) {
+                final String       ID       = cluster.getId();
+                final ClusterState STATE    = new ClusterState(cluster.getCount(), cluster.getLatitude(), cluster.getLongitude());
+                final Object       PREVIOUS = shown.remove(ID);
+                if (!STATE.equals(PREVIOUS)) { BATCH.putCluster(ID, STATE.count, STATE.latitude, STATE.longitude); }
+                NEXT.put(ID, STATE);
+            } else {
+                for (Location location : cluster.getLocations()) {
+                    if (shown.remove(location.name) != location) { BATCH.put(location, INFO.apply(location)); }
+                    NEXT.put(location.name, location);
+                }
+            }
+        };
+        if (culling) {
+            clusterer.forEachCluster(south, west, north, east, SYNC);
+        } else {
+            for (MarkerClusterer.Cluster cluster : clusterer.getClusters()) { SYNC.accept(cluster); }
+        }
+        for (String id : shown.keySet()) { BATCH.remove(id); }
+        shown = NEXT;
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private static class ClusterState {
+        private final int    count;
+        private final double latitude;
+        private final double longitude;
+
+        private ClusterState(final int COUNT, final double LATITUDE, final double LONGITUDE) {
+            count     = COUNT;
+            latitude  = LATITUDE;
+            longitude = LONGITUDE;
+        }
+
+        @Override public boolean equals(final Object OBJECT) {
+            if (!(OBJECT instanceof ClusterState)) return false;
+            final ClusterState STATE = (ClusterState) OBJECT;
+            return count == STATE.count && Double.compare(latitude, STATE.latitude) == 0 && Double.compare(longitude, STATE.longitude) == 0;
+        }
+
+        @Override public int hashCode() { return 31 * (31 * count + Double.hashCode(latitude)) + Double.hashCode(longitude); }
+    }
+}
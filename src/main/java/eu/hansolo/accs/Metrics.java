@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import javafx.application.Platform;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Timers and histograms for the stages of a refresh, exposed as MXBeans
+ * under eu.hansolo.accs:type=Metrics.
+ * Recording is guarded by one volatile read, so the instrumentation costs
+ * next to nothing while it is disabled.
+ *
+ * Usage:
+ * final long START = Metrics.INSTANCE.start();
+ * ...
+ * Metrics.INSTANCE.stop(Metric.DECODE, START);
+ *
+ * Environment variables:
+ * METRICS : if "true" metrics are recorded from the start and the overlay is shown
+ */
+public enum Metrics implements MetricsMXBean {
+    INSTANCE;
+
+    public enum Metric {
+        FETCH("fetch", "ns"),                   // request until response headers
+        PAYLOAD_SIZE("payloadSize", "bytes"),   // size of the response body
+        DECODE("decode", "ns"),                 // reading the body and creating the Location objects
+        PERSONS("persons", "count"),            // persons per received snapshot or delta
+        UPDATE("updateLocations", "ns"),        // applying a diff on the FX application thread
+        LIST_UPDATE("listUpdate", "ns"),        // updating the ListView items
+        SCRIPT("executeScript", "ns"),          // one executeScript() call with a marker batch
+        SCRIPT_BATCH("scriptBatch", "count"),   // marker updates per executeScript() call
+        FX_STALL("fxStall", "ns"),              // delay until a runnable is executed on the FX application thread
+        FIRST_MARKER("firstMarker", "ns"),      // from init() until the first markers are shown on the map
+        TRACK_SCRIPT("trackScript", "ns"),      // one executeScript() call with a track batch
+        TRACK_POINTS("trackPoints", "count"),   // simplified track points per executeScript() call
+        SEARCH("search", "ns");                 // applying a changed search query or filter to the persons list
+
+        public final String    name;
+        public final String    unit;
+        public final Histogram histogram;
+
+        Metric(final String NAME, final String UNIT) {
+            name      = NAME;
+            unit      = UNIT;
+            histogram = new Histogram(UNIT);
+        }
+    }
+
+    private static final long           PROBE_INTERVAL = 250; // ms
+    private volatile boolean            enabled;
+    private ScheduledExecutorService    probeExecutor;
+    private ScheduledFuture<?>          probe;
+
+
+    // ******************** Constructors **************************************
+    Metrics() {
+        enabled = false;
+    }
+
+
+    // ******************** Methods *******************************************
+    @Override public boolean isEnabled() { return enabled; }
+    @Override public synchronized void setEnabled(final boolean ENABLED) {
+        enabled = ENABLED;
+        if (ENABLED) {
+            startFxProbe();
+        } else {
+            stopFxProbe();
+        }
+    }
+
+    /**
+     * @return a start timestamp for stop() or 0 if metrics are disabled
+     */
+    public long start() { return enabled ? System.nanoTime() : 0; }
+
+    /**
+     * Records the time since START, does nothing if START is 0
+     */
+    public void stop(final Metric METRIC, final long START) {
+        if (START != 0) { METRIC.histogram.record(System.nanoTime() - START); }
+    }
+
+    public void record(final Metric METRIC, final long VALUE) {
+        if (enabled) { METRIC.histogram.record(VALUE); }
+    }
+
+    /**
+     * Wraps the given stream so that the number of bytes read is recorded
+     * as METRIC when the stream is closed, returns the stream itself if
+     * metrics are disabled.
+     */
+    public InputStream count(final Metric METRIC, final InputStream INPUT_STREAM) {
+        if (!enabled) return INPUT_STREAM;
+        return new FilterInputStream(INPUT_STREAM) {
+            private long    bytes;
+            private boolean closed;
+
+            @Override public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) { bytes++; }
+                return b;
+            }
+            @Override public int read(final byte[] BUFFER, final int OFFSET, final int LENGTH) throws IOException {
+                int count = super.read(BUFFER, OFFSET, LENGTH);
+                if (count > 0) { bytes += count; }
+                return count;
+            }
+            @Override public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    METRIC.histogram.record(bytes);
+                }
+                super.close();
+            }
+        };
+    }
+
+    @Override public String[] getSummary() {
+        Metric[] metrics = Metric.values();
+        String[] summary = new String[metrics.length];
+        for (int i = 0 ; i < metrics.length ; i++) {
+            Metric    metric    = metrics[i];
+            Histogram histogram = metric.histogram;
+            if ("ns".equals(metric.unit)) {
+                summary[i] = String.format(Locale.US, "%-16s n=%-6d mean=%8.2fms p50=%8.2fms p99=%8.2fms max=%8.2fms", metric.name, histogram.getCount(),
+                                           histogram.getMean() / 1e6, histogram.get50thPercentile() / 1e6, histogram.get99thPercentile() / 1e6, histogram.getMax() / 1e6);
+            } else {
+                summary[i] = String.format(Locale.US, "%-16s n=%-6d mean=%10.0f p50=%10d p99=%10d max=%10d %s", metric.name, histogram.getCount(),
+                                           histogram.getMean(), histogram.get50thPercentile(), histogram.get99thPercentile(), histogram.getMax(), metric.unit);
+            }
+        }
+        return summary;
+    }
+
+    @Override public void reset() {
+        for (Metric metric : Metric.values()) { metric.histogram.reset(); }
+    }
+
+    /**
+     * Registers the MXBeans with the platform MBean server, can be called more than once
+     */
+    public synchronized void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName("eu.hansolo.accs:type=Metrics");
+            if (server.isRegistered(name)) return;
+            server.registerMBean(this, name);
+            for (Metric metric : Metric.values()) {
+                server.registerMBean(metric.histogram, new ObjectName("eu.hansolo.accs:type=Metrics,name=" + metric.name));
+            }
+        } catch (JMException e) {
+            // metrics are still available in the overlay
+        }
+    }
+
+
+    /**
+     * Registers another MXBean with the platform MBean server, e.g. the EndpointStats of the RestClient.
+     * A bean that is registered under the same name is replaced.
+     * @param PROPERTIES the key properties of the ObjectName in the eu.hansolo.accs domain, e.g. "type=Endpoint,name=x"
+     */
+    public synchronized void register(final String PROPERTIES, final Object MX_BEAN) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName("eu.hansolo.accs:" + PROPERTIES);
+            if (server.isRegistered(name)) { server.unregisterMBean(name); }
+            server.registerMBean(MX_BEAN, name);
+        } catch (JMException e) {
+            // not available over jmx
+        }
+    }
+
+    /**
+     * Removes an MXBean that was registered with register(PROPERTIES, MX_BEAN)
+     */
+    public synchronized void unregister(final String PROPERTIES) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName("eu.hansolo.accs:" + PROPERTIES);
+            if (server.isRegistered(name)) { server.unregisterMBean(name); }
+        } catch (JMException e) {
+            // not available over jmx
+        }
+    }
+
+
+    // ******************** Private Methods ***********************************
+    /**
+     * Posts a runnable to the FX application thread every PROBE_INTERVAL ms
+     * and records how long it took until it was executed.
+     */
+    private void startFxProbe() {
+        if (null != probe) return;
+        if (null == probeExecutor) {
+            probeExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "FxStallProbe");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        probe = probeExecutor.scheduleAtFixedRate(() -> {
+            final long POSTED = System.nanoTime();
+            try {
+                Platform.runLater(() -> record(Metric.FX_STALL, System.nanoTime() - POSTED));
+            } catch (IllegalStateException e) {
+                // no FX toolkit running, e.g. in the headless LoadTest
+            }
+        }, PROBE_INTERVAL, PROBE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopFxProbe() {
+        if (null == probe) return;
+        probe.cancel(false);
+        probe = null;
+    }
+}
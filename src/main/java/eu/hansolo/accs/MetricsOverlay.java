@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.scene.control.Label;
+import javafx.util.Duration;
+
+
+/**
+ * Label that shows the summary of Metrics and refreshes itself once per
+ * second while it is visible.
+ */
+public class MetricsOverlay extends Label {
+    private final Timeline timeline;
+
+
+    // ******************** Constructors **************************************
+    public MetricsOverlay() {
+        getStyleClass().add("metrics-overlay");
+        setMouseTransparent(true);
+        timeline = new Timeline(new KeyFrame(Duration.seconds(1), e -> refresh()));
+        timeline.setCycleCount(Timeline.INDEFINITE);
+        visibleProperty().addListener((o, ov, nv) -> {
+            if (nv) {
+                refresh();
+                timeline.play();
+            } else {
+                timeline.stop();
+            }
+        });
+        if (isVisible()) { timeline.play(); }
+    }
+
+
+    // ******************** Methods *******************************************
+    public void refresh() { setText(String.join("\n", Metrics.INSTANCE.getSummary())); }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Stand-in for the ACCS backend that serves the /locations endpoint of
+ * a number of simulated persons on the loopback interface.
+ * Every person walks randomly around a start position, on average it
+ * reports a new position UPDATE_RATE times per second. The size of the
+ * payload can be tuned with the length of the info field.
+ * The simulation runs on its own thread, every tick publishes a new
+ * immutable snapshot that is served by a LocationsHandler, so json,
+ * the LocationCodec format, ?since= and If-None-Match work like with
+ * the backend.
+ *
+ * Can be started on its own to run the desktop client against it:
+ * java -cp ... eu.hansolo.accs.MockLocationServer [persons] [updateRate] [infoSize] [port]
+ */
+public class MockLocationServer {
+    private static final String           LOCATIONS       = "/locations";
+    private static final long             TICK            = 100;      // ms
+    private static final int              THREADS         = 4;
+    private static final double           CENTER_LAT      = 51.911858;
+    private static final double           CENTER_LON      = 7.632815;
+    private static final double           SPREAD          = 0.5;      // degrees around the center
+    private static final double           MIN_SPEED       = 1;        // m/s
+    private static final double           MAX_SPEED       = 30;       // m/s
+    private static final double           METER_PER_DEG   = 111_320;
+    private final int                     persons;
+    private final double                  updateRate;
+    private final Random                  random;
+    private final String[]                names;
+    private final String                  info;
+    private final double[]                latitudes;
+    private final double[]                longitudes;
+    private final double[]                altitudes;
+    private final double[]                headings;
+    private final double[]                speeds;
+    private final long[]                  lastMoves;
+    private final Location[]              locations;
+    private volatile List<Location>       snapshot;
+    private volatile long                 updates;
+    private HttpServer                    server;
+    private ExecutorService               executor;
+    private ScheduledExecutorService      simulation;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * @param PERSONS     number of simulated persons
+     * @param UPDATE_RATE average number of position updates per person and second
+     * @param INFO_SIZE   number of characters of the info field of each person
+     */
+    public MockLocationServer(final int PERSONS, final double UPDATE_RATE, final int INFO_SIZE) {
+        if (PERSONS < 0)     throw new IllegalArgumentException("Number of persons must not be negative");
+        if (UPDATE_RATE < 0) throw new IllegalArgumentException("Update rate must not be negative");
+        persons    = PERSONS;
+        updateRate = UPDATE_RATE;
+        random     = new Random(42);
+        names      = new String[PERSONS];
+        latitudes  = new double[PERSONS];
+        longitudes = new double[PERSONS];
+        altitudes  = new double[PERSONS];
+        headings   = new double[PERSONS];
+        speeds     = new double[PERSONS];
+        lastMoves  = new long[PERSONS];
+        locations  = new Location[PERSONS];
+
+        char[] infoChars = new char[Math.max(0, INFO_SIZE)];
+        Arrays.fill(infoChars, 'x');
+        info = new String(infoChars);
+
+        final long NOW = System.currentTimeMillis();
+        for (int i = 0 ; i < PERSONS ; i++) {
+            names[i]      = String.format("person-%06d", i);
+            latitudes[i]  = CENTER_LAT + (random.nextDouble() - 0.5) * SPREAD;
+            longitudes[i] = CENTER_LON + (random.nextDouble() - 0.5) * SPREAD;
+            altitudes[i]  = 50 + random.nextDouble() * 100;
+            headings[i]   = random.nextDouble() * 360;
+            speeds[i]     = MIN_SPEED + random.nextDouble() * (MAX_SPEED - MIN_SPEED);
+            lastMoves[i]  = NOW;
+            locations[i]  = createLocation(i, NOW);
+        }
+        snapshot = Collections.unmodifiableList(Arrays.asList(locations.clone()));
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Starts the simulation and the server on the loopback interface
+     * @param PORT the port or 0 for a free port
+     */
+    public synchronized void start(final int PORT) throws IOException {
+        if (null != server) return;
+        // Otherwise the separately written headers and body run into Nagle's algorithm and delayed acks (~40ms per response)
+        if (null == System.getProperty("sun.net.httpserver.nodelay")) { System.setProperty("sun.net.httpserver.nodelay", "true"); }
+        executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "MockLocationServer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        simulation = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MockLocationSimulation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT), 0);
+        server.createContext(LOCATIONS, new LocationsHandler(this::getSnapshot));
+        server.setExecutor(executor);
+        server.start();
+        simulation.scheduleAtFixedRate(this::tick, TICK, TICK, TimeUnit.MILLISECONDS);
+    }
+    public void start() throws IOException { start(0); }
+
+    public synchronized void stop() {
+        if (null == server) return;
+        simulation.shutdownNow();
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+    }
+
+    /**
+     * @return the base url of the server without the /locations path
+     */
+    public String getBaseUrl() {
+        if (null == server) throw new IllegalStateException("Server not started");
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    public Collection<Location> getSnapshot() { return snapshot; }
+
+    public int getPersons() { return persons; }
+
+    /**
+     * @return the number of position updates since the start
+     */
+    public long getUpdates() { return updates; }
+
+
+    // ******************** Private Methods ***********************************
+    /**
+     * Moves each person with a probability of UPDATE_RATE * TICK and
+     * publishes a new snapshot if at least one person moved
+     */
+    private void tick() {
+        final long   NOW         = System.currentTimeMillis();
+        final double PROBABILITY = Math.min(1, updateRate * TICK / 1000.0);
+        int moved = 0;
+        for (int i = 0 ; i < persons ; i++) {
+            if (random.nextDouble() >= PROBABILITY) continue;
+            move(i, NOW);
+            moved++;
+        }
+        if (moved == 0) return;
+        updates += moved;
+        snapshot = Collections.unmodifiableList(Arrays.asList(locations.clone()));
+    }
+
+    private void move(final int INDEX, final long NOW) {
+        final double SECONDS  = (NOW - lastMoves[INDEX]) / 1000.0;
+        headings[INDEX]       = (headings[INDEX] + random.nextGaussian() * 20 + 360) % 360;
+        speeds[INDEX]         = Math.max(MIN_SPEED, Math.min(MAX_SPEED, speeds[INDEX] + random.nextGaussian()));
+        final double DISTANCE = speeds[INDEX] * SECONDS;
+        final double HEADING  = Math.toRadians(headings[INDEX]);
+        latitudes[INDEX]     += DISTANCE * Math.cos(HEADING) / METER_PER_DEG;
+        longitudes[INDEX]    += DISTANCE * Math.sin(HEADING) / (METER_PER_DEG * Math.cos(Math.toRadians(latitudes[INDEX])));
+        altitudes[INDEX]      = Math.max(0, altitudes[INDEX] + random.nextGaussian() * 0.5);
+        // Turn around at the border of the area
+        if (Math.abs(latitudes[INDEX] - CENTER_LAT) > SPREAD || Math.abs(longitudes[INDEX] - CENTER_LON) > SPREAD) {
+            headings[INDEX] = (headings[INDEX] + 180) % 360;
+        }
+        lastMoves[INDEX] = NOW;
+        locations[INDEX] = createLocation(INDEX, NOW);
+    }
+
+    private Location createLocation(final int INDEX, final long MILLIS) {
+        return new Location(latitudes[INDEX], longitudes[INDEX], altitudes[INDEX], Instant.ofEpochMilli(MILLIS), names[INDEX], info);
+    }
+
+
+    // ******************** Start *********************************************
+    public static void main(final String[] ARGS) throws IOException {
+        final int    PERSONS     = ARGS.length > 0 ? Integer.parseInt(ARGS[0]) : 1000;
+        final double UPDATE_RATE = ARGS.length > 1 ? Double.parseDouble(ARGS[1]) : 0.2;
+        final int    INFO_SIZE   = ARGS.length > 2 ? Integer.parseInt(ARGS[2]) : 32;
+        final int    PORT        = ARGS.length > 3 ? Integer.parseInt(ARGS[3]) : 8080;
+        MockLocationServer server = new MockLocationServer(PERSONS, UPDATE_RATE, INFO_SIZE);
+        server.start(PORT);
+        System.out.println("Serving " + PERSONS + " persons on " + server.getBaseUrl() + LOCATIONS + ", press enter to stop");
+        System.in.read();
+        server.stop();
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import eu.hansolo.accs.Location.CardinalDirection;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Derives speed, heading, altitude rate and a moving/stationary state per
+ * person from consecutive positions.
+ * Every update is O(1) and, once a person is known, does not allocate:
+ * the state lives in primitive arrays that are indexed by a slot per
+ * person. The speed is smoothed exponentially and the heading is only
+ * updated if the person moved further than the usual gps jitter.
+ * A person switches to moving above MOVING_SPEED and back to stationary
+ * below STATIONARY_SPEED, so it doesn't flicker around one threshold.
+ * Not thread safe, it is meant to be updated on the FX application thread.
+ */
+public class MovementTracker {
+    public  static final double MOVING_SPEED     = 0.5;  // m/s
+    public  static final double STATIONARY_SPEED = 0.3;  // m/s
+    private static final double MIN_DISTANCE     = 10;   // m, below this the heading is kept
+    private static final double SMOOTHING        = 0.5;  // weight of the newest speed
+    private static final int    INITIAL_CAPACITY = 64;
+    private final Map<String, Integer> slots;
+    private int[]                      freeSlots;
+    private int                        freeCount;
+    private int                        slotCount;
+    private long[]                     epochSeconds;
+    private double[]                   latitudes;
+    private double[]                   longitudes;
+    private double[]                   altitudes;
+    private double[]                   speeds;
+    private double[]                   headings;
+    private double[]                   altitudeRates;
+    private boolean[]                  moving;
+    private boolean[]                  hasMovement;
+
+
+    // ******************** Constructors **************************************
+    public MovementTracker() {
+        slots         = new HashMap<>();
+        freeSlots     = new int[16];
+        epochSeconds  = new long[INITIAL_CAPACITY];
+        latitudes     = new double[INITIAL_CAPACITY];
+        longitudes    = new double[INITIAL_CAPACITY];
+        altitudes     = new double[INITIAL_CAPACITY];
+        speeds        = new double[INITIAL_CAPACITY];
+        headings      = new double[INITIAL_CAPACITY];
+        altitudeRates = new double[INITIAL_CAPACITY];
+        moving        = new boolean[INITIAL_CAPACITY];
+        hasMovement   = new boolean[INITIAL_CAPACITY];
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Takes the next position of a person into account. Positions that are
+     * not newer than the last one of the same person are ignored.
+     */
+    public void update(final Location LOCATION) {
+        final long EPOCH_SECOND = LOCATION.timestamp.getEpochSecond();
+        Integer slot = slots.get(LOCATION.name);
+        if (null == slot) {
+            final int SLOT = allocate();
+            slots.put(LOCATION.name, SLOT);
+            epochSeconds[SLOT]  = EPOCH_SECOND;
+            latitudes[SLOT]     = LOCATION.latitude;
+            longitudes[SLOT]    = LOCATION.longitude;
+            altitudes[SLOT]     = LOCATION.altitude;
+            speeds[SLOT]        = 0;
+            headings[SLOT]      = Double.NaN;
+            altitudeRates[SLOT] = 0;
+            moving[SLOT]        = false;
+            hasMovement[SLOT]   = false;
+            return;
+        }
+        final int  SLOT = slot;
+        final long DT   = EPOCH_SECOND - epochSeconds[SLOT];
+        if (DT <= 0) return;
+
+        final double DISTANCE = Location.calcDistanceInMeter(latitudes[SLOT], longitudes[SLOT], LOCATION.latitude, LOCATION.longitude);
+        final double SPEED    = DISTANCE / DT;
+        speeds[SLOT]        = hasMovement[SLOT] ? SMOOTHING * SPEED + (1 - SMOOTHING) * speeds[SLOT] : SPEED;
+        altitudeRates[SLOT] = (LOCATION.altitude - altitudes[SLOT]) / DT;
+        if (DISTANCE >= MIN_DISTANCE) {
+            headings[SLOT] = Location.calcBearingInDegree(latitudes[SLOT], longitudes[SLOT], LOCATION.latitude, LOCATION.longitude);
+        }
+        if (moving[SLOT]) {
+            moving[SLOT] = speeds[SLOT] >= STATIONARY_SPEED;
+        } else {
+            moving[SLOT] = speeds[SLOT] >= MOVING_SPEED && DISTANCE >= MIN_DISTANCE;
+        }
+        hasMovement[SLOT]  = true;
+        epochSeconds[SLOT] = EPOCH_SECOND;
+        latitudes[SLOT]    = LOCATION.latitude;
+        longitudes[SLOT]   = LOCATION.longitude;
+        altitudes[SLOT]    = LOCATION.altitude;
+    }
+
+    public void remove(final String NAME) {
+        Integer slot = slots.remove(NAME);
+        if (null == slot) return;
+        if (freeCount == freeSlots.length) { freeSlots = Arrays.copyOf(freeSlots, freeCount * 2); }
+        freeSlots[freeCount++] = slot;
+    }
+
+    public void clear() {
+        slots.clear();
+        freeCount = 0;
+        slotCount = 0;
+    }
+
+    /**
+     * @return true if at least two positions of the person have been seen
+     */
+    public boolean hasMovement(final String NAME) {
+        final int SLOT = slot(NAME);
+        return SLOT >= 0 && hasMovement[SLOT];
+    }
+
+    /**
+     * @return the smoothed speed in m/s or 0 if unknown
+     */
+    public double getSpeed(final String NAME) {
+        final int SLOT = slot(NAME);
+        return SLOT < 0 ? 0 : speeds[SLOT];
+    }
+
+    /**
+     * @return the heading in degrees or NaN if the person has not moved yet
+     */
+    public double getHeading(final String NAME) {
+        final int SLOT = slot(NAME);
+        return SLOT < 0 ? Double.NaN : headings[SLOT];
+    }
+
+    /**
+     * @return the cardinal direction of the heading or null if the person has not moved yet
+     */
+    public CardinalDirection getCardinalDirection(final String NAME) {
+        final double HEADING = getHeading(NAME);
+        return Double.isNaN(HEADING) ? null : CardinalDirection.fromBearing(HEADING);
+    }
+
+    /**
+     * @return the change of the altitude in m/s, positive when climbing
+     */
+    public double getAltitudeRate(final String NAME) {
+        final int SLOT = slot(NAME);
+        return SLOT < 0 ? 0 : altitudeRates[SLOT];
+    }
+
+    public boolean isMoving(final String NAME) {
+        final int SLOT = slot(NAME);
+        return SLOT >= 0 && moving[SLOT];
+    }
+
+    /**
+     * @return a short text like "34 km/h NE" or "stationary", empty if nothing is known yet
+     */
+    public String getSummary(final String NAME) {
+        final int SLOT = slot(NAME);
+        if (SLOT < 0 || !hasMovement[SLOT]) return "";
+        if (!moving[SLOT]) return "stationary";
+        final CardinalDirection DIRECTION = getCardinalDirection(NAME);
+        return Math.round(speeds[SLOT] * 3.6) + " km/h" + (null == DIRECTION ? "" : " " + DIRECTION.name());
+    }
+
+    public int size() { return slots.size(); }
+
+
+    // ******************** Private Methods ***********************************
+    private int slot(final String NAME) {
+        Integer slot = slots.get(NAME);
+        return null == slot ? -1 : slot;
+    }
+
+    private int allocate() {
+        if (freeCount > 0) return freeSlots[--freeCount];
+        if (slotCount == speeds.length) {
+            final int CAPACITY = slotCount + (slotCount >> 1) + 1;
+            epochSeconds  = Arrays.copyOf(epochSeconds, CAPACITY);
+            latitudes     = Arrays.copyOf(latitudes, CAPACITY);
+            longitudes    = Arrays.copyOf(longitudes, CAPACITY);
+            altitudes     = Arrays.copyOf(altitudes, CAPACITY);
+            speeds        = Arrays.copyOf(speeds, CAPACITY);
+            headings      = Arrays.copyOf(headings, CAPACITY);
+            altitudeRates = Arrays.copyOf(altitudeRates, CAPACITY);
+            moving        = Arrays.copyOf(moving, CAPACITY);
+            hasMovement   = Arrays.copyOf(hasMovement, CAPACITY);
+        }
+        return slotCount++;
+    }
+}
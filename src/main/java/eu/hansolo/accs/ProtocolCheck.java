@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+
+/**
+ * Headless check of the polling protocol between the RestClient and a
+ * LocationsHandler on the loopback interface: conditional requests with
+ * ETag/304, deltas with ?since= including updates within the same second,
+ * the periodic full resync that drops removed persons and the staleness
+ * pass of the LocationUpdater after midnight without a change of the
+ * backend.
+ * Every step is run with json and with the LocationCodec format, the
+ * first failing step ends the check with an exception.
+ *
+ * Usage: gradle protocolCheck or java -cp ... eu.hansolo.accs.ProtocolCheck
+ */
+public class ProtocolCheck {
+    private static final String       LOCATIONS       = "/locations";
+    private static final int          RESYNC_INTERVAL = 10; // see RestClient
+    private volatile List<Location>   backend;
+    private HttpServer                server;
+
+
+    // ******************** Methods *******************************************
+    public void run() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(LOCATIONS, new LocationsHandler(() -> backend));
+        server.start();
+        final boolean BINARY      = RestClient.INSTANCE.isBinary();
+        final boolean INCREMENTAL = RestClient.INSTANCE.isIncremental();
+        final String  URLS        = String.join(",", RestClient.INSTANCE.getUrls());
+        try {
+            for (boolean binary : new boolean[] { false, true }) {
+                RestClient.INSTANCE.setBinary(binary);
+                checkConditional();
+                checkIncremental();
+                System.out.println("protocol ok, binary " + binary);
+            }
+            checkStaleness();
+            System.out.println("staleness ok");
+        } finally {
+            RestClient.INSTANCE.setBinary(BINARY);
+            RestClient.INSTANCE.setIncremental(INCREMENTAL);
+            RestClient.INSTANCE.setUrl(URLS);
+            server.stop(0);
+        }
+    }
+
+
+    // ******************** Private Methods ***********************************
+    /**
+     * Unchanged data is answered with 304, a change with the full new state
+     */
+    private void checkConditional() {
+        final long NOW = Instant.now().getEpochSecond();
+        backend = Arrays.asList(create("a", 1, NOW), create("b", 2, NOW), create("c", 3, NOW));
+        reset(false);
+
+        expect("full request", poll(), "a", 1, "b", 2, "c", 3);
+        final long NOT_MODIFIED = getNotModified();
+        expectEmpty("unchanged full request", poll());
+        check("304 counted", getNotModified() == NOT_MODIFIED + 1);
+
+        backend = Arrays.asList(create("a", 4, NOW + 1), create("b", 2, NOW));
+        expect("changed full request", poll(), "a", 4, "b", 2);
+    }
+
+    /**
+     * Deltas carry the changes of the since second, removed persons are
+     * only dropped by the next full resync
+     */
+    private void checkIncremental() {
+        final long NOW = Instant.now().getEpochSecond();
+        backend = Arrays.asList(create("a", 1, NOW), create("b", 2, NOW), create("c", 3, NOW));
+        reset(true);
+
+        expect("initial full request", poll(), "a", 1, "b", 2, "c", 3);
+        expectEmpty("delta with repeated locations only", poll());
+
+        // Another update within the second the client has already seen
+        backend = Arrays.asList(create("a", 5, NOW), create("b", 2, NOW), create("c", 3, NOW));
+        expect("delta within the since second", poll(), "a", 5, "b", 2, "c", 3);
+
+        backend = Arrays.asList(create("a", 5, NOW), create("b", 6, NOW + 1));
+        expect("delta without the removed person", poll(), "a", 5, "b", 6, "c", 3);
+
+        // The resync drops c at the latest after RESYNC_INTERVAL deltas
+        for (int i = 0 ; i <= RESYNC_INTERVAL ; i++) {
+            Optional<List<Location>> update = poll();
+            if (update.isPresent()) {
+                expect("resync", update, "a", 5, "b", 6);
+                return;
+            }
+        }
+        throw new IllegalStateException("resync failed: no full request after " + RESYNC_INTERVAL + " deltas");
+    }
+
+    /**
+     * Persons become stale on the next day although the backend answers with 304
+     */
+    private void checkStaleness() {
+        final long NOW = Instant.now().getEpochSecond();
+        backend = Arrays.asList(create("a", 1, NOW), create("b", 2, NOW));
+        reset(false);
+
+        final LocationUpdater UPDATER  = new LocationUpdater(snapshot -> {});
+        final LocalDate       TODAY    = LocalDate.now();
+        final LocalDate       TOMORROW = TODAY.plusDays(1);
+        try {
+            Optional<List<Location>> snapshot = UPDATER.prepareUpdate(poll(), TODAY);
+            check("up to date today", snapshot.isPresent() && snapshot.get().stream().allMatch(location -> location.isUpToDate));
+            check("unchanged on the same day", !UPDATER.prepareUpdate(poll(), TODAY).isPresent());
+            snapshot = UPDATER.prepareUpdate(poll(), TOMORROW);
+            check("stale tomorrow without a change of the backend", snapshot.isPresent() && snapshot.get().stream().noneMatch(location -> location.isUpToDate));
+            check("unchanged on the next poll", !UPDATER.prepareUpdate(poll(), TOMORROW).isPresent());
+        } finally {
+            UPDATER.shutdown();
+        }
+    }
+
+    private void reset(final boolean INCREMENTAL) {
+        RestClient.INSTANCE.setIncremental(INCREMENTAL);
+        RestClient.INSTANCE.setUrl("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort());
+    }
+
+    private static Optional<List<Location>> poll() { return RestClient.INSTANCE.fetchLocationUpdate(); }
+
+    private static long getNotModified() { return RestClient.INSTANCE.getEndpointStats().get(0).getNotModified(); }
+
+    private static Location create(final String NAME, final double LATITUDE, final long EPOCH_SECOND) {
+        return new Location(LATITUDE, 7, 0, Instant.ofEpochSecond(EPOCH_SECOND), NAME, "");
+    }
+
+    /**
+     * @param EXPECTED pairs of name and latitude
+     */
+    private static void expect(final String STEP, final Optional<List<Location>> UPDATE, final Object... EXPECTED) {
+        check(STEP + " changed", UPDATE.isPresent());
+        Map<String, Double> actual = new HashMap<>();
+        for (Location location : UPDATE.get()) { actual.put(location.name, location.latitude); }
+        Map<String, Double> expected = new HashMap<>();
+        for (int i = 0 ; i < EXPECTED.length ; i += 2) { expected.put((String) EXPECTED[i], ((Number) EXPECTED[i + 1]).doubleValue()); }
+        check(STEP + " expected " + expected + " but got " + actual, expected.equals(actual));
+    }
+
+    private static void expectEmpty(final String STEP, final Optional<List<Location>> UPDATE) {
+        check(STEP + " expected no change but got " + UPDATE.map(ProtocolCheck::names).orElse(null), !UPDATE.isPresent());
+    }
+
+    private static List<String> names(final Collection<Location> LOCATIONS) {
+        List<String> names = new ArrayList<>();
+        for (Location location : LOCATIONS) { names.add(location.name); }
+        return names;
+    }
+
+    private static void check(final String STEP, final boolean OK) {
+        if (!OK) throw new IllegalStateException("failed: " + STEP);
+    }
+
+
+    // ******************** Start *********************************************
+    public static void main(final String[] ARGS) throws IOException {
+        new ProtocolCheck().run();
+    }
+}
@@ -16,52 +16,438 @@
 
 package eu.hansolo.accs;
 
+import eu.hansolo.accs.Metrics.Metric;
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONValue;
 
+import javax.management.ObjectName;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
  * Created by hansolo on 15.06.16.
+ *
+ * Environment variables:
+ * URL         : base url of the backend, several regional backends can be given comma separated
+ * CACHE_DIR   : optional directory for a bounded on-disk http response cache
+ * INCREMENTAL : if "true" only the locations that changed since the last poll are requested
+ * STREAM      : if "true" position changes are pushed by the backend as server sent events
+ * STREAM_TIMEOUT : seconds without data or keep alive comment after which the stream is taken as lost, default 90
+ * BINARY      : if "false" only json is accepted, otherwise the compact LocationCodec format is preferred
  */
 public enum RestClient {
     INSTANCE;
-    private static final Optional<String> URL = Optional.ofNullable(System.getenv("URL"));
-    private              OkHttpClient client;
+    private static final String           LOCATIONS       = "/locations";
+    private static final String           STREAM          = "/locations/stream";
+    private static final String           ACCEPT_BINARY   = LocationCodec.MEDIA_TYPE + ", application/json;q=0.9";
+    private static final String           ACCEPT_JSON     = "application/json";
+    private static final long             CACHE_SIZE      = 10 * 1024 * 1024; // 10 MB
+    private static final int              RESYNC_INTERVAL = 10;                // full fetch every n incremental polls
+    private static final long             FAN_OUT_TIMEOUT = 5;                 // s to wait for the slowest backend
+    private static final int              MAX_IDLE        = 5;                 // idle connections per backend
+    private static final long             STREAM_TIMEOUT  = 90;                // s, three keep alive intervals of the backend
+    static final         String           FAN_OUT_THREAD  = "FanOutTask-";     // name prefix of the threads that poll several backends
+    private              OkHttpClient     client;
+    private              OkHttpClient     streamClient;
+    private final        ExecutorService  fanOutExecutor;
+    private volatile     boolean          streaming;
+    private volatile     boolean          binary;
+    private volatile     Optional<String> url;
+    private volatile     List<Endpoint>   endpoints;
+    private volatile     boolean          incremental;
 
 
     // ******************** Constructors **************************************
     RestClient() {
-        client = new OkHttpClient.Builder().connectTimeout(10, TimeUnit.SECONDS)
-                                           .writeTimeout(10, TimeUnit.SECONDS)
-                                           .readTimeout(30, TimeUnit.SECONDS)
-                                           .build();
+        List<String> urls = parseUrls(System.getenv("URL"));
+        // One pool for all backends that keeps enough idle connections for a poll of every backend
+        OkHttpClient.Builder builder = new OkHttpClient.Builder().connectTimeout(10, TimeUnit.SECONDS)
+                                                                 .writeTimeout(10, TimeUnit.SECONDS)
+                                                                 .readTimeout(30, TimeUnit.SECONDS)
+                                                                 .connectionPool(new ConnectionPool(MAX_IDLE * Math.max(1, urls.size()), 5, TimeUnit.MINUTES));
+        String cacheDir = System.getenv("CACHE_DIR");
+        if (null != cacheDir) { builder.cache(new Cache(new File(cacheDir), CACHE_SIZE)); }
+        client      = builder.build();
+        // Same connection pool but own dispatcher, so cancel() does not close the stream, the read timeout detects half open connections
+        streamClient = client.newBuilder().dispatcher(new Dispatcher()).readTimeout(getStreamTimeout(), TimeUnit.SECONDS).build();
+        streaming   = Boolean.parseBoolean(System.getenv("STREAM"));
+        binary      = !"false".equalsIgnoreCase(System.getenv("BINARY"));
+        incremental = Boolean.parseBoolean(System.getenv("INCREMENTAL"));
+        AtomicInteger threadCount = new AtomicInteger();
+        fanOutExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, FAN_OUT_THREAD + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        setEndpoints(urls);
     }
 
 
     // ******************** Public Methods ************************************
-    public JSONArray getLocations() {
-        if (!URL.isPresent()) return new JSONArray();
-        return getJSONArray(URL.get() + "/locations");
+    /**
+     * @return the url of the first backend
+     */
+    public Optional<String> getUrl() { return url; }
+    /**
+     * Points the client to other backends (e.g. a local mock server) and
+     * resets the state of the conditional and incremental polling.
+     * @param URL base url of the backend without the /locations path, several urls can be given comma separated
+     */
+    public synchronized void setUrl(final String URL) { setEndpoints(parseUrls(URL)); }
+
+    public List<String> getUrls() {
+        List<String> urls = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) { urls.add(endpoint.url); }
+        return urls;
+    }
+
+    /**
+     * @return the request statistics of all backends
+     */
+    public List<EndpointStats> getEndpointStats() {
+        List<EndpointStats> stats = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) { stats.add(endpoint.stats); }
+        return stats;
+    }
+
+    public boolean isIncremental() { return incremental; }
+    public synchronized void setIncremental(final boolean INCREMENTAL) {
+        incremental = INCREMENTAL;
+        for (Endpoint endpoint : endpoints) { endpoint.pollsSinceResync = 0; }
+    }
+
+    public boolean isBinary() { return binary; }
+    /**
+     * @param BINARY if true the compact binary format is requested with json as fallback
+     */
+    public void setBinary(final boolean BINARY) { binary = BINARY; }
+
+    /**
+     * Streaming is only supported with a single backend, with several
+     * backends all of them are polled.
+     */
+    public boolean isStreaming() { return streaming && endpoints.size() == 1; }
+    public void setStreaming(final boolean STREAMING) { streaming = STREAMING; }
+
+    /**
+     * Creates the call for the server sent event stream of the backend
+     * (/locations/stream). The call is not executed, reading from it fails
+     * with a SocketTimeoutException if the backend sends neither events nor
+     * keep alive comments for STREAM_TIMEOUT seconds.
+     * @param LAST_EVENT_ID the id of the last received event, the backend resumes after it, may be null
+     * @return the call or an empty optional if no url is set
+     */
+    public Optional<Call> newStreamCall(final String LAST_EVENT_ID) {
+        if (!url.isPresent()) return Optional.empty();
+        Request.Builder requestBuilder = new Request.Builder().url(url.get() + STREAM)
+                                                              .header("Accept", "text/event-stream")
+                                                              .header("Cache-Control", "no-cache");
+        if (null != LAST_EVENT_ID) { requestBuilder.header("Last-Event-ID", LAST_EVENT_ID); }
+        return Optional.of(streamClient.newCall(requestBuilder.build()));
+    }
+
+    public JSONArray getLocations() { return parseJSONArray(fetchLocations()); }
+
+    /**
+     * Blocking call that only fetches the raw payload of the /locations endpoint of the first backend,
+     * parsing is left to the caller so that both stages can run on different threads.
+     * @return the response body or an empty json array string
+     */
+    public String fetchLocations() {
+        if (!url.isPresent()) return "[]";
+        return getString(url.get() + LOCATIONS);
+    }
+
+    /**
+     * Blocking call that fetches the /locations endpoint of the first backend and decodes the
+     * response while it is streamed, without buffering the whole body.
+     * @return the decoded locations or an empty list if the call failed
+     */
+    public List<Location> fetchLocationList() {
+        if (!url.isPresent()) return new ArrayList<>();
+        return getLocationList(url.get() + LOCATIONS);
+    }
+
+    /**
+     * Blocking call that polls the backends for changes.
+     * Full requests are sent with If-None-Match/If-Modified-Since, in incremental
+     * mode only the locations that changed since the newest timestamp seen so far
+     * are requested (/locations?since=epochSecond) and merged into the client side
+     * state. Because a delta can not report removed persons, a full request is
+     * sent every RESYNC_INTERVAL polls.
+     * With several backends all of them are polled concurrently and their
+     * states are merged by name, the location with the latest timestamp wins.
+     * A backend that does not answer within FAN_OUT_TIMEOUT keeps its last
+     * known state, its response is merged with one of the next calls and
+     * it is not waited for until it answers in time again. A backend that
+     * fails keeps its last known state.
+     * @return the complete current set of locations or an empty optional if
+     * nothing changed (304, empty delta) or the calls failed
+     */
+    public synchronized Optional<List<Location>> fetchLocationUpdate() {
+        final List<Endpoint> ENDPOINTS = endpoints;
+        if (ENDPOINTS.isEmpty()) return Optional.empty();
+        if (ENDPOINTS.size() == 1) {
+            // The list is handed over, with one backend current is never read again
+            Endpoint endpoint = ENDPOINTS.get(0);
+            return endpoint.poll() ? Optional.of(endpoint.current) : Optional.empty();
+        }
+
+        List<CompletableFuture<Boolean>> polls = new ArrayList<>(ENDPOINTS.size());
+        for (Endpoint endpoint : ENDPOINTS) {
+            // A backend that is still busy with the previous poll is not asked again
+            if (null == endpoint.pending || endpoint.pending.isDone()) {
+                endpoint.pending = CompletableFuture.supplyAsync(endpoint::poll, fanOutExecutor);
+            }
+            // Backends that were too slow last time are not waited for until they answer in time again
+            if (!endpoint.slow) { polls.add(endpoint.pending); }
+        }
+        try {
+            CompletableFuture.allOf(polls.toArray(new CompletableFuture<?>[0])).get(FAN_OUT_TIMEOUT, TimeUnit.SECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // the slow backends are merged with one of the next calls
+            for (Endpoint endpoint : ENDPOINTS) {
+                if (!endpoint.pending.isDone()) { endpoint.slow = true; }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+
+        boolean changed = false;
+        for (Endpoint endpoint : ENDPOINTS) { changed |= endpoint.changed.getAndSet(false); }
+        if (!changed) return Optional.empty();
+
+        Map<String, Location> merged = new HashMap<>();
+        for (Endpoint endpoint : ENDPOINTS) {
+            for (Location location : endpoint.current) {
+                Location other = merged.get(location.name);
+                if (null == other || location.timestamp.isAfter(other.timestamp)) { merged.put(location.name, location); }
+            }
+        }
+        return Optional.of(new ArrayList<>(merged.values()));
+    }
+
+    /**
+     * Forgets the cached validators and the client side state, so that the
+     * next call of fetchLocationUpdate() will be a full unconditional request
+     */
+    public synchronized void reset() {
+        setEndpoints(getUrls());
+    }
+
+    /**
+     * Cancels all calls that are currently in flight
+     */
+    public void cancel() { client.dispatcher().cancelAll(); }
+
+    public JSONArray parseJSONArray(final String TEXT) {
+        Object json = JSONValue.parse(TEXT);
+        return json instanceof JSONArray ? (JSONArray) json : new JSONArray();
     }
 
 
     // ******************** Private Methods ***********************************
-    private JSONArray getJSONArray(final String URL) {
+    private void setEndpoints(final List<String> URLS) {
+        if (null != endpoints) {
+            for (Endpoint endpoint : endpoints) { Metrics.INSTANCE.unregister(getStatsProperties(endpoint.url)); }
+        }
+        List<Endpoint> newEndpoints = new ArrayList<>(URLS.size());
+        for (String endpointUrl : URLS) {
+            Endpoint endpoint = new Endpoint(endpointUrl);
+            newEndpoints.add(endpoint);
+            if (URLS.size() > 1) { Metrics.INSTANCE.register(getStatsProperties(endpointUrl), endpoint.stats); }
+        }
+        endpoints = Collections.unmodifiableList(newEndpoints);
+        url       = URLS.isEmpty() ? Optional.empty() : Optional.of(URLS.get(0));
+    }
+
+    private static String getStatsProperties(final String URL) { return "type=Endpoint,name=" + ObjectName.quote(URL); }
+
+    private static List<String> parseUrls(final String URLS) {
+        List<String> urls = new ArrayList<>();
+        if (null == URLS) return urls;
+        for (String endpointUrl : URLS.split(",")) {
+            String trimmed = endpointUrl.trim();
+            if (!trimmed.isEmpty() && !urls.contains(trimmed)) { urls.add(trimmed); }
+        }
+        return urls;
+    }
+
+    /**
+     * @return the value of STREAM_TIMEOUT in seconds or the default if it is missing or not a positive number
+     */
+    private static long getStreamTimeout() {
+        String streamTimeout = System.getenv("STREAM_TIMEOUT");
+        if (null == streamTimeout) return STREAM_TIMEOUT;
         try {
-            Request   getRequest  = new Request.Builder().url(URL).build();
-            Response  getResponse = client.newCall(getRequest).execute();
-            JSONArray jsonArray   = (JSONArray) JSONValue.parse(getResponse.body().string());
-            return jsonArray;
+            long seconds = Long.parseLong(streamTimeout.trim());
+            return seconds > 0 ? seconds : STREAM_TIMEOUT;
+        } catch (NumberFormatException e) {
+            return STREAM_TIMEOUT;
+        }
+    }
+
+    private List<Location> getLocationList(final String URL) {
+        Request getRequest = new Request.Builder().url(URL).header("Accept", binary ? ACCEPT_BINARY : ACCEPT_JSON).build();
+        try (Response getResponse = client.newCall(getRequest).execute()) {
+            if (getResponse.isSuccessful()) {
+                InputStream body = getResponse.body().byteStream();
+                return isBinary(getResponse) ? new LocationCodec().decode(body) : new LocationDecoder().decode(body);
+            }
+        } catch (IOException e) {
+
+        }
+        return new ArrayList<>();
+    }
+
+    private static boolean isBinary(final Response RESPONSE) {
+        MediaType contentType = RESPONSE.body().contentType();
+        return null != contentType && LocationCodec.MEDIA_TYPE.equals(contentType.type() + "/" + contentType.subtype());
+    }
+
+    private String getString(final String URL) {
+        Request getRequest = new Request.Builder().url(URL).build();
+        try (Response getResponse = client.newCall(getRequest).execute()) {
+            if (getResponse.isSuccessful()) {
+                return getResponse.body().string();
+            }
         } catch (IOException e){
 
         }
-        return new JSONArray();
+        return "[]";
+    }
+
+
+    // ******************** Inner Classes *************************************
+    /**
+     * Polling state of one backend. poll() is never called concurrently for
+     * the same endpoint, the result is published in current.
+     */
+    private class Endpoint {
+        private final String                  url;
+        private final EndpointStats           stats;
+        private final Map<String, Location>   locations;
+        private final LocationDecoder         decoder;
+        private final LocationCodec           codec;
+        private final AtomicBoolean           changed;
+        private volatile List<Location>       current;
+        private CompletableFuture<Boolean>    pending;
+        private volatile boolean              slow;
+        private String                        eTag;
+        private String                        lastModified;
+        private long                          since;
+        private int                           pollsSinceResync;
+
+        private Endpoint(final String URL) {
+            url       = URL;
+            stats     = new EndpointStats(URL);
+            locations = new LinkedHashMap<>();
+            decoder   = new LocationDecoder();
+            codec     = new LocationCodec();
+            changed   = new AtomicBoolean(false);
+            current   = Collections.emptyList();
+        }
+
+        /**
+         * @return true if the state of the backend changed
+         */
+        private boolean poll() {
+            final long    REQUEST = System.nanoTime();
+            try {
+                return fetch(REQUEST);
+            } finally {
+                slow = System.nanoTime() - REQUEST > TimeUnit.SECONDS.toNanos(FAN_OUT_TIMEOUT);
+            }
+        }
+
+        private boolean fetch(final long REQUEST) {
+            final boolean DELTA = incremental && since > 0 && pollsSinceResync < RESYNC_INTERVAL;
+
+            Request.Builder requestBuilder = new Request.Builder().header("Accept", binary ? ACCEPT_BINARY : ACCEPT_JSON);
+            if (DELTA) {
+                requestBuilder.url(url + LOCATIONS + "?since=" + since);
+            } else {
+                requestBuilder.url(url + LOCATIONS);
+                if (null != eTag)         { requestBuilder.header("If-None-Match", eTag); }
+                if (null != lastModified) { requestBuilder.header("If-Modified-Since", lastModified); }
+            }
+
+            long start = Metrics.INSTANCE.start();
+            try (Response response = client.newCall(requestBuilder.build()).execute()) {
+                Metrics.INSTANCE.stop(Metric.FETCH, start);
+                if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    pollsSinceResync = DELTA ? pollsSinceResync + 1 : 0;
+                    stats.notModified(System.nanoTime() - REQUEST);
+                    return false;
+                }
+                if (!response.isSuccessful()) {
+                    stats.error("HTTP " + response.code());
+                    return false;
+                }
+
+                start = Metrics.INSTANCE.start();
+                List<Location> received;
+                try (InputStream body = Metrics.INSTANCE.count(Metric.PAYLOAD_SIZE, response.body().byteStream())) {
+                    received = isBinary(response) ? codec.decode(body) : decoder.decode(body);
+                }
+                Metrics.INSTANCE.stop(Metric.DECODE, start);
+                Metrics.INSTANCE.record(Metric.PERSONS, received.size());
+                if (DELTA) {
+                    pollsSinceResync++;
+                    // The delta repeats the locations of the since second itself
+                    received.removeIf(location -> {
+                        final Location PREVIOUS = locations.get(location.name);
+                        return null != PREVIOUS && !LocationReconciler.hasChanged(PREVIOUS, location);
+                    });
+                    if (received.isEmpty()) {
+                        stats.notModified(System.nanoTime() - REQUEST);
+                        return false;
+                    }
+                } else {
+                    pollsSinceResync = 0;
+                    eTag             = response.header("ETag");
+                    lastModified     = response.header("Last-Modified");
+                    locations.clear();
+                }
+                for (Location location : received) {
+                    locations.put(location.name, location);
+                    since = Math.max(since, location.timestamp.getEpochSecond());
+                }
+                current = new ArrayList<>(locations.values());
+                stats.success(System.nanoTime() - REQUEST, locations.size());
+                changed.set(true);
+                return true;
+            } catch (IOException e) {
+                stats.error(e.getMessage());
+            }
+            return false;
+        }
     }
 }
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Two level cache in front of a TileSource.
+ * Tiles are kept in a memory LRU and in a size bounded LRU directory on
+ * disk (z/x/y files), so tiles that have been seen once are also available
+ * offline. Concurrent requests for the same missing tile are coalesced into
+ * one request to the source.
+ * Every requested tile can trigger a prefetch of its neighbours, its parent
+ * and its children, the prefetch queue is bounded and drops the oldest
+ * requests first because they belong to views that are most likely gone.
+ */
+public class TileCache {
+    public  static final long                               DEFAULT_MEMORY_SIZE   = 32L * 1024 * 1024;
+    public  static final long                               DEFAULT_DISK_SIZE     = 256L * 1024 * 1024;
+    private static final int                                PREFETCH_QUEUE_SIZE   = 256;
+    private final TileSource                                source;
+    private final File                                      directory;
+    private final long                                      maxMemorySize;
+    private final long                                      maxDiskSize;
+    private final LinkedHashMap<String, byte[]>             memory;
+    private final LinkedHashMap<String, Long>               disk;
+    private final Map<String, CompletableFuture<byte[]>>    inFlight;
+    private final ThreadPoolExecutor                        prefetchExecutor;
+    private long                                            memorySize;
+    private long                                            diskSize;
+
+
+    // ******************** Constructors **************************************
+    public TileCache(final TileSource SOURCE, final File DIRECTORY) { this(SOURCE, DIRECTORY, DEFAULT_MEMORY_SIZE, DEFAULT_DISK_SIZE); }
+    public TileCache(final TileSource SOURCE, final File DIRECTORY, final long MAX_MEMORY_SIZE, final long MAX_DISK_SIZE) {
+        source           = SOURCE;
+        directory        = DIRECTORY;
+        maxMemorySize    = MAX_MEMORY_SIZE;
+        maxDiskSize      = MAX_DISK_SIZE;
+        memory           = new LinkedHashMap<>(256, 0.75f, true);
+        disk             = new LinkedHashMap<>(1024, 0.75f, true);
+        inFlight         = new ConcurrentHashMap<>();
+        prefetchExecutor = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS, new LinkedBlockingDeque<>(PREFETCH_QUEUE_SIZE), runnable -> {
+            Thread thread = new Thread(runnable, "TilePrefetch");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardOldestPolicy());
+        prefetchExecutor.allowCoreThreadTimeOut(true);
+        if (null != DIRECTORY) { scanDirectory(); }
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Returns the given tile from memory, from disk or from the source.
+     * If the tile is already being loaded by another thread this call waits
+     * for that load instead of starting a second one.
+     * @return the encoded tile or null if the coordinates are out of range
+     * @throws IOException if the tile is neither cached nor loadable
+     */
+    public byte[] get(final int ZOOM, final int X, final int Y) throws IOException {
+        if (ZOOM < 0 || ZOOM > 30) return null;
+        final int MAX = 1 << ZOOM;
+        if (Y < 0 || Y >= MAX) return null;
+        final int    WRAPPED_X = Math.floorMod(X, MAX);
+        final String KEY       = key(ZOOM, WRAPPED_X, Y);
+
+        byte[] tile = getFromMemory(KEY);
+        if (null != tile) return tile;
+
+        CompletableFuture<byte[]> future  = new CompletableFuture<>();
+        CompletableFuture<byte[]> pending = inFlight.putIfAbsent(KEY, future);
+        if (null != pending) {
+            try {
+                return pending.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+        try {
+            tile = getFromDisk(KEY);
+            if (null == tile) {
+                tile = source.getTile(ZOOM, WRAPPED_X, Y);
+                putOnDisk(KEY, tile);
+            }
+            putInMemory(KEY, tile);
+            future.complete(tile);
+            return tile;
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(KEY, future);
+        }
+    }
+
+    /**
+     * Loads the 8 neighbours, the parent and the 4 children of the given
+     * tile in the background if they are not cached yet.
+     */
+    public void prefetch(final int ZOOM, final int X, final int Y) {
+        for (int dy = -1 ; dy <= 1 ; dy++) {
+            for (int dx = -1 ; dx <= 1 ; dx++) {
+                if (dx != 0 || dy != 0) { prefetchTile(ZOOM, X + dx, Y + dy); }
+            }
+        }
+        if (ZOOM > 0) { prefetchTile(ZOOM - 1, X >> 1, Y >> 1); }
+        if (ZOOM < 19) {
+            prefetchTile(ZOOM + 1, X << 1, Y << 1);
+            prefetchTile(ZOOM + 1, (X << 1) + 1, Y << 1);
+            prefetchTile(ZOOM + 1, X << 1, (Y << 1) + 1);
+            prefetchTile(ZOOM + 1, (X << 1) + 1, (Y << 1) + 1);
+        }
+    }
+
+    public boolean contains(final int ZOOM, final int X, final int Y) {
+        final String KEY = key(ZOOM, Math.floorMod(X, 1 << ZOOM), Y);
+        synchronized (memory) { if (memory.containsKey(KEY)) return true; }
+        synchronized (disk)   { return disk.containsKey(KEY); }
+    }
+
+    public long getMemorySize() { synchronized (memory) { return memorySize; } }
+
+    public long getDiskSize() { synchronized (disk) { return diskSize; } }
+
+    public void shutdown() { prefetchExecutor.shutdownNow(); }
+
+
+    // ******************** Private Methods ***********************************
+    private void prefetchTile(final int ZOOM, final int X, final int Y) {
+        final int MAX = 1 << ZOOM;
+        if (Y < 0 || Y >= MAX || contains(ZOOM, X, Y) || inFlight.containsKey(key(ZOOM, Math.floorMod(X, MAX), Y))) return;
+        prefetchExecutor.execute(() -> {
+            try {
+                get(ZOOM, X, Y);
+            } catch (IOException e) {
+                // prefetching is best effort
+            }
+        });
+    }
+
+    private byte[] getFromMemory(final String KEY) {
+        synchronized (memory) { return memory.get(KEY); }
+    }
+
+    private void putInMemory(final String KEY, final byte[] TILE) {
+        synchronized (memory) {
+            byte[] previous = memory.put(KEY, TILE);
+            if (null != previous) { memorySize -= previous.length; }
+            memorySize += TILE.length;
+            Iterator<byte[]> iterator = memory.values().iterator();
+            while (memorySize > maxMemorySize && iterator.hasNext()) {
+                memorySize -= iterator.next().length;
+                iterator.remove();
+            }
+        }
+    }
+
+    private byte[] getFromDisk(final String KEY) throws IOException {
+        if (null == directory) return null;
+        synchronized (disk) { if (null == disk.get(KEY)) return null; }
+        File file = new File(directory, KEY);
+        try {
+            byte[] tile = Files.readAllBytes(file.toPath());
+            // keeps the lru order across restarts
+            file.setLastModified(System.currentTimeMillis());
+            return tile;
+        } catch (IOException e) {
+            synchronized (disk) {
+                Long size = disk.remove(KEY);
+                if (null != size) { diskSize -= size; }
+            }
+            return null;
+        }
+    }
+
+    private void putOnDisk(final String KEY, final byte[] TILE) {
+        if (null == directory) return;
+        File file = new File(directory, KEY);
+        File temp = new File(directory, KEY + ".tmp");
+        try {
+            file.getParentFile().mkdirs();
+            try (FileOutputStream output = new FileOutputStream(temp)) { output.write(TILE); }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        List<String> evicted = new ArrayList<>();
+        synchronized (disk) {
+            Long previous = disk.put(KEY, (long) TILE.length);
+            if (null != previous) { diskSize -= previous; }
+            diskSize += TILE.length;
+            Iterator<Map.Entry<String, Long>> iterator = disk.entrySet().iterator();
+            while (diskSize > maxDiskSize && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                diskSize -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                iterator.remove();
+            }
+        }
+        for (String key : evicted) { new File(directory, key).delete(); }
+    }
+
+    private void scanDirectory() {
+        directory.mkdirs();
+        List<File> files = new ArrayList<>();
+        collectFiles(directory, files);
+        files.sort(Comparator.comparingLong(File::lastModified));
+        final String ROOT = directory.getAbsolutePath();
+        for (File file : files) {
+            String key = file.getAbsolutePath().substring(ROOT.length() + 1).replace(File.separatorChar, '/');
+            disk.put(key, file.length());
+            diskSize += file.length();
+        }
+    }
+
+    private static void collectFiles(final File DIRECTORY, final List<File> FILES) {
+        File[] children = DIRECTORY.listFiles();
+        if (null == children) return;
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectFiles(child, FILES);
+            } else if (child.getName().endsWith(".tmp")) {
+                child.delete();
+            } else {
+                FILES.add(child);
+            }
+        }
+    }
+
+    private static String key(final int ZOOM, final int X, final int Y) { return ZOOM + "/" + X + "/" + Y; }
+}
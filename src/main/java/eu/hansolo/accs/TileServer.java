@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Small http server on the loopback interface that serves the tiles of
+ * one or more TileCaches to the WebView under
+ * http://127.0.0.1:port/tiles/{layer}/{z}/{x}/{y}.png
+ * Every served tile triggers a prefetch of the surrounding tiles.
+ */
+public class TileServer {
+    private static final String          CONTEXT     = "/tiles/";
+    private static final int             THREADS     = 6;
+    private static final String          MAX_AGE     = "max-age=86400";
+    private final Map<String, TileCache> layers;
+    private HttpServer                   server;
+    private ExecutorService              executor;
+
+
+    // ******************** Constructors **************************************
+    public TileServer() {
+        layers = new ConcurrentHashMap<>();
+    }
+
+
+    // ******************** Methods *******************************************
+    public TileServer addLayer(final String NAME, final TileCache CACHE) {
+        layers.put(NAME, CACHE);
+        return this;
+    }
+
+    /**
+     * Starts the server on a free port of the loopback interface
+     */
+    public synchronized void start() throws IOException {
+        if (null != server) return;
+        executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "TileServer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(CONTEXT, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public synchronized void stop() {
+        if (null == server) return;
+        server.stop(0);
+        executor.shutdownNow();
+        for (TileCache cache : layers.values()) { cache.shutdown(); }
+        server = null;
+    }
+
+    /**
+     * @return the url that has to be used as prefix for the tile urls, e.g. http://127.0.0.1:49152/tiles
+     */
+    public synchronized String getBaseUrl() {
+        if (null == server) throw new IllegalStateException("Tile server not started");
+        return "http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort() + CONTEXT.substring(0, CONTEXT.length() - 1);
+    }
+
+
+    // ******************** Private Methods ***********************************
+    private void handle(final HttpExchange EXCHANGE) throws IOException {
+        try {
+            if (!"GET".equals(EXCHANGE.getRequestMethod())) {
+                EXCHANGE.sendResponseHeaders(405, -1);
+                return;
+            }
+            // {layer}/{z}/{x}/{y}.png
+            String[] parts = EXCHANGE.getRequestURI().getPath().substring(CONTEXT.length()).split("/");
+            TileCache cache = parts.length == 4 ? layers.get(parts[0]) : null;
+            if (null == cache) {
+                EXCHANGE.sendResponseHeaders(404, -1);
+                return;
+            }
+            final int ZOOM;
+            final int X;
+            final int Y;
+            try {
+                int dot = parts[3].indexOf('.');
+                ZOOM = Integer.parseInt(parts[1]);
+                X    = Integer.parseInt(parts[2]);
+                Y    = Integer.parseInt(dot < 0 ? parts[3] : parts[3].substring(0, dot));
+            } catch (NumberFormatException e) {
+                EXCHANGE.sendResponseHeaders(400, -1);
+                return;
+            }
+            byte[] tile;
+            try {
+                tile = cache.get(ZOOM, X, Y);
+            } catch (IOException e) {
+                EXCHANGE.sendResponseHeaders(502, -1);
+                return;
+            }
+            if (null == tile) {
+                EXCHANGE.sendResponseHeaders(404, -1);
+                return;
+            }
+            cache.prefetch(ZOOM, X, Y);
+            EXCHANGE.getResponseHeaders().set("Content-Type", getContentType(tile));
+            EXCHANGE.getResponseHeaders().set("Cache-Control", MAX_AGE);
+            EXCHANGE.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            EXCHANGE.sendResponseHeaders(200, tile.length);
+            try (OutputStream output = EXCHANGE.getResponseBody()) { output.write(tile); }
+        } finally {
+            EXCHANGE.close();
+        }
+    }
+
+    private static String getContentType(final byte[] TILE) {
+        if (TILE.length > 2 && (TILE[0] & 0xff) == 0xff && (TILE[1] & 0xff) == 0xd8) return "image/jpeg";
+        return "image/png";
+    }
+}
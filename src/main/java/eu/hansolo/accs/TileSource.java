@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import java.io.IOException;
+
+
+/**
+ * Source of map tiles in the usual z/x/y slippy map scheme.
+ * Implementations must be thread safe because tiles are requested from
+ * several threads at the same time.
+ */
+@FunctionalInterface
+public interface TileSource {
+    /**
+     * @param ZOOM the zoom level
+     * @param X    the tile column, 0 <= X < 2^ZOOM
+     * @param Y    the tile row, 0 <= Y < 2^ZOOM
+     * @return the encoded tile image (png or jpeg)
+     * @throws IOException if the tile could not be loaded
+     */
+    byte[] getTile(int ZOOM, int X, int Y) throws IOException;
+}
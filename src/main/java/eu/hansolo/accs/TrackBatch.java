@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import org.json.simple.JSONValue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Collects changed and removed track segments so that they can be sent to
+ * the map with one single call of document.applyTrackUpdates() in osm.html.
+ * The points of a segment are stored as flat array of
+ * latitude/longitude pairs.
+ */
+public class TrackBatch {
+    public interface Visitor {
+        void segment(String id, double[] points);
+
+        void remove(String id);
+    }
+
+    private static final double PRECISION = 1e6; // ~0.1m, more digits only blow up the script
+    private final List<String>   ids;
+    private final List<double[]> points;
+    private int                  pointCount;
+
+
+    // ******************** Constructors **************************************
+    public TrackBatch() {
+        ids    = new ArrayList<>();
+        points = new ArrayList<>();
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * @param ID     id of the segment
+     * @param POINTS latitude/longitude pairs of the simplified segment
+     */
+    public TrackBatch put(final String ID, final double[] POINTS) {
+        ids.add(ID);
+        points.add(POINTS);
+        pointCount += POINTS.length / 2;
+        return this;
+    }
+
+    public TrackBatch remove(final String ID) {
+        ids.add(ID);
+        points.add(null);
+        return this;
+    }
+
+    public boolean isEmpty() { return ids.isEmpty(); }
+
+    public int size() { return ids.size(); }
+
+    public int getPointCount() { return pointCount; }
+
+    /**
+     * Hands all collected updates over to the given visitor in the order they were added
+     */
+    public void forEach(final Visitor VISITOR) {
+        for (int i = 0 ; i < ids.size() ; i++) {
+            if (null == points.get(i)) {
+                VISITOR.remove(ids.get(i));
+            } else {
+                VISITOR.segment(ids.get(i), points.get(i));
+            }
+        }
+    }
+
+    /**
+     * @return the updates as json array in the format of document.applyTrackUpdates() in osm.html
+     */
+    public String toJSONString() {
+        StringBuilder json = new StringBuilder(ids.size() * 48 + pointCount * 24).append('[');
+        for (int i = 0 ; i < ids.size() ; i++) {
+            if (i > 0) { json.append(','); }
+            json.append("{\"id\":").append(JSONValue.toJSONString(ids.get(i)));
+            final double[] POINTS = points.get(i);
+            if (null == POINTS) {
+                json.append(",\"remove\":true}");
+                continue;
+            }
+            json.append(",\"points\":[");
+            for (int j = 0 ; j < POINTS.length ; j++) {
+                if (j > 0) { json.append(','); }
+                json.append(Math.round(POINTS[j] * PRECISION) / PRECISION);
+            }
+            json.append("]}");
+        }
+        return json.append(']').toString();
+    }
+
+    /**
+     * Sends all collected updates to the map and clears the batch.
+     * Must be called on the FX application thread.
+     * @param RENDERER the map
+     */
+    public void apply(final MapRenderer RENDERER) {
+        if (ids.isEmpty()) return;
+        final long START = Metrics.INSTANCE.start();
+        RENDERER.applyTrackUpdates(this);
+        Metrics.INSTANCE.stop(Metrics.Metric.TRACK_SCRIPT, START);
+        Metrics.INSTANCE.record(Metrics.Metric.TRACK_POINTS, pointCount);
+        ids.clear();
+        points.clear();
+        pointCount = 0;
+    }
+}
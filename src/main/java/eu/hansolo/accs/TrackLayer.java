@@ -0,0 +1,439 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Keeps the recent trail of every person and turns it into the minimal set
+ * of polyline updates for the map.
+ * Each trail is split into segments of SEGMENT_SIZE raw points, neighbouring
+ * segments share their boundary point so that the drawn line is connected.
+ * Every segment is simplified independently with Douglas-Peucker, the
+ * tolerance is TOLERANCE pixels at the given zoom level converted to meters
+ * and the error of a point is its distance in meters to the line between
+ * the kept points (based on Location.calcDistanceInMeter()).
+ * The simplified points are cached per segment and zoom level, a new
+ * position only changes the last segment of a trail, so only that segment
+ * is sent again and only its tail behind the last stable kept point is
+ * simplified again. Segments that are older than the
+ * maximum age are dropped as a whole.
+ * Below MIN_ZOOM no tracks are shown, once the visible bounds of the map are
+ * known only segments inside the bounds plus a margin are sent.
+ */
+public class TrackLayer {
+    public  static final int    MIN_ZOOM     = 12;
+    private static final int    MAX_ZOOM     = 19;
+    private static final int    SEGMENT_SIZE = 64;
+    private static final int    MAX_SEGMENTS = 32;
+    private static final double TOLERANCE    = 1.5;           // px
+    private static final double EQUATOR_MPP  = 156_543.03392; // meters per pixel at zoom 0
+    private static final double MARGIN       = 0.5;           // fraction of the visible width/height added on each side
+    private final long               maxAge;
+    private final Map<String, Track> tracks;
+    private Map<String, Long>        shown;
+    private long                     revision;
+    private int                      zoom;
+    private boolean                  culling;
+    private double                   south;
+    private double                   west;
+    private double                   north;
+    private double                   east;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * @param MAX_AGE seconds of a trail that are kept, counted back from the last position of the person
+     * @param ZOOM    initial zoom level of the map
+     */
+    public TrackLayer(final long MAX_AGE, final int ZOOM) {
+        maxAge = MAX_AGE;
+        tracks = new HashMap<>();
+        shown  = new HashMap<>();
+        zoom   = ZOOM;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Appends the position of the given location to the trail of the person.
+     * Positions that are not newer than the last point are skipped.
+     */
+    public void put(final Location LOCATION) {
+        Track track = tracks.get(LOCATION.name);
+        if (null == track) {
+            track = new Track(LOCATION.name);
+            tracks.put(LOCATION.name, track);
+        }
+        track.append(LOCATION.timestamp.getEpochSecond(), LOCATION.latitude, LOCATION.longitude);
+    }
+
+    /**
+     * Appends the given positions in chronological order, e.g. the track of a person from the LocationHistory
+     */
+    public void putAll(final List<Location> LOCATIONS) {
+        for (Location location : LOCATIONS) { put(location); }
+    }
+
+    /**
+     * Puts the given positions in front of the trail of the person, e.g.
+     * the track from the LocationHistory that was read in the background
+     * while new positions have already been appended. Positions that are
+     * not older than the first point of the trail are skipped, nothing
+     * happens if the person has been removed in the meantime.
+     * @param HISTORY positions in chronological order
+     */
+    public void putHistory(final String NAME, final List<Location> HISTORY) {
+        final Track CURRENT = tracks.get(NAME);
+        if (null == CURRENT || HISTORY.isEmpty()) return;
+        final long FIRST = CURRENT.size > 0 ? CURRENT.epochs[0] : Long.MAX_VALUE;
+        final Track TRACK = new Track(NAME);
+        for (Location location : HISTORY) {
+            final long EPOCH_SECOND = location.timestamp.getEpochSecond();
+            if (EPOCH_SECOND >= FIRST) break;
+            TRACK.append(EPOCH_SECOND, location.latitude, location.longitude);
+        }
+        if (TRACK.size == 0) return;
+        for (int i = 0 ; i < CURRENT.size ; i++) { TRACK.append(CURRENT.epochs[i], CURRENT.latitudes[i], CURRENT.longitudes[i]); }
+        tracks.put(NAME, TRACK);
+    }
+
+    public void remove(final String NAME) { tracks.remove(NAME); }
+
+    public boolean contains(final String NAME) { return tracks.containsKey(NAME); }
+
+    public long getMaxAge() { return maxAge; }
+
+    /**
+     * @return number of raw points of the trail of the given person
+     */
+    public int getPointCount(final String NAME) {
+        Track track = tracks.get(NAME);
+        return null == track ? 0 : track.size;
+    }
+
+    /**
+     * Sets the zoom level and the visible bounds of the map
+     * @return true if zoom or bounds changed
+     */
+    public boolean setView(final int ZOOM, final double SOUTH, final double WEST, final double NORTH, final double EAST) {
+        final double LAT_MARGIN = (NORTH - SOUTH) * MARGIN;
+        final double LON_MARGIN = (EAST - WEST) * MARGIN;
+        final double NEW_SOUTH  = Math.max(-90, SOUTH - LAT_MARGIN);
+        final double NEW_NORTH  = Math.min(90, NORTH + LAT_MARGIN);
+        final double NEW_WEST   = WEST - LON_MARGIN;
+        final double NEW_EAST   = EAST + LON_MARGIN;
+        boolean changed = ZOOM != zoom;
+        zoom = ZOOM;
+        if (!culling || NEW_SOUTH != south || NEW_WEST != west || NEW_NORTH != north || NEW_EAST != east) {
+            culling = NEW_EAST - NEW_WEST < 360;
+            south   = NEW_SOUTH;
+            west    = NEW_WEST;
+            north   = NEW_NORTH;
+            east    = NEW_EAST;
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Forgets what has been sent to the map, e.g. after osm.html has been (re)loaded
+     */
+    public void reset() { shown.clear(); }
+
+    /**
+     * Adds all segments that changed since the last call, either because a
+     * point was added or because the zoom level changed, to the given batch.
+     * @param BATCH receives the segment updates and removals
+     */
+    public void sync(final TrackBatch BATCH) {
+        final Map<String, Long> NEXT = new HashMap<>(shown.size() * 4 / 3 + 16);
+        if (zoom >= MIN_ZOOM) {
+            final int LEVEL = Math.min(MAX_ZOOM, zoom);
+            for (Track track : tracks.values()) {
+                for (Segment segment : track.segments) {
+                    if (segment.end - segment.start < 1) continue;
+                    if (culling && !isVisible(segment)) continue;
+                    // Revisions are unique over all segments, a recreated segment with the same id is sent again as well
+                    final long STAMP    = segment.revision << 5 | LEVEL;
+                    final Long PREVIOUS = shown.remove(segment.id);
+                    if (null == PREVIOUS || PREVIOUS != STAMP) { BATCH.put(segment.id, track.simplify(segment, LEVEL)); }
+                    NEXT.put(segment.id, STAMP);
+                }
+            }
+        }
+        for (String id : shown.keySet()) { BATCH.remove(id); }
+        shown = NEXT;
+    }
+
+    /**
+     * Simplifies the given points with Douglas-Peucker
+     * @param LATITUDES  latitudes of the points
+     * @param LONGITUDES longitudes of the points
+     * @param FROM       index of the first point
+     * @param TO         index of the last point (inclusive)
+     * @param MAX_ERROR  maximum distance in meters of a dropped point to the simplified line
+     * @return the kept points as flat array of latitude/longitude pairs
+     */
+    public static double[] simplify(final double[] LATITUDES, final double[] LONGITUDES, final int FROM, final int TO, final double MAX_ERROR) {
+        final int[]    KEPT   = new int[TO - FROM + 1];
+        final int      COUNT  = simplify(LATITUDES, LONGITUDES, FROM, TO, MAX_ERROR, KEPT, 0, FROM);
+        final double[] POINTS = new double[2 * COUNT];
+        for (int i = 0 ; i < COUNT ; i++) {
+            POINTS[2 * i]     = LATITUDES[FROM + KEPT[i]];
+            POINTS[2 * i + 1] = LONGITUDES[FROM + KEPT[i]];
+        }
+        return POINTS;
+    }
+
+    /**
+     * @return the tolerance in meters that corresponds to TOLERANCE pixels at the given zoom level and latitude
+     */
+    public static double getTolerance(final int ZOOM, final double LATITUDE) {
+        return TOLERANCE * EQUATOR_MPP * Math.cos(Math.toRadians(LATITUDE)) / (1 << ZOOM);
+    }
+
+
+    // ******************** Private Methods ***********************************
+    /**
+     * The bounds of a map that wraps may lie outside of [-180, 180], so the
+     * segment is also checked one world to the west and to the east
+     */
+    private boolean isVisible(final Segment SEGMENT) {
+        if (SEGMENT.south > north || SEGMENT.north < south) return false;
+        for (int shift = -360 ; shift <= 360 ; shift += 360) {
+            if (SEGMENT.west + shift <= east && SEGMENT.east + shift >= west) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Douglas-Peucker on the points from FROM to TO (inclusive), the indices
+     * of the kept points minus BASE are appended to KEPT in ascending order
+     * @return the number of entries in KEPT
+     */
+    private static int simplify(final double[] LATITUDES, final double[] LONGITUDES, final int FROM, final int TO, final double MAX_ERROR,
+                                final int[] KEPT, final int COUNT, final int BASE) {
+        final int       POINTS = TO - FROM + 1;
+        final boolean[] KEEP   = new boolean[POINTS];
+        final int[]     STACK  = new int[2 * POINTS];
+        int top = 0;
+        KEEP[0]          = true;
+        KEEP[POINTS - 1] = true;
+        if (POINTS > 2) {
+            STACK[top++] = FROM;
+            STACK[top++] = TO;
+        }
+        while (top > 0) {
+            final int    LAST   = STACK[--top];
+            final int    FIRST  = STACK[--top];
+            final double LENGTH = Location.calcDistanceInMeter(LATITUDES[FIRST], LONGITUDES[FIRST], LATITUDES[LAST], LONGITUDES[LAST]);
+            double maxDistance = MAX_ERROR;
+            int    index       = -1;
+            for (int i = FIRST + 1 ; i < LAST ; i++) {
+                final double DISTANCE = distanceToLine(LATITUDES[i], LONGITUDES[i], LATITUDES[FIRST], LONGITUDES[FIRST], LATITUDES[LAST], LONGITUDES[LAST], LENGTH);
+                if (DISTANCE > maxDistance) {
+                    maxDistance = DISTANCE;
+                    index       = i;
+                }
+            }
+            if (index < 0) continue;
+            KEEP[index - FROM] = true;
+            if (index - FIRST > 1) {
+                STACK[top++] = FIRST;
+                STACK[top++] = index;
+            }
+            if (LAST - index > 1) {
+                STACK[top++] = index;
+                STACK[top++] = LAST;
+            }
+        }
+        int count = COUNT;
+        for (int i = 0 ; i < POINTS ; i++) {
+            if (KEEP[i]) { KEPT[count++] = FROM + i - BASE; }
+        }
+        return count;
+    }
+
+    /**
+     * Distance in meters of P to the line segment A-B, taken from the
+     * triangle of the three great circle distances. If the angle at A or B
+     * is obtuse the closest point is A or B itself.
+     */
+    private static double distanceToLine(final double LAT_P, final double LON_P, final double LAT_A, final double LON_A,
+                                         final double LAT_B, final double LON_B, final double AB) {
+        final double AP = Location.calcDistanceInMeter(LAT_A, LON_A, LAT_P, LON_P);
+        if (AB == 0) return AP;
+        final double BP = Location.calcDistanceInMeter(LAT_B, LON_B, LAT_P, LON_P);
+        if (BP * BP >= AB * AB + AP * AP) return AP;
+        if (AP * AP >= AB * AB + BP * BP) return BP;
+        // Heron's formula in the numerically stable form for needle-like triangles (a >= b >= c)
+        final double A = Math.max(AB, Math.max(AP, BP));
+        final double C = Math.min(AB, Math.min(AP, BP));
+        final double B = AB + AP + BP - A - C;
+        final double AREA = 0.25 * Math.sqrt(Math.max(0, (A + (B + C)) * (C - (A - B)) * (C + (A - B)) * (A + (B - C))));
+        return 2 * AREA / AB;
+    }
+
+
+    // ******************** Inner Classes *************************************
+    private class Track {
+        private final String        name;
+        private final List<Segment> segments;
+        private double[]            latitudes;
+        private double[]            longitudes;
+        private long[]              epochs;
+        private int                 size;
+        private int                 firstSegment; // index of segments.get(0) since the start of the trail
+
+        private Track(final String NAME) {
+            name       = NAME;
+            segments   = new ArrayList<>();
+            latitudes  = new double[SEGMENT_SIZE + 1];
+            longitudes = new double[SEGMENT_SIZE + 1];
+            epochs     = new long[SEGMENT_SIZE + 1];
+        }
+
+        private void append(final long EPOCH_SECOND, final double LATITUDE, final double LONGITUDE) {
+            if (size > 0) {
+                if (EPOCH_SECOND <= epochs[size - 1]) return;
+                if (LATITUDE == latitudes[size - 1] && LONGITUDE == longitudes[size - 1]) {
+                    // Not moved, the drawn line stays the same
+                    epochs[size - 1] = EPOCH_SECOND;
+                    return;
+                }
+            }
+            if (size == latitudes.length) { grow(); }
+            latitudes[size]  = LATITUDE;
+            longitudes[size] = LONGITUDE;
+            epochs[size]     = EPOCH_SECOND;
+            final int INDEX = size++;
+
+            if (INDEX / SEGMENT_SIZE == segments.size()) {
+                segments.add(new Segment(name + '#' + (firstSegment + segments.size()), INDEX));
+            }
+            final Segment LAST = segments.get(segments.size() - 1);
+            LAST.end = INDEX;
+            touch(LAST, LATITUDE, LONGITUDE);
+            if (INDEX % SEGMENT_SIZE == 0 && segments.size() > 1) {
+                // The first point of a new segment is also the last point of the previous one
+                final Segment PREVIOUS = segments.get(segments.size() - 2);
+                PREVIOUS.end = INDEX;
+                touch(PREVIOUS, LATITUDE, LONGITUDE);
+            }
+            evict(EPOCH_SECOND - maxAge);
+        }
+
+        /**
+         * Drops the oldest segments while all of their points are older than
+         * the given epoch second or the trail is too long
+         */
+        private void evict(final long OLDEST) {
+            while (segments.size() > 1 && (segments.size() > MAX_SEGMENTS || epochs[SEGMENT_SIZE] < OLDEST)) {
+                System.arraycopy(latitudes, SEGMENT_SIZE, latitudes, 0, size - SEGMENT_SIZE);
+                System.arraycopy(longitudes, SEGMENT_SIZE, longitudes, 0, size - SEGMENT_SIZE);
+                System.arraycopy(epochs, SEGMENT_SIZE, epochs, 0, size - SEGMENT_SIZE);
+                size -= SEGMENT_SIZE;
+                segments.remove(0);
+                for (Segment segment : segments) {
+                    segment.start -= SEGMENT_SIZE;
+                    segment.end   -= SEGMENT_SIZE;
+                }
+                firstSegment++;
+            }
+        }
+
+        private void grow() {
+            final int CAPACITY = Math.min(latitudes.length * 2, MAX_SEGMENTS * SEGMENT_SIZE + SEGMENT_SIZE + 1);
+            final double[] LATITUDES  = new double[CAPACITY];
+            final double[] LONGITUDES = new double[CAPACITY];
+            final long[]   EPOCHS     = new long[CAPACITY];
+            System.arraycopy(latitudes, 0, LATITUDES, 0, size);
+            System.arraycopy(longitudes, 0, LONGITUDES, 0, size);
+            System.arraycopy(epochs, 0, EPOCHS, 0, size);
+            latitudes  = LATITUDES;
+            longitudes = LONGITUDES;
+            epochs     = EPOCHS;
+        }
+
+        private void touch(final Segment SEGMENT, final double LATITUDE, final double LONGITUDE) {
+            SEGMENT.revision = ++revision;
+            SEGMENT.south    = Math.min(SEGMENT.south, LATITUDE);
+            SEGMENT.north    = Math.max(SEGMENT.north, LATITUDE);
+            SEGMENT.west     = Math.min(SEGMENT.west, LONGITUDE);
+            SEGMENT.east     = Math.max(SEGMENT.east, LONGITUDE);
+            for (int i = 0 ; i < SEGMENT.points.length ; i++) { SEGMENT.points[i] = null; }
+        }
+
+        /**
+         * Only the part of the segment after the last kept point before the
+         * previous end is simplified again when points were appended, the
+         * kept points in front of it stay as they are.
+         */
+        private double[] simplify(final Segment SEGMENT, final int ZOOM) {
+            final int LEVEL  = ZOOM - MIN_ZOOM;
+            double[]  points = SEGMENT.points[LEVEL];
+            if (null != points) return points;
+            if (null == SEGMENT.kept[LEVEL]) { SEGMENT.kept[LEVEL] = new int[SEGMENT_SIZE + 1]; }
+            final int[] KEPT  = SEGMENT.kept[LEVEL];
+            int         count = SEGMENT.keptCount[LEVEL];
+            if (count == 0 || KEPT[count - 1] < SEGMENT.end - SEGMENT.start) {
+                final int ANCHOR = count > 1 ? KEPT[count - 2] : 0;
+                count = TrackLayer.simplify(latitudes, longitudes, SEGMENT.start + ANCHOR, SEGMENT.end, getTolerance(ZOOM, latitudes[SEGMENT.start]),
+                                            KEPT, Math.max(0, count - 2), SEGMENT.start);
+                SEGMENT.keptCount[LEVEL] = count;
+            }
+            points = new double[2 * count];
+            for (int i = 0 ; i < count ; i++) {
+                points[2 * i]     = latitudes[SEGMENT.start + KEPT[i]];
+                points[2 * i + 1] = longitudes[SEGMENT.start + KEPT[i]];
+            }
+            SEGMENT.points[LEVEL] = points;
+            return points;
+        }
+    }
+
+    private static class Segment {
+        private final String     id;
+        private final int[][]    kept;       // offsets of the kept points from start per zoom level from MIN_ZOOM to MAX_ZOOM
+        private final int[]      keptCount;
+        private final double[][] points;     // kept points as latitude/longitude pairs, null if not up to date
+        private int              start;      // index of the first raw point in the track
+        private int              end;        // index of the last raw point in the track (inclusive)
+        private long             revision;
+        private double           south;
+        private double           west;
+        private double           north;
+        private double           east;
+
+        private Segment(final String ID, final int START) {
+            id         = ID;
+            kept       = new int[MAX_ZOOM - MIN_ZOOM + 1][];
+            keptCount  = new int[MAX_ZOOM - MIN_ZOOM + 1];
+            points     = new double[MAX_ZOOM - MIN_ZOOM + 1][];
+            start      = START;
+            end        = START;
+            south      = Double.MAX_VALUE;
+            west       = Double.MAX_VALUE;
+            north      = -Double.MAX_VALUE;
+            east       = -Double.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2016 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.hansolo.accs;
+
+import javafx.concurrent.Worker;
+import javafx.scene.Node;
+import javafx.scene.web.WebEngine;
+import javafx.scene.web.WebView;
+import netscape.javascript.JSObject;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.net.URL;
+import java.util.Collection;
+import java.util.Map;
+
+
+/**
+ * Shows the map with Leaflet (osm.html) in a WebView, all updates are sent
+ * with executeScript() and the view changes come back over the MapConnector.
+ */
+public class WebMapRenderer implements MapRenderer {
+    private static final String OPEN_STREET_MAP = "osm.html";
+    private final MapConnector  mapConnector;
+    private final TileServer    tileServer;
+    private final WebView       webView;
+    private final WebEngine     webEngine;
+
+
+    // ******************** Constructors **************************************
+    /**
+     * @param MAP_CONNECTOR receives the upcalls of osm.html
+     * @param TILE_SERVER   the local tile server for both tile layers or null to load them from the providers
+     */
+    public WebMapRenderer(final MapConnector MAP_CONNECTOR, final TileServer TILE_SERVER) {
+        mapConnector = MAP_CONNECTOR;
+        tileServer   = TILE_SERVER;
+        webView      = new WebView();
+        webEngine    = webView.getEngine();
+    }
+
+
+    // ******************** Methods *******************************************
+    @Override public Node getNode() { return webView; }
+
+    @Override public void load(final Runnable ON_LOADED) {
+        webEngine.getLoadWorker().stateProperty().addListener((ov, o, n) -> {
+            if (Worker.State.SUCCEEDED == n) {
+                JSObject window = (JSObject) webEngine.executeScript("window");
+                window.setMember("javaConnector", mapConnector);
+                if (null != tileServer) { webEngine.executeScript("document.setTileServer('" + tileServer.getBaseUrl() + "');"); }
+                webEngine.executeScript("document.reportView();");
+                ON_LOADED.run();
+            }
+        });
+        URL maps = WebMapRenderer.class.getResource(OPEN_STREET_MAP);
+        webEngine.load(maps.toExternalForm());
+    }
+
+    @Override public void applyMarkerUpdates(final MarkerBatch BATCH) {
+        webEngine.executeScript("document.applyMarkerUpdates(" + BATCH.toJSONString() + ");");
+    }
+
+    @Override public void clearMarkers() { webEngine.executeScript("document.clearMarkers();"); }
+
+    @Override public void panTo(final double LATITUDE, final double LONGITUDE) {
+        webEngine.executeScript("document.panTo(" + LATITUDE + ", " + LONGITUDE + ");");
+    }
+
+    @Override public void panToMarker(final String NAME) {
+        webEngine.executeScript("document.panToMarker(" + JSONValue.toJSONString(NAME) + ");");
+    }
+
+    @Override public void setFences(final Collection<Geofence> FENCES) {
+        JSONArray fences = new JSONArray();
+        for (Geofence fence : FENCES) { fences.add(fence.toJSON()); }
+        webEngine.executeScript("document.setFences(" + fences.toJSONString() + ");");
+    }
+
+    @Override public void applyFenceUpdates(final Map<String, Integer> OCCUPANCY) {
+        JSONArray updates = new JSONArray();
+        for (Map.Entry<String, Integer> entry : OCCUPANCY.entrySet()) {
+            JSONObject update = new JSONObject();
+            update.put("id", entry.getKey());
+            update.put("count", entry.getValue());
+            updates.add(update);
+        }
+        webEngine.executeScript("document.applyFenceUpdates(" + updates.toJSONString() + ");");
+    }
+
+    @Override public void applyTrackUpdates(final TrackBatch BATCH) {
+        webEngine.executeScript("document.applyTrackUpdates(" + BATCH.toJSONString() + ");");
+    }
+
+    @Override public void clearTracks() { webEngine.executeScript("document.clearTracks();"); }
+
+    @Override public void dispose() { webEngine.load(null); }
+}